@@ -2,10 +2,17 @@ package com.remicartier.newisland;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class NewIslandApplication {
 	public static void main(String[] args) {
-		SpringApplication.run(NewIslandApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(NewIslandApplication.class, args);
+		// Training run of the class data sharing archive, see the fast-startup build profile
+		if (context.getEnvironment().getProperty("app.startup.exitWhenStarted", Boolean.class, false)) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 }
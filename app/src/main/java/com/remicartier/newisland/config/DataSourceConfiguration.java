@@ -0,0 +1,92 @@
+package com.remicartier.newisland.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.flyway.FlywayDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Two bounded Hikari pools on the {@code spring.datasource} database, acting as bulkheads: a burst of vacancy polls or
+ * lookups can exhaust the {@code read} pool, never the connections that bookings, updates and deletions take from the
+ * {@code write} pool. Each pool is configured under {@code app.datasource.read} and {@code app.datasource.write} with
+ * the usual Hikari settings ({@code maximum-pool-size}, {@code connection-timeout}...), and is observable through the
+ * {@code hikaricp.connections.*} meters tagged with its name.
+ * <p>
+ * The application's {@link DataSource} routes read-write transactions to the write pool, and anything else, read-only
+ * transactions and statements run outside a transaction, to the read pool: writes have to be made in a read-write
+ * transaction. It hands out lazy connections, so that the route is picked on the first statement, once the
+ * transaction's read-only flag is known, and a transaction that doesn't run any statement doesn't check out a
+ * connection at all.
+ */
+@Configuration
+public class DataSourceConfiguration {
+    final static String READ_POOL = "read";
+    final static String WRITE_POOL = "write";
+
+    @Bean
+    @ConfigurationProperties("app.datasource.read")
+    public HikariDataSource readDataSource(DataSourceProperties properties) {
+        return createPool(properties, READ_POOL);
+    }
+
+    /**
+     * Also the one Flyway migrates the schema with
+     */
+    @Bean
+    @FlywayDataSource
+    @ConfigurationProperties("app.datasource.write")
+    public HikariDataSource writeDataSource(DataSourceProperties properties) {
+        return createPool(properties, WRITE_POOL);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource readDataSource, HikariDataSource writeDataSource) {
+        ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource();
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(READ_POOL, readDataSource);
+        targetDataSources.put(WRITE_POOL, writeDataSource);
+        routingDataSource.setTargetDataSources(targetDataSources);
+        routingDataSource.setDefaultTargetDataSource(readDataSource);
+        routingDataSource.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    /**
+     * Read-only transactions for the code that doesn't use {@code @Transactional(readOnly = true)}, e.g. to read a
+     * consistent snapshot from the read pool in a non-transactional method
+     */
+    @Bean
+    public TransactionOperations readOnlyTransaction(PlatformTransactionManager transactionManager) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        return transactionTemplate;
+    }
+
+    private static HikariDataSource createPool(DataSourceProperties properties, String poolName) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName(poolName);
+        return dataSource;
+    }
+
+    static class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+        @Override
+        protected Object determineCurrentLookupKey() {
+            return TransactionSynchronizationManager.isActualTransactionActive()
+                    && !TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? WRITE_POOL : READ_POOL;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.remicartier.newisland.config;
+
+import com.remicartier.newisland.service.ReservationQueries;
+import com.remicartier.newisland.service.SqlStatement;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application meters, on top of the ones Spring Boot binds itself ({@code http.server.requests} per endpoint,
+ * {@code hikaricp.connections.*} for the connection pool, JVM and Tomcat). They are scraped from
+ * {@code /actuator/prometheus}.
+ * <ul>
+ *     <li>{@code reservation.service}: {@code ReservationService} methods, through {@code @Timed}</li>
+ *     <li>{@code reservation.sql}: executions and time spent per {@link ReservationQueries} statement</li>
+ *     <li>{@code reservation.conflicts} and {@code reservation.rejections}: see {@code ReservationMetrics}</li>
+ *     <li>{@code reservation.pipeline.batch} and {@code reservation.pipeline.queue}: see {@code BookingPipeline}</li>
+ * </ul>
+ * Tags only take values from a fixed set (statement, class and method names, operations) to keep the number of
+ * series bounded.
+ */
+@Configuration
+public class MetricsConfiguration {
+    public final static String SQL_TIMER = "reservation.sql";
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+
+    /**
+     * Reads the counts that each {@link SqlStatement} keeps anyway, so that timing statements costs nothing more on
+     * the hot path
+     */
+    @Bean
+    public MeterBinder sqlStatementMetrics() {
+        return meterRegistry -> ReservationQueries.all().forEach(statement -> FunctionTimer.builder(SQL_TIMER, statement,
+                SqlStatement::getExecutions, s -> s.getTotalTime().toNanos(), TimeUnit.NANOSECONDS)
+                .description("SQL statements executed by the reservation service")
+                .tag("statement", statement.getName())
+                .register(meterRegistry));
+    }
+}
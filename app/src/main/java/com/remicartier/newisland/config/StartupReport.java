@@ -0,0 +1,108 @@
+package com.remicartier.newisland.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringApplicationRunListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.ConfigurableEnvironment;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Times each phase of the application startup, logs them once it is running and publishes them as the
+ * {@code application.startup} gauge, tagged with the phase, so that startup time can be followed across releases:
+ * <ul>
+ *     <li>{@code jvm}: from the JVM start to {@code SpringApplication.run}, mostly class loading, which a class data
+ *     sharing archive shortens (see the {@code fast-startup} build profile)</li>
+ *     <li>{@code environment}: property sources and profiles</li>
+ *     <li>{@code context}: creating the application context and registering its sources</li>
+ *     <li>{@code refresh}: bean definitions, auto-configuration, singletons, Flyway and the web server</li>
+ *     <li>{@code runners}: application and command line runners</li>
+ * </ul>
+ * It is registered through {@code META-INF/spring.factories}, as Spring Boot instantiates run listeners before any
+ * bean.
+ */
+@Slf4j
+public class StartupReport implements SpringApplicationRunListener {
+    final static String STARTUP_GAUGE = "application.startup";
+
+    private final LongSupplier nanoTime;
+    private final Map<String, Duration> phases = new LinkedHashMap<>();
+    private long phaseStart;
+
+    public StartupReport(SpringApplication application, String[] args) {
+        this(System::nanoTime, ManagementFactory.getRuntimeMXBean()::getUptime);
+    }
+
+    StartupReport(LongSupplier nanoTime, LongSupplier jvmUptimeMillis) {
+        this.nanoTime = nanoTime;
+        phaseStart = nanoTime.getAsLong() - Duration.ofMillis(jvmUptimeMillis.getAsLong()).toNanos();
+    }
+
+    @Override
+    public void starting() {
+        endPhase("jvm");
+    }
+
+    @Override
+    public void environmentPrepared(ConfigurableEnvironment environment) {
+        endPhase("environment");
+    }
+
+    @Override
+    public void contextLoaded(ConfigurableApplicationContext context) {
+        endPhase("context");
+    }
+
+    @Override
+    public void started(ConfigurableApplicationContext context) {
+        endPhase("refresh");
+    }
+
+    @Override
+    public void running(ConfigurableApplicationContext context) {
+        endPhase("runners");
+        log.info("Started in {}: {}", format(getTotal()), phases.entrySet().stream()
+                .map(phase -> phase.getKey() + " " + format(phase.getValue()))
+                .collect(Collectors.joining(", ")));
+        context.getBeanProvider(MeterRegistry.class).ifAvailable(this::bindTo);
+    }
+
+    /**
+     * @return the duration of each phase ended so far, in startup order
+     */
+    public Map<String, Duration> getPhases() {
+        return Collections.unmodifiableMap(phases);
+    }
+
+    public Duration getTotal() {
+        return phases.values().stream().reduce(Duration.ZERO, Duration::plus);
+    }
+
+    void bindTo(MeterRegistry meterRegistry) {
+        phases.forEach((phase, duration) -> Gauge.builder(STARTUP_GAUGE, duration, d -> d.toNanos() / 1e9)
+                .description("Time spent in each phase of the application startup")
+                .baseUnit("seconds")
+                .tag("phase", phase)
+                .strongReference(true)
+                .register(meterRegistry));
+    }
+
+    private void endPhase(String phase) {
+        long now = nanoTime.getAsLong();
+        phases.put(phase, Duration.ofNanos(now - phaseStart));
+        phaseStart = now;
+    }
+
+    private static String format(Duration duration) {
+        return duration.toMillis() + " ms";
+    }
+}
@@ -0,0 +1,58 @@
+package com.remicartier.newisland.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Opt-in ({@code app.virtualThreads.enabled=true}) execution of Tomcat requests on virtual threads, one per request
+ * instead of a bounded worker pool. Everything a request does, including the {@code ReservationService} JDBC calls, then
+ * runs on its virtual thread: a request waiting on Postgres or on a pooled connection only holds a few hundred bytes
+ * of stack rather than a platform thread.
+ * <p>
+ * The code is compiled for {@code java.version}, which predates virtual threads, so they are created through
+ * reflection and need a Java 21 runtime; the application fails to start otherwise.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.virtualThreads.enabled", havingValue = "true")
+@Slf4j
+public class VirtualThreadsConfiguration {
+    private final static String THREAD_NAME_PREFIX = "http-vt-";
+
+    @Bean
+    public ExecutorService virtualThreadExecutor() {
+        ExecutorService executorService = newVirtualThreadPerTaskExecutor(THREAD_NAME_PREFIX);
+        log.info("Requests will run on virtual threads ({})", Runtime.version());
+        return executorService;
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer(ExecutorService virtualThreadExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+
+    /**
+     * Reflective {@code Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory())}
+     *
+     * @throws IllegalStateException when the runtime doesn't support virtual threads
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        try {
+            Class<?> virtualBuilderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = virtualBuilderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) virtualBuilderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (ClassNotFoundException | NoSuchMethodException x) {
+            throw new IllegalStateException("app.virtualThreads.enabled needs a Java 21 runtime, this one is " + Runtime.version(), x);
+        } catch (ReflectiveOperationException x) {
+            throw new IllegalStateException("Unable to create virtual threads", x);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.remicartier.newisland.controller;
 
 import com.remicartier.model.ErrorMessage;
+import com.remicartier.newisland.exception.InProgressException;
+import com.remicartier.newisland.exception.PreconditionFailedException;
 import com.remicartier.newisland.exception.ValidationException;
 import lombok.extern.slf4j.Slf4j;
-import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -12,6 +14,7 @@ import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import java.time.LocalDate;
@@ -26,13 +29,36 @@ import java.util.stream.Collectors;
 @ControllerAdvice
 @Slf4j
 public class ControllerAdvisor extends ResponseEntityExceptionHandler {
+    private final ReservationMetrics reservationMetrics;
+
+    @Autowired
+    public ControllerAdvisor(ReservationMetrics reservationMetrics) {
+        this.reservationMetrics = reservationMetrics;
+    }
+
     @ExceptionHandler(ValidationException.class)
-    public ResponseEntity<ErrorMessage> handleValidationException(ValidationException ex) {
+    public ResponseEntity<ErrorMessage> handleValidationException(ValidationException ex, HandlerMethod handlerMethod) {
+        reservationMetrics.rejected(handlerMethod.getMethod().getName(), ex);
         ErrorMessage errorMessage = new ErrorMessage();
         errorMessage.message(ex.getMessage());
         return new ResponseEntity<>(errorMessage, HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<ErrorMessage> handlePreconditionFailedException(PreconditionFailedException ex) {
+        ErrorMessage errorMessage = new ErrorMessage();
+        errorMessage.message(ex.getMessage());
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).eTag(ReservationsController.eTag(ex.getCurrentVersion())).body(errorMessage);
+    }
+
+    @ExceptionHandler(InProgressException.class)
+    public ResponseEntity<ErrorMessage> handleInProgressException(InProgressException ex) {
+        ErrorMessage errorMessage = new ErrorMessage();
+        errorMessage.message(ex.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT).header(HttpHeaders.RETRY_AFTER, Long.toString(ex.getRetryAfter().getSeconds()))
+                .body(errorMessage);
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ErrorMessage> handleAnyException(Exception ex, WebRequest request) {
         log.warn("Request " + request.toString() + " returned ", ex);
@@ -0,0 +1,111 @@
+package com.remicartier.newisland.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.newisland.exception.ValidationException;
+import com.remicartier.newisland.service.ReservationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Bulk export of the reservations, for reconciliation. Rows are written to the response as they come out of the
+ * database cursor, so neither side holds the whole table in memory.
+ * <p>
+ * The export carries every guest's email and name without any authentication, so it only exists when
+ * {@code app.export.enabled} is true, which it isn't by default. Not meant to be exposed to the public either way.
+ */
+@Controller
+@ConditionalOnProperty(name = "app.export.enabled", havingValue = "true")
+@Slf4j
+public class ExportController {
+    public final static String NDJSON = "ndjson";
+    public final static String CSV = "csv";
+    private final static String CSV_HEADER = "id,email,fullName,siteId,startDate,endDate";
+
+    private final ReservationService reservationService;
+    private final ObjectWriter objectWriter;
+    private final int fetchSize;
+
+    @Autowired
+    public ExportController(ReservationService reservationService, ObjectMapper objectMapper,
+                            @Value("${app.export.fetchSize:1000}") int fetchSize) {
+        this.reservationService = reservationService;
+        this.objectWriter = objectMapper.writerFor(ConfirmedReservation.class);
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @param format    {@value #NDJSON}, one JSON reservation per line, or {@value #CSV}
+     * @param startDate only the reservations ending on or after that day, when defined
+     * @param endDate   only the reservations starting on or before that day, when defined
+     */
+    @GetMapping(path = "/admin/reservations")
+    public void exportReservations(@RequestParam(defaultValue = NDJSON) String format,
+                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                                   HttpServletResponse response) throws IOException {
+        boolean csv;
+        if (NDJSON.equals(format)) {
+            csv = false;
+            response.setContentType("application/x-ndjson");
+        } else if (CSV.equals(format)) {
+            csv = true;
+            response.setContentType("text/csv");
+        } else {
+            throw new ValidationException("Parameter 'format' must be " + NDJSON + " or " + CSV);
+        }
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"reservations." + format + "\"");
+
+        Writer writer = response.getWriter();
+        if (csv) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+        long count = reservationService.exportReservations(startDate, endDate, fetchSize, confirmedReservation -> {
+            try {
+                writer.write(csv ? toCsv(confirmedReservation) : objectWriter.writeValueAsString(confirmedReservation));
+                writer.write('\n');
+            } catch (IOException x) {
+                // E.g. the client went away: stops reading from the cursor
+                throw new UncheckedIOException(x);
+            }
+        });
+        writer.flush();
+        log.info("Exported {} reservation(s) as {}, from {} to {}", count, format, startDate, endDate);
+    }
+
+    static String toCsv(ConfirmedReservation confirmedReservation) {
+        return String.join(",", csvField(confirmedReservation.getId()), csvField(confirmedReservation.getEmail()),
+                csvField(confirmedReservation.getFullName()), String.valueOf(confirmedReservation.getSiteId()),
+                String.valueOf(confirmedReservation.getStartDate()), String.valueOf(confirmedReservation.getEndDate()));
+    }
+
+    /**
+     * RFC 4180 field: quoted when it contains a comma, a quote or a line break, quotes being doubled
+     */
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
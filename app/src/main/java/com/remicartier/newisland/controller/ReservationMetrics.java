@@ -0,0 +1,50 @@
+package com.remicartier.newisland.controller;
+
+import com.remicartier.model.ReservationResult;
+import com.remicartier.newisland.exception.ConflictException;
+import com.remicartier.newisland.exception.ValidationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Counts the requests turned down, per operation (the controller method handling them):
+ * <ul>
+ *     <li>{@code reservation.conflicts}: dates already taken, on the requested site or on every site</li>
+ *     <li>{@code reservation.rejections}: any other validation error</li>
+ * </ul>
+ * Each reservation of a batch counts on its own.
+ */
+@Component
+public class ReservationMetrics {
+    public final static String CONFLICTS = "reservation.conflicts";
+    public final static String REJECTIONS = "reservation.rejections";
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public ReservationMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    void rejected(String operation, ValidationException x) {
+        counter(x instanceof ConflictException ? CONFLICTS : REJECTIONS, operation).increment();
+    }
+
+    void rejected(String operation, List<ReservationResult> results) {
+        for (ReservationResult result : results) {
+            if (result.getStatus() == ReservationResult.StatusEnum.CONFLICT) {
+                counter(CONFLICTS, operation).increment();
+            } else if (result.getStatus() == ReservationResult.StatusEnum.INVALID) {
+                counter(REJECTIONS, operation).increment();
+            }
+        }
+    }
+
+    private Counter counter(String name, String operation) {
+        return meterRegistry.counter(name, "operation", operation);
+    }
+}
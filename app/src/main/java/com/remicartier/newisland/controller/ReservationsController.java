@@ -3,29 +3,57 @@ package com.remicartier.newisland.controller;
 import com.remicartier.model.ConfirmedReservation;
 import com.remicartier.model.Reservation;
 import com.remicartier.model.ReservationDates;
+import com.remicartier.model.ReservationResult;
 import com.remicartier.newisland.exception.ValidationException;
+import com.remicartier.newisland.service.BookingPipeline;
+import com.remicartier.newisland.service.IdempotencyStore;
 import com.remicartier.newisland.service.ReservationService;
+import com.remicartier.newisland.service.VersionedReservation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.text.MessageFormat;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by remicartier on 2020-07-18 12:09 p.m.
  */
 @Controller
 public class ReservationsController {
+    public final static String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public final static String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    private final static Pattern VERSION_ETAG = Pattern.compile("\"(\\d{1,18})\"");
+
     private final ReservationService reservationService;
+    private final BookingPipeline bookingPipeline;
+    private final IdempotencyStore idempotencyStore;
+    private final ReservationMetrics reservationMetrics;
+    private final int maxBatchSize;
+    private final Duration holdTtl;
 
     @Autowired
-    public ReservationsController(ReservationService reservationService) {
+    public ReservationsController(ReservationService reservationService, BookingPipeline bookingPipeline, IdempotencyStore idempotencyStore,
+                                  ReservationMetrics reservationMetrics,
+                                  @Value("${app.maxBatchSize:100}") int maxBatchSize,
+                                  @Value("${app.hold.ttl:10m}") Duration holdTtl) {
         this.reservationService = reservationService;
+        this.bookingPipeline = bookingPipeline;
+        this.idempotencyStore = idempotencyStore;
+        this.reservationMetrics = reservationMetrics;
+        this.maxBatchSize = maxBatchSize;
+        this.holdTtl = holdTtl;
     }
 
     @GetMapping(path = "/reservations", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -36,39 +64,115 @@ public class ReservationsController {
 
     @PostMapping(path = "/reservations", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
-    public ResponseEntity<?> createReservation(@RequestBody Reservation reservation) {
+    public ResponseEntity<?> createReservation(@RequestBody Reservation reservation,
+                                               @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
         validateReservation(reservation);
-        return new ResponseEntity<>(reservationService.bookReservation(reservation), HttpStatus.CREATED);
+        if (idempotencyKey == null) {
+            return new ResponseEntity<>(bookingPipeline.book(reservation), HttpStatus.CREATED);
+        }
+        // A retry of a booking that timed out on the client side gets the original response back
+        IdempotencyStore.Outcome outcome = idempotencyStore.book(idempotencyKey, reservation, () -> bookingPipeline.book(reservation));
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header(IDEMPOTENT_REPLAYED, Boolean.toString(outcome.isReplayed()))
+                .body(outcome.getConfirmedReservation());
     }
 
+    @PostMapping(path = "/reservations/batch", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<ReservationResult> createReservations(@RequestBody List<Reservation> reservations) {
+        if (reservations.size() > maxBatchSize) {
+            throw new ValidationException(MessageFormat.format("You can''t book more than {0} reservation(s) at once", maxBatchSize));
+        }
+        List<ReservationResult> results = reservationService.bookReservations(reservations, this::validateReservation);
+        reservationMetrics.rejected("createReservations", results);
+        return results;
+    }
+
+    /**
+     * Answers the reservation's version as ETag, and 304 when it is the one given by If-None-Match
+     */
     @GetMapping(path = "/reservations/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
-    public ResponseEntity<?> getReservationInfo(@PathVariable(name = "id") String reservationId) {
-        return ResponseEntity.of(reservationService.getReservation(reservationId));
+    public ResponseEntity<?> getReservationInfo(@PathVariable(name = "id") String reservationId, WebRequest webRequest) {
+        Optional<VersionedReservation> optionalVersionedReservation = reservationService.getReservation(reservationId);
+
+        if (optionalVersionedReservation.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        String eTag = eTag(optionalVersionedReservation.get().getVersion());
+        if (webRequest.checkNotModified(eTag)) {
+            // 304 was already set on the response
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag).body(optionalVersionedReservation.get().getReservation());
     }
 
+    /**
+     * Only deletes the version given by If-Match, when there is one
+     */
     @DeleteMapping(path = "/reservations/{id}")
-    public ResponseEntity<?> deleteReservation(@PathVariable(name = "id") String reservationId) {
-        Optional<ConfirmedReservation> optionalConfirmedReservation = reservationService.getReservation(reservationId);
+    public ResponseEntity<?> deleteReservation(@PathVariable(name = "id") String reservationId,
+                                               @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Optional<VersionedReservation> optionalDeletedReservation = reservationService.deleteReservation(reservationId, parseIfMatch(ifMatch));
+        return new ResponseEntity<>(optionalDeletedReservation.isPresent() ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+    }
 
-        if (optionalConfirmedReservation.isEmpty()) {
+    /**
+     * Only updates the version given by If-Match, when there is one, and answers the reservation as updated along with
+     * its new ETag
+     */
+    @PatchMapping(path = "/reservations/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> updateReservation(@PathVariable(name = "id") String reservationId, @RequestBody ReservationDates reservationDates,
+                                               @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        validateReservation(reservationDates);
+        Optional<VersionedReservation> optionalUpdatedReservation = reservationService.updateReservation(reservationId, reservationDates, parseIfMatch(ifMatch));
+
+        if (optionalUpdatedReservation.isEmpty()) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
+        return ResponseEntity.ok().eTag(eTag(optionalUpdatedReservation.get().getVersion())).body(optionalUpdatedReservation.get().getReservation());
+    }
 
-        reservationService.deleteReservation(optionalConfirmedReservation.get());
-        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    @PostMapping(path = "/holds", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> createHold(@RequestBody Reservation reservation) {
+        validateReservation(reservation);
+        return new ResponseEntity<>(reservationService.holdReservation(reservation, holdTtl), HttpStatus.CREATED);
     }
 
-    @PatchMapping(path = "/reservations/{id}")
-    public ResponseEntity<?> updateReservation(@PathVariable(name = "id") String reservationId, @RequestBody ReservationDates reservationDates) {
-        validateReservation(reservationDates);
-        Optional<ConfirmedReservation> optionalConfirmedReservation = reservationService.getReservation(reservationId);
+    @PostMapping(path = "/holds/{id}/confirm", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> confirmHold(@PathVariable(name = "id") String holdId) {
+        Optional<ConfirmedReservation> optionalConfirmedReservation = reservationService.confirmHold(holdId);
 
         if (optionalConfirmedReservation.isEmpty()) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
-        reservationService.updateReservation(optionalConfirmedReservation.get(), reservationDates);
-        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        return new ResponseEntity<>(optionalConfirmedReservation.get(), HttpStatus.CREATED);
+    }
+
+    @DeleteMapping(path = "/holds/{id}")
+    public ResponseEntity<?> deleteHold(@PathVariable(name = "id") String holdId) {
+        return new ResponseEntity<>(reservationService.releaseHold(holdId) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+    }
+
+    static String eTag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * @return the version of the single ETag of the header, null when there is none or for any version ({@code *})
+     */
+    private static Long parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        Matcher matcher = VERSION_ETAG.matcher(ifMatch.trim());
+        if (!matcher.matches()) {
+            throw new ValidationException("Header 'If-Match' has to be the ETag of the reservation");
+        }
+        return Long.parseLong(matcher.group(1));
     }
 
     // -- Using manual validation as the Model objects are generated and do not contain Validations
@@ -1,14 +1,24 @@
 package com.remicartier.newisland.controller;
 
+import com.remicartier.model.Site;
+import com.remicartier.model.VacancyRange;
 import com.remicartier.newisland.service.ReservationService;
+import com.remicartier.newisland.service.VacancyWindow;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletResponse;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 
 /**
@@ -16,16 +26,99 @@ import java.util.List;
  */
 @Controller
 public class VacancyController {
+    public final static String VACANCY_RANGES_VALUE = "application/vnd.new-island.vacancy-ranges+json";
+    public final static String VACANCY_START_DATE = "Vacancy-Start-Date";
+    public final static String VACANCY_DAYS = "Vacancy-Days";
+
     private final ReservationService reservationService;
+    private final VacancyStream vacancyStream;
 
     @Autowired
-    public VacancyController(ReservationService reservationService) {
+    public VacancyController(ReservationService reservationService, VacancyStream vacancyStream) {
         this.reservationService = reservationService;
+        this.vacancyStream = vacancyStream;
     }
 
     @GetMapping(path = "/vacancy", produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
-    public List<LocalDate> getVacancy(@RequestParam(required = false) LocalDate startDate, @RequestParam(required = false) LocalDate endDate) {
-        return reservationService.getVacancy(startDate, endDate);
+    public ResponseEntity<List<LocalDate>> getVacancy(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                                                      @RequestParam(required = false) Long siteId, ServletWebRequest webRequest) {
+        String eTag = reservationService.getVacancyETag(siteId, startDate, endDate);
+        if (checkNotModified(webRequest, eTag)) {
+            // 304 was already set on the response
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag).body(reservationService.getVacancy(siteId, startDate, endDate));
+    }
+
+    /**
+     * Same days as {@link #getVacancy}, as ranges
+     */
+    @GetMapping(path = "/vacancy", produces = VACANCY_RANGES_VALUE)
+    @ResponseBody
+    public ResponseEntity<List<VacancyRange>> getVacancyRanges(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                                                               @RequestParam(required = false) Long siteId, ServletWebRequest webRequest) {
+        String eTag = variant(reservationService.getVacancyETag(siteId, startDate, endDate), "ranges");
+        if (checkNotModified(webRequest, eTag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag)
+                .body(VacancyFormats.toRanges(reservationService.getVacancy(siteId, startDate, endDate)));
+    }
+
+    /**
+     * Same days as {@link #getVacancy}, as a bitmask of the days of the window looked at, see {@link VacancyFormats#toBitmask}
+     */
+    @GetMapping(path = "/vacancy", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<byte[]> getVacancyBitmask(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                                                    @RequestParam(required = false) Long siteId, ServletWebRequest webRequest) {
+        String eTag = variant(reservationService.getVacancyETag(siteId, startDate, endDate), "bitmask");
+        if (checkNotModified(webRequest, eTag)) {
+            return null;
+        }
+        VacancyWindow window = reservationService.getVacancyWindow(siteId, startDate, endDate);
+        int days = (int) Math.max(0, ChronoUnit.DAYS.between(window.getStartDate(), window.getEndDate()) + 1);
+        return ResponseEntity.ok().eTag(eTag)
+                .header(VACANCY_START_DATE, window.getStartDate().toString())
+                .header(VACANCY_DAYS, Integer.toString(days))
+                .body(VacancyFormats.toBitmask(reservationService.getVacancy(siteId, startDate, endDate), window.getStartDate(), days));
+    }
+
+    /**
+     * Same days as {@link #getVacancy} without dates, then how they change
+     */
+    @GetMapping(path = "/vacancy/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamVacancy(@RequestParam(required = false) Long siteId) {
+        return vacancyStream.subscribe(siteId, () -> reservationService.getVacancy(siteId, null, null));
+    }
+
+    @GetMapping(path = "/vacancy/sites", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<Site> getVacantSites(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        return reservationService.getVacantSites(startDate, endDate);
+    }
+
+    /**
+     * Sets {@code Vary: Accept} first, so that a 304 carries it too: caches have to revalidate each representation of
+     * the vacancy on its own
+     */
+    private static boolean checkNotModified(ServletWebRequest webRequest, String eTag) {
+        HttpServletResponse response = webRequest.getResponse();
+        if (response != null) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        return webRequest.checkNotModified(eTag);
+    }
+
+    /**
+     * @return an ETag of its own for each representation of the vacancy
+     */
+    private static String variant(String eTag, String format) {
+        return eTag.substring(0, eTag.length() - 1) + "-" + format + "\"";
     }
 }
@@ -0,0 +1,50 @@
+package com.remicartier.newisland.controller;
+
+import com.remicartier.model.VacancyRange;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact forms of a vacancy, the available days in ascending order, for {@code GET /vacancy}: mostly contiguous
+ * availability takes a few ranges, and a month of days fits in 4 bytes as a bitmask.
+ */
+final class VacancyFormats {
+    private VacancyFormats() {
+    }
+
+    /**
+     * @return the runs of consecutive days, each from its first day to the day after its last one
+     */
+    static List<VacancyRange> toRanges(List<LocalDate> vacancy) {
+        List<VacancyRange> ranges = new ArrayList<>();
+        VacancyRange range = null;
+        for (LocalDate day : vacancy) {
+            if (range != null && range.getEndDate().equals(day)) {
+                range.setEndDate(day.plusDays(1));
+            } else {
+                range = new VacancyRange().startDate(day).endDate(day.plusDays(1));
+                ranges.add(range);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * @param startDate day of the first bit
+     * @param days      number of days, and bits
+     * @return bit i % 8 (least significant first) of byte i / 8 set when day startDate + i is available
+     */
+    static byte[] toBitmask(List<LocalDate> vacancy, LocalDate startDate, int days) {
+        byte[] bitmask = new byte[(days + 7) / 8];
+        for (LocalDate day : vacancy) {
+            long i = ChronoUnit.DAYS.between(startDate, day);
+            if (i >= 0 && i < days) {
+                bitmask[(int) (i / 8)] |= 1 << (i % 8);
+            }
+        }
+        return bitmask;
+    }
+}
@@ -0,0 +1,227 @@
+package com.remicartier.newisland.controller;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.remicartier.model.VacancyDelta;
+import com.remicartier.newisland.service.VacancyChangedEvent;
+import com.remicartier.newisland.service.VacancyFeed;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Subscribers of {@code GET /vacancy/stream}, each being sent the {@link VacancyChangedEvent}s of the {@link VacancyFeed}
+ * about its site, or about any site, as Server-Sent Events.
+ * <p>
+ * An idle subscriber costs an open connection and a few objects, no thread: requests are handled asynchronously, and
+ * each delta is serialized once for all the subscribers it goes to. Events are queued per subscriber, and written by
+ * a pool of {@code app.vacancy.stream.senders} threads, one at a time per subscriber so that they keep their order:
+ * the {@link VacancyFeed} thread never waits on a client. A subscriber with more than
+ * {@code app.vacancy.stream.maxQueued} events waiting, which isn't reading them, is dropped and its stream completed;
+ * until its stalled write fails, it only holds one of the senders. Subscriptions end after
+ * {@code app.vacancy.stream.timeout}, for the clients to reopen them (EventSource does), and on a reset of the feed,
+ * for them to start over from the current vacancy. A comment is sent every {@code app.vacancy.stream.heartbeat}
+ * milliseconds so that proxies keep idle connections open, and connections closed by clients are noticed.
+ * <p>
+ * Subscribers are published as the {@code vacancy.stream.subscribers} gauge.
+ */
+@Component
+@Slf4j
+public class VacancyStream {
+    public final static String VACANCY_EVENT = "vacancy";
+    public final static String DELTA_EVENT = "delta";
+
+    private final ObjectWriter objectWriter;
+    private final Duration timeout;
+    private final int maxQueued;
+    private final ExecutorService senders;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public VacancyStream(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                         @Value("${app.vacancy.stream.timeout:30m}") Duration timeout,
+                         @Value("${app.vacancy.stream.senders:4}") int senders,
+                         @Value("${app.vacancy.stream.maxQueued:100}") int maxQueued) {
+        this.objectWriter = objectMapper.copy().setSerializationInclusion(JsonInclude.Include.NON_NULL).writerFor(VacancyDelta.class);
+        this.timeout = timeout;
+        this.maxQueued = maxQueued;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("vacancy-stream-");
+        threadFactory.setDaemon(true);
+        // Unbounded task queue, but it holds at most one task per subscriber
+        this.senders = Executors.newFixedThreadPool(senders, threadFactory);
+        Gauge.builder("vacancy.stream.subscribers", subscribers, Set::size)
+                .description("Open GET /vacancy/stream subscriptions")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        senders.shutdownNow();
+    }
+
+    /**
+     * @param siteId  site to follow, any site when null
+     * @param vacancy the current vacancy of that site, read once the subscriber is registered so that it doesn't miss
+     *                any later change: the {@link VacancyFeed} applies each change to the occupancy calendar before
+     *                publishing it
+     */
+    SseEmitter subscribe(Long siteId, Supplier<List<LocalDate>> vacancy) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Subscriber subscriber = new Subscriber(siteId, emitter);
+        // Deltas queued meanwhile wait for the snapshot to be sent
+        subscriber.draining = true;
+        subscribers.add(subscriber);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        // Buffered by the emitter until it is returned, so this doesn't write to the client
+        if (send(subscriber, SseEmitter.event().name(VACANCY_EVENT).data(vacancy.get(), MediaType.APPLICATION_JSON))) {
+            senders.execute(() -> drain(subscriber));
+        }
+        return emitter;
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @EventListener
+    public void onVacancyChanged(VacancyChangedEvent event) {
+        if (event.isReset()) {
+            subscribers.forEach(this::close);
+            return;
+        }
+        Map<Long, String> deltas = new HashMap<>();
+        for (VacancyDelta delta : event.getDeltas()) {
+            try {
+                deltas.put(delta.getSiteId(), objectWriter.writeValueAsString(delta));
+            } catch (JsonProcessingException x) {
+                throw new IllegalStateException(x);
+            }
+        }
+        for (Subscriber subscriber : subscribers) {
+            String delta = deltas.get(subscriber.siteId);
+            if (delta != null) {
+                enqueue(subscriber, SseEmitter.event().id(Long.toString(event.getId())).name(DELTA_EVENT).data(delta, MediaType.APPLICATION_JSON));
+            }
+        }
+    }
+
+    @Scheduled(initialDelayString = "${app.vacancy.stream.heartbeat:30000}", fixedDelayString = "${app.vacancy.stream.heartbeat:30000}")
+    public void heartbeat() {
+        subscribers.forEach(subscriber -> enqueue(subscriber, SseEmitter.event().comment("")));
+    }
+
+    private void enqueue(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        synchronized (subscriber) {
+            if (subscriber.closing) {
+                return;
+            }
+            if (subscriber.queue.size() >= maxQueued) {
+                log.info("Dropping a vacancy stream subscriber that is {} events behind", subscriber.queue.size());
+            } else {
+                subscriber.queue.add(event);
+                if (subscriber.draining) {
+                    return;
+                }
+                subscriber.draining = true;
+                senders.execute(() -> drain(subscriber));
+                return;
+            }
+        }
+        close(subscriber);
+    }
+
+    /**
+     * Discards the events queued for the subscriber, and completes its stream from a sender: completing waits for a
+     * write in progress
+     */
+    private void close(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+        synchronized (subscriber) {
+            subscriber.queue.clear();
+            subscriber.closing = true;
+            if (subscriber.draining) {
+                return;
+            }
+            subscriber.draining = true;
+        }
+        senders.execute(() -> drain(subscriber));
+    }
+
+    /**
+     * Sends the events queued for the subscriber, then completes its stream if it is closing
+     */
+    private void drain(Subscriber subscriber) {
+        while (true) {
+            SseEmitter.SseEventBuilder event;
+            synchronized (subscriber) {
+                event = subscriber.queue.poll();
+                if (event == null && !subscriber.closing) {
+                    subscriber.draining = false;
+                    return;
+                }
+            }
+            if (event == null) {
+                subscriber.emitter.complete();
+                return;
+            }
+            if (!send(subscriber, event)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false when the subscriber is gone, in which case it was dropped and nothing more is to be sent to it
+     */
+    private boolean send(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        try {
+            subscriber.emitter.send(event);
+            return true;
+        } catch (IOException | IllegalStateException x) {
+            // Gone, or already completed: the container completes the request on its side
+            log.debug("Dropping a vacancy stream subscriber", x);
+            subscribers.remove(subscriber);
+            synchronized (subscriber) {
+                subscriber.queue.clear();
+                subscriber.closing = true;
+            }
+            return false;
+        }
+    }
+
+    private static class Subscriber {
+        private final Long siteId;
+        private final SseEmitter emitter;
+        // Guarded by the subscriber: events waiting to be sent, whether a sender is sending them, and whether the stream
+        // is to be completed once they are
+        private final Deque<SseEmitter.SseEventBuilder> queue = new ArrayDeque<>();
+        private boolean draining;
+        private boolean closing;
+
+        private Subscriber(Long siteId, SseEmitter emitter) {
+            this.siteId = siteId;
+            this.emitter = emitter;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.remicartier.newisland.exception;
+
+/**
+ * {@link ValidationException} raised when a reservation can't be made or moved because its dates are already taken.
+ */
+public class ConflictException extends ValidationException {
+    public ConflictException(String message) {
+        super(message);
+    }
+
+    public ConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
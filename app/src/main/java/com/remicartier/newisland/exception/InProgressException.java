@@ -0,0 +1,23 @@
+package com.remicartier.newisland.exception;
+
+import java.time.Duration;
+
+/**
+ * Raised when a request can't be answered yet because an earlier one with the same {@code Idempotency-Key} is still
+ * running.
+ */
+public class InProgressException extends RuntimeException {
+    private final Duration retryAfter;
+
+    public InProgressException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return how long the client should wait before retrying
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,20 @@
+package com.remicartier.newisland.exception;
+
+/**
+ * Raised when a reservation was changed since the version the client based its update or deletion on.
+ */
+public class PreconditionFailedException extends RuntimeException {
+    private final long currentVersion;
+
+    public PreconditionFailedException(String message, long currentVersion) {
+        super(message);
+        this.currentVersion = currentVersion;
+    }
+
+    /**
+     * @return the version the reservation is at
+     */
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
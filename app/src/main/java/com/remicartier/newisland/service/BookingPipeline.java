@@ -0,0 +1,190 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Reservation;
+import com.remicartier.model.ReservationResult;
+import com.remicartier.newisland.exception.ConflictException;
+import com.remicartier.newisland.exception.ValidationException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Group commit of single bookings, for the bursts on a newly opened date: rather than each booking contending on the
+ * exclusion constraint in its own transaction, bookings wait in a queue for up to {@code app.booking.pipeline.maxWait}
+ * and are then booked together by a single {@link ReservationService#bookReservations} transaction, at most
+ * {@code app.booking.pipeline.maxBatchSize} at a time. Overlaps within a batch are settled in memory, in arrival order:
+ * first come, first served. Each caller gets the outcome of its own booking, as if it had been booked on its own.
+ * <p>
+ * Disabled by default ({@code app.booking.pipeline.enabled}), in which case {@link #book} simply calls
+ * {@link ReservationService#bookReservation}. It is also bypassed while its queue is full. Meters:
+ * <ul>
+ *     <li>{@code reservation.pipeline.batch}: number of bookings per transaction</li>
+ *     <li>{@code reservation.pipeline.queue}: time a booking waited before its transaction started</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class BookingPipeline {
+    public final static String BATCH_SUMMARY = "reservation.pipeline.batch";
+    public final static String QUEUE_TIMER = "reservation.pipeline.queue";
+
+    private final ReservationService reservationService;
+    private final boolean enabled;
+    private final long maxWaitNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<Booking> queue;
+    private final DistributionSummary batchSummary;
+    private final Timer queueTimer;
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    @Autowired
+    public BookingPipeline(ReservationService reservationService, MeterRegistry meterRegistry,
+                           @Value("${app.booking.pipeline.enabled:false}") boolean enabled,
+                           @Value("${app.booking.pipeline.maxWait:5ms}") Duration maxWait,
+                           @Value("${app.booking.pipeline.maxBatchSize:100}") int maxBatchSize,
+                           @Value("${app.booking.pipeline.maxQueueSize:10000}") int maxQueueSize) {
+        this.reservationService = reservationService;
+        this.enabled = enabled;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new LinkedBlockingQueue<>(maxQueueSize);
+        this.batchSummary = DistributionSummary.builder(BATCH_SUMMARY)
+                .description("Bookings committed together by the booking pipeline")
+                .baseUnit("bookings")
+                .register(meterRegistry);
+        this.queueTimer = Timer.builder(QUEUE_TIMER)
+                .description("Time bookings waited in the booking pipeline before their transaction")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            running = true;
+            dispatcher = new Thread(this::dispatch, "booking-pipeline");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (dispatcher != null) {
+            running = false;
+            dispatcher.interrupt();
+            dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Same contract as {@link ReservationService#bookReservation}, waiting for the batch the booking ends up in
+     *
+     * @throws ConflictException   when the dates are taken, by an earlier booking of the batch included
+     * @throws ValidationException when the reservation is invalid
+     */
+    public ConfirmedReservation book(Reservation reservation) {
+        Booking booking = new Booking(reservation);
+        if (!running || !queue.offer(booking)) {
+            return reservationService.bookReservation(reservation);
+        }
+        if (!running && queue.remove(booking)) {
+            // Stopped meanwhile, after the dispatcher drained the queue
+            return reservationService.bookReservation(reservation);
+        }
+        try {
+            return booking.confirmedReservation.join();
+        } catch (CompletionException x) {
+            throw (RuntimeException) x.getCause();
+        }
+    }
+
+    private void dispatch() {
+        List<Booking> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                Booking first = queue.take();
+                batch.add(first);
+                // The first booking of the batch waits maxWait at most, the others less
+                long deadline = first.enqueuedAt + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    Booking next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            commit(batch);
+            batch.clear();
+        }
+        // Stopped: whatever is left is booked the usual way
+        queue.drainTo(batch);
+        batch.forEach(booking -> {
+            try {
+                booking.confirmedReservation.complete(reservationService.bookReservation(booking.reservation));
+            } catch (RuntimeException x) {
+                booking.confirmedReservation.completeExceptionally(x);
+            }
+        });
+    }
+
+    void commit(List<Booking> batch) {
+        long start = System.nanoTime();
+        batch.forEach(booking -> queueTimer.record(start - booking.enqueuedAt, TimeUnit.NANOSECONDS));
+        batchSummary.record(batch.size());
+        List<ReservationResult> results;
+        try {
+            results = reservationService.bookReservations(batch.stream().map(booking -> booking.reservation).collect(Collectors.toList()), reservation -> {
+            });
+        } catch (RuntimeException x) {
+            log.warn("Unable to book a batch of {} reservation(s)", batch.size(), x);
+            batch.forEach(booking -> booking.confirmedReservation.completeExceptionally(x));
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            ReservationResult result = results.get(i);
+            CompletableFuture<ConfirmedReservation> confirmedReservation = batch.get(i).confirmedReservation;
+            switch (result.getStatus()) {
+                case CONFIRMED:
+                    confirmedReservation.complete(result.getReservation());
+                    break;
+                case CONFLICT:
+                    confirmedReservation.completeExceptionally(new ConflictException(result.getMessage()));
+                    break;
+                default:
+                    confirmedReservation.completeExceptionally(new ValidationException(result.getMessage()));
+            }
+        }
+    }
+
+    static class Booking {
+        private final Reservation reservation;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<ConfirmedReservation> confirmedReservation = new CompletableFuture<>();
+
+        Booking(Reservation reservation) {
+            this.reservation = reservation;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.remicartier.newisland.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Reservation;
+import com.remicartier.newisland.exception.InProgressException;
+import com.remicartier.newisland.exception.ValidationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Bounded store of the bookings made with an {@code Idempotency-Key}, each kept for {@code app.idempotency.ttl} after
+ * it started. A retry with the same key and the same reservation gets the original {@link ConfirmedReservation} back
+ * without booking again; while the original booking is still running, the retry waits for it, for at most
+ * {@code app.idempotency.waitTimeout}.
+ * <p>
+ * Failed bookings are not kept, whatever they failed with, so that the client can retry them. The store is local to
+ * this instance: a retry landing on another instance books again. A booking on a given site is then turned down by
+ * the overlap constraint, but one without a site gets another free site, i.e. a second reservation.
+ */
+@Component
+public class IdempotencyStore {
+    public final static int MAX_KEY_LENGTH = 255;
+    private final static Duration RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final Cache<String, Entry> cache;
+    private final Duration waitTimeout;
+
+    @Autowired
+    public IdempotencyStore(@Value("${app.idempotency.maxSize:10000}") long maxSize,
+                            @Value("${app.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${app.idempotency.waitTimeout:10s}") Duration waitTimeout) {
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).build();
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Books the reservation once per key
+     *
+     * @throws ValidationException when the key is too long or was used for a different reservation
+     * @throws InProgressException when the original booking is still running after {@code app.idempotency.waitTimeout}
+     */
+    public Outcome book(String key, Reservation reservation, Supplier<ConfirmedReservation> booking) {
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new ValidationException("Header 'Idempotency-Key' can't be longer than " + MAX_KEY_LENGTH + " characters");
+        }
+        Entry entry = new Entry(copy(reservation));
+        Entry existingEntry = cache.asMap().putIfAbsent(key, entry);
+        if (existingEntry != null) {
+            if (!existingEntry.reservation.equals(entry.reservation)) {
+                throw new ValidationException("Header 'Idempotency-Key' was already used for a different reservation");
+            }
+            return new Outcome(await(existingEntry), true);
+        }
+        try {
+            ConfirmedReservation confirmedReservation = booking.get();
+            entry.confirmedReservation.complete(confirmedReservation);
+            return new Outcome(confirmedReservation, false);
+        } catch (Throwable x) {
+            // Errors included: an entry left incomplete would hang its retries until it expires
+            cache.asMap().remove(key, entry);
+            entry.confirmedReservation.completeExceptionally(x);
+            throw x;
+        }
+    }
+
+    private ConfirmedReservation await(Entry entry) {
+        try {
+            return entry.confirmedReservation.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException x) {
+            // The original booking failed, and is no longer in the store: same outcome for its retries
+            if (x.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) x.getCause();
+            }
+            throw new IllegalStateException("The booking with the same 'Idempotency-Key' failed", x.getCause());
+        } catch (TimeoutException x) {
+            throw new InProgressException("A booking with the same 'Idempotency-Key' is still in progress, retry later", RETRY_AFTER);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the booking with the same 'Idempotency-Key'", x);
+        }
+    }
+
+    private static Reservation copy(Reservation reservation) {
+        return (Reservation) new Reservation().email(reservation.getEmail()).fullName(reservation.getFullName()).siteId(reservation.getSiteId())
+                .startDate(reservation.getStartDate()).endDate(reservation.getEndDate());
+    }
+
+    private static class Entry {
+        private final Reservation reservation;
+        private final CompletableFuture<ConfirmedReservation> confirmedReservation = new CompletableFuture<>();
+
+        private Entry(Reservation reservation) {
+            this.reservation = reservation;
+        }
+    }
+
+    @lombok.Value
+    public static class Outcome {
+        ConfirmedReservation confirmedReservation;
+        /**
+         * Whether it is the response of an earlier request with the same key
+         */
+        boolean replayed;
+    }
+}
@@ -0,0 +1,316 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.Reservation;
+import com.remicartier.model.ReservationDates;
+import com.remicartier.model.Site;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+/**
+ * In-memory view of the booked days of every site, see {@link SiteOccupancy}. A day is considered unavailable when it
+ * is either a booked night or a check-out day, which matches what {@link ReservationService#getVacancyFromDatabase}
+ * computes.
+ * <p>
+ * The calendar is loaded from the database on first use, then kept current from committed
+ * {@link ReservationChangedEvent}s. Sites are read along with the reservations: a reservation made on a site created
+ * since then, or a booking asking for such a site, triggers a new load.
+ * <p>
+ * Changes made by other application instances, or straight in the database, are applied as the {@link VacancyFeed} is
+ * notified of them, within its coalescing delay, by reading the days they touch again ({@link #replaceDays}). The
+ * calendar is also refreshed every {@code app.calendar.refreshInterval} milliseconds, which bounds how long it stays
+ * stale while the feed is disabled or reconnecting, or ignores new sites. An update or refresh that finds such changes
+ * publishes an {@link OccupancyRefreshedEvent}.
+ * <p>
+ * Bookings use it to turn down dates that are already taken without a database round trip, but only while it is
+ * {@link #isCurrent current}: the feed is listening and the calendar was refreshed since it started to. Otherwise a
+ * release made elsewhere may not have reached it yet, and the database constraint decides.
+ */
+@Component
+@Lazy(false)
+@Slf4j
+public class OccupancyCalendar {
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private SiteOccupancy siteOccupancy = new SiteOccupancy(Collections.emptyList());
+    private volatile boolean loaded;
+    private volatile boolean current;
+    // Changes applied while a refresh is loading, guarded by lock
+    private List<Consumer<SiteOccupancy>> changesDuringRefresh;
+
+    @Autowired
+    public OccupancyCalendar(JdbcTemplate jdbcTemplate, ApplicationEventPublisher eventPublisher) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * @param startDate first day to look at
+     * @param endDate   last day to look at, inclusive
+     * @return the days between startDate and endDate (inclusive) that are available on at least one site
+     */
+    public List<LocalDate> getVacancy(LocalDate startDate, LocalDate endDate) {
+        return getVacancy(null, startDate, endDate);
+    }
+
+    /**
+     * @param siteId    site to look at, any site when null
+     * @param startDate first day to look at
+     * @param endDate   last day to look at, inclusive
+     * @return the days between startDate and endDate (inclusive) that are neither booked nor a check-out day
+     */
+    public List<LocalDate> getVacancy(Long siteId, LocalDate startDate, LocalDate endDate) {
+        return read(occupancy -> occupancy.getVacancy(siteId, startDate, endDate));
+    }
+
+    /**
+     * @param startDate first day to look at
+     * @param endDate   last day to look at, inclusive
+     * @return the sites available on every day between startDate and endDate (inclusive)
+     */
+    public List<Site> getVacantSites(LocalDate startDate, LocalDate endDate) {
+        return read(occupancy -> occupancy.getVacantSites(startDate, endDate));
+    }
+
+    /**
+     * @return whether the site exists: one unknown to the calendar is looked up in the database, and when it was
+     * created since the calendar was loaded, the next read loads it again
+     */
+    public boolean hasSite(long siteId) {
+        if (read(occupancy -> occupancy.hasSite(siteId))) {
+            return true;
+        }
+        if (!ReservationQueries.SITE_BY_ID.queryForFirst(jdbcTemplate, siteId).isPresent()) {
+            return false;
+        }
+        log.info("Site {} is unknown, occupancy calendar will be reloaded", siteId);
+        loaded = false;
+        return true;
+    }
+
+    /**
+     * @param startDate check-in day
+     * @param endDate   check-out day
+     * @param excluded  sites that must not be picked
+     * @return a random site with no booked night between startDate and endDate (exclusive), if any
+     */
+    public OptionalLong pickFreeSite(LocalDate startDate, LocalDate endDate, LongPredicate excluded) {
+        return read(occupancy -> occupancy.pickFreeSite(startDate, endDate, excluded, ThreadLocalRandom.current()));
+    }
+
+    /**
+     * @param siteId    site to look at
+     * @param startDate check-in day
+     * @param endDate   check-out day
+     * @param ignored   dates whose nights don't count on that site, e.g. the ones a reservation being moved has
+     *                  now, or null
+     * @return whether the site is known to have a booked night between startDate and endDate (exclusive)
+     */
+    public boolean isTaken(long siteId, LocalDate startDate, LocalDate endDate, ReservationDates ignored) {
+        return read(occupancy -> occupancy.isTaken(siteId, startDate, endDate, ignored));
+    }
+
+    /**
+     * @return whether every committed change reaches the calendar, with no more delay than the feed's coalescing one,
+     * so that the dates it has taken can be trusted to be taken in the database too. Dates released by an expired hold
+     * stay taken in both until the hold is swept.
+     */
+    public boolean isCurrent() {
+        return current;
+    }
+
+    /**
+     * Set by the {@link VacancyFeed}: true once it listens to the changes and has refreshed the calendar since, false
+     * as soon as it stops listening
+     */
+    void setCurrent(boolean current) {
+        this.current = current;
+    }
+
+    /**
+     * Drops the in-memory state and reads every site and every current and future reservation from the database
+     * again.
+     */
+    public void reload() {
+        lock.writeLock().lock();
+        try {
+            LocalDate today = LocalDate.now(Clock.systemUTC());
+            SiteOccupancy reloaded = new SiteOccupancy(ReservationQueries.SITES.query(jdbcTemplate));
+            List<Reservation> reservations = ReservationQueries.OCCUPANCY.query(jdbcTemplate, today);
+            reservations.forEach(reservation -> reloaded.mark(reservation, true));
+            siteOccupancy = reloaded;
+            loaded = true;
+            log.info("Loaded {} reservation(s) on {} site(s) in occupancy calendar", reservations.size(), reloaded.getSites().size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #reload}, but the database is read without holding the lock, so that the calendar keeps serving
+     * meanwhile. The changes applied during the load are applied again on top of it: each one only sets or clears
+     * its own days, so replaying them in order gives the right state whether the load saw them or not.
+     */
+    @Scheduled(initialDelayString = "${app.calendar.refreshInterval:60000}", fixedDelayString = "${app.calendar.refreshInterval:60000}")
+    public void refresh() {
+        if (!loaded) {
+            return;
+        }
+        List<Consumer<SiteOccupancy>> changes = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            changesDuringRefresh = changes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        SiteOccupancy refreshed = null;
+        boolean changed = false;
+        try {
+            LocalDate today = LocalDate.now(Clock.systemUTC());
+            SiteOccupancy loading = new SiteOccupancy(ReservationQueries.SITES.query(jdbcTemplate));
+            ReservationQueries.OCCUPANCY.query(jdbcTemplate, today).forEach(reservation -> loading.mark(reservation, true));
+            refreshed = loading;
+        } finally {
+            lock.writeLock().lock();
+            try {
+                changesDuringRefresh = null;
+                if (refreshed != null) {
+                    for (Consumer<SiteOccupancy> change : changes) {
+                        change.accept(refreshed);
+                    }
+                    // Unless a change was on a site that is still unknown, which makes the next read reload anyway
+                    if (loaded) {
+                        changed = !refreshed.sameAs(siteOccupancy);
+                        siteOccupancy = refreshed;
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        if (changed) {
+            log.info("Occupancy calendar refreshed with changes from the database");
+            eventPublisher.publishEvent(new OccupancyRefreshedEvent());
+        }
+    }
+
+    @Order(0)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            // Not loaded yet: the first load will read the committed change from the database
+            if (!loaded) {
+                return;
+            }
+            if (changesDuringRefresh != null) {
+                changesDuringRefresh.add(occupancy -> apply(occupancy, event));
+            }
+            apply(siteOccupancy, event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the days between startDate and endDate (inclusive) with the ones read from the database after changes
+     * notified by any instance, see {@link VacancyFeed}. A replacement that changes anything publishes an
+     * {@link OccupancyRefreshedEvent}.
+     *
+     * @param occupancy every reservation overlapping the day before startDate to endDate, for the check-out days of
+     *                  startDate
+     */
+    void replaceDays(SiteOccupancy occupancy, LocalDate startDate, LocalDate endDate) {
+        boolean changed;
+        lock.writeLock().lock();
+        try {
+            // Not loaded yet: the first load will read the committed changes from the database
+            if (!loaded) {
+                return;
+            }
+            if (changesDuringRefresh != null) {
+                changesDuringRefresh.add(target -> replaceDays(target, occupancy, startDate, endDate));
+            }
+            changed = replaceDays(siteOccupancy, occupancy, startDate, endDate);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (changed) {
+            log.debug("Occupancy calendar updated from {} to {} with changes from the database", startDate, endDate);
+            eventPublisher.publishEvent(new OccupancyRefreshedEvent());
+        }
+    }
+
+    private boolean replaceDays(SiteOccupancy target, SiteOccupancy occupancy, LocalDate startDate, LocalDate endDate) {
+        if (!target.sameSites(occupancy)) {
+            log.info("Sites changed, occupancy calendar will be reloaded");
+            loaded = false;
+            return true;
+        }
+        return target.replaceDays(occupancy, startDate, endDate);
+    }
+
+    private void apply(SiteOccupancy occupancy, ReservationChangedEvent event) {
+        event.getPrevious().ifPresent(previous -> occupancy.mark(previous, false));
+        event.getCurrent().ifPresent(current -> {
+            if (!occupancy.mark(current, true)) {
+                log.info("Reservation {} is on an unknown site, occupancy calendar will be reloaded", current.getId());
+                loaded = false;
+            }
+        });
+    }
+
+    private <T> T read(Function<SiteOccupancy, T> reader) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return reader.apply(siteOccupancy);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            lock.writeLock().lock();
+            try {
+                if (!loaded) {
+                    reload();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @param unavailable bitset where bit i is set when day {@code startDate + i} is unavailable
+     * @param startDate   day matching bit 0
+     * @param days        number of days to look at
+     * @return the days matching the clear bits
+     */
+    static List<LocalDate> toVacancy(BitSet unavailable, LocalDate startDate, int days) {
+        List<LocalDate> vacancy = new ArrayList<>(Math.max(0, days - unavailable.cardinality()));
+        for (int i = unavailable.nextClearBit(0); i < days; i = unavailable.nextClearBit(i + 1)) {
+            vacancy.add(startDate.plusDays(i));
+        }
+        return vacancy;
+    }
+}
@@ -0,0 +1,9 @@
+package com.remicartier.newisland.service;
+
+/**
+ * Published by {@link OccupancyCalendar} when a refresh from the database found changes that weren't made through
+ * this application instance, e.g. by another one, or by whatever changed the tables behind its back. Which days they
+ * touched isn't known.
+ */
+public class OccupancyRefreshedEvent {
+}
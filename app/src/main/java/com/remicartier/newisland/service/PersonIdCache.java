@@ -0,0 +1,94 @@
+package com.remicartier.newisland.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded cache of person ids by (email, full name), backed by a single-statement upsert on the
+ * {@code person_email_full_name_key} unique key.
+ * <p>
+ * Ids returned by the upsert are only cached once the surrounding transaction commits: a rolled back booking must not
+ * leave the id of a person that was never created behind.
+ */
+@Component
+public class PersonIdCache {
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache<PersonKey, Long> cache;
+
+    @Autowired
+    public PersonIdCache(JdbcTemplate jdbcTemplate, @Value("${app.personCache.maxSize:10000}") long maxSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).build();
+    }
+
+    /**
+     * @return the id of the person, created when it doesn't exist yet
+     */
+    public long getPersonId(String email, String fullName) {
+        PersonKey personKey = new PersonKey(email, fullName);
+        Long personId = cache.getIfPresent(personKey);
+        if (personId != null) {
+            return personId;
+        }
+        long upsertedPersonId = ReservationQueries.UPSERT_PERSON.queryForFirst(jdbcTemplate, email, fullName).orElseThrow();
+        cacheAfterCommit(Collections.singletonMap(personKey, upsertedPersonId));
+        return upsertedPersonId;
+    }
+
+    /**
+     * Same as {@link #getPersonId} for several persons, the missing ones being upserted in a single JDBC batch.
+     *
+     * @return the id of each person
+     */
+    public Map<PersonKey, Long> getPersonIds(Collection<PersonKey> personKeys) {
+        Map<PersonKey, Long> personIds = new HashMap<>(cache.getAllPresent(personKeys));
+        // Distinct keys only: the upsert can't touch the same row twice in a transaction
+        List<PersonKey> missingPersonKeys = personKeys.stream().distinct().filter(personKey -> !personIds.containsKey(personKey)).collect(Collectors.toList());
+        if (!missingPersonKeys.isEmpty()) {
+            List<Object[]> batchArgs = missingPersonKeys.stream().map(personKey -> new Object[]{personKey.getEmail(), personKey.getFullName()}).collect(Collectors.toList());
+            List<Long> upsertedPersonIds = ReservationQueries.UPSERT_PERSON.queryBatch(jdbcTemplate, batchArgs);
+            Map<PersonKey, Long> upserted = new HashMap<>();
+            for (int i = 0; i < missingPersonKeys.size(); i++) {
+                upserted.put(missingPersonKeys.get(i), upsertedPersonIds.get(i));
+            }
+            cacheAfterCommit(upserted);
+            personIds.putAll(upserted);
+        }
+        return personIds;
+    }
+
+    /**
+     * Forgets every cached id, for when the tables were emptied behind the application's back
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private void cacheAfterCommit(Map<PersonKey, Long> personIds) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.putAll(personIds);
+                }
+            });
+        } else {
+            cache.putAll(personIds);
+        }
+    }
+
+    @lombok.Value
+    static class PersonKey {
+        String email;
+        String fullName;
+    }
+}
@@ -0,0 +1,58 @@
+package com.remicartier.newisland.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+
+/**
+ * Every {@code app.archive.interval} milliseconds, moves the stays that ended more than {@code app.archive.retention}
+ * ago from the {@code reservation} table to {@code reservation_history} (see {@code V8__reservation_history.sql}), so
+ * that the table and its exclusion index only hold the last days of history and the bookable window, whatever the age
+ * of the island. Stays are moved {@code app.archive.batchSize} at a time, each batch in its own transaction.
+ * <p>
+ * Archived stays are only read by the export. No reservation can start before the archived ones have ended, which is
+ * what keeps them from being overlapped once out of reach of the exclusion constraint. Every instance archives, one
+ * at a time.
+ */
+@Component
+@Lazy(false)
+@Slf4j
+public class ReservationArchiver {
+    private final ReservationService reservationService;
+    private final Duration retention;
+    private final int batchSize;
+
+    @Autowired
+    public ReservationArchiver(ReservationService reservationService,
+                               @Value("${app.archive.retention:30d}") Duration retention,
+                               @Value("${app.archive.batchSize:10000}") int batchSize) {
+        this.reservationService = reservationService;
+        this.retention = retention;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of stays archived
+     */
+    @Scheduled(initialDelayString = "${app.archive.interval:3600000}", fixedDelayString = "${app.archive.interval:3600000}")
+    public long archive() {
+        LocalDate before = LocalDate.now(Clock.systemUTC()).minusDays(retention.toDays());
+        long archived = 0;
+        long batch;
+        do {
+            batch = reservationService.archiveReservations(before, batchSize);
+            archived += batch;
+        } while (batch >= batchSize);
+        if (archived > 0) {
+            log.info("Archived {} stay(s) ended before {}", archived, before);
+        }
+        return archived;
+    }
+}
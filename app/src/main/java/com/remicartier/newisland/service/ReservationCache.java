@@ -0,0 +1,149 @@
+package com.remicartier.newisland.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.remicartier.model.ConfirmedReservation;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded caches of reservations by id and of the upcoming reservations by email, which {@link ReservationService}
+ * reads through, each entry being kept for {@code app.reservationCache.ttl} at most. Reservations that don't exist
+ * aren't cached.
+ * <p>
+ * Every committed {@link ReservationChangedEvent} evicts the reservation it touched, by id and by email, as does a
+ * confirmed hold ({@link #evictAfterCommit}); an {@link OccupancyRefreshedEvent}, for changes made by other instances,
+ * evicts everything. Changes made by other instances are otherwise only seen once the entries expire. A load started
+ * before a change isn't cached, the same way as in {@link VacancyCache}.
+ * <p>
+ * Lookups, hits, misses and evictions are published as the {@code cache.*} meters, tagged with the cache name.
+ */
+@Component
+public class ReservationCache implements MeterBinder {
+    final static String BY_ID = "reservationsById";
+    final static String BY_EMAIL = "reservationsByEmail";
+
+    private final Cache<String, VersionedReservation> byId;
+    private final Cache<String, EmailEntry> byEmail;
+    private final AtomicLong version = new AtomicLong();
+
+    @Autowired
+    public ReservationCache(@Value("${app.reservationCache.maxSize:10000}") long maxSize,
+                            @Value("${app.reservationCache.ttl:1m}") Duration ttl) {
+        this.byId = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+        this.byEmail = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, BY_ID);
+        CaffeineCacheMetrics.monitor(meterRegistry, byEmail, BY_EMAIL);
+    }
+
+    public Optional<VersionedReservation> get(String reservationId, Function<String, Optional<VersionedReservation>> loader) {
+        VersionedReservation versionedReservation = byId.getIfPresent(reservationId);
+        if (versionedReservation != null) {
+            return Optional.of(versionedReservation);
+        }
+        long loadVersion = version.get();
+        Optional<VersionedReservation> loaded = loader.apply(reservationId);
+        loaded.ifPresent(reservation -> put(loadVersion, () -> byId.put(reservationId, reservation)));
+        return loaded;
+    }
+
+    /**
+     * @return the cached reservation, without loading it nor counting a lookup
+     */
+    public Optional<VersionedReservation> peek(String reservationId) {
+        return Optional.ofNullable(byId.asMap().get(reservationId));
+    }
+
+    /**
+     * @param loader loads the reservations of that email from today on, the cached ones being dropped the next day
+     */
+    public List<ConfirmedReservation> getByEmail(String email, Function<String, List<ConfirmedReservation>> loader) {
+        LocalDate now = LocalDate.now(Clock.systemUTC());
+        EmailEntry entry = byEmail.getIfPresent(email);
+        if (entry != null && entry.day.equals(now)) {
+            return entry.reservations;
+        }
+        long loadVersion = version.get();
+        List<ConfirmedReservation> loaded = Collections.unmodifiableList(loader.apply(email));
+        put(loadVersion, () -> byEmail.put(email, new EmailEntry(now, loaded)));
+        return loaded;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        event.getPrevious().ifPresent(this::evict);
+        event.getCurrent().ifPresent(this::evict);
+    }
+
+    @EventListener
+    public synchronized void onOccupancyRefreshed(OccupancyRefreshedEvent event) {
+        version.incrementAndGet();
+        byId.invalidateAll();
+        byEmail.invalidateAll();
+    }
+
+    /**
+     * For the changes that don't publish a {@link ReservationChangedEvent}, like a hold being confirmed: evicts the
+     * reservation once the surrounding transaction commits, so that a concurrent load can't cache it as it was before
+     */
+    public void evictAfterCommit(ConfirmedReservation confirmedReservation) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(confirmedReservation);
+                }
+            });
+        } else {
+            evict(confirmedReservation);
+        }
+    }
+
+    private synchronized void evict(ConfirmedReservation confirmedReservation) {
+        version.incrementAndGet();
+        if (confirmedReservation.getId() != null) {
+            byId.invalidate(confirmedReservation.getId());
+        }
+        if (confirmedReservation.getEmail() != null) {
+            byEmail.invalidate(confirmedReservation.getEmail());
+        }
+    }
+
+    // Synchronized with the evictions: a result loaded before a change must not be cached after its eviction
+    private synchronized void put(long loadVersion, Runnable put) {
+        if (version.get() == loadVersion) {
+            put.run();
+        }
+    }
+
+    private static class EmailEntry {
+        private final LocalDate day;
+        private final List<ConfirmedReservation> reservations;
+
+        private EmailEntry(LocalDate day, List<ConfirmedReservation> reservations) {
+            this.day = day;
+            this.reservations = reservations;
+        }
+    }
+}
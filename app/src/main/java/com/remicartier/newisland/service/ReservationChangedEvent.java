@@ -0,0 +1,47 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+
+import java.util.Optional;
+
+/**
+ * Published by {@link ReservationService} whenever a reservation is booked, updated or deleted, and whenever a hold is
+ * placed or released: a hold takes its dates like a reservation. Listeners interested in committed data only should use
+ * {@code @TransactionalEventListener}.
+ */
+public class ReservationChangedEvent {
+    private final ConfirmedReservation previous;
+    private final ConfirmedReservation current;
+
+    public ReservationChangedEvent(ConfirmedReservation previous, ConfirmedReservation current) {
+        this.previous = previous;
+        this.current = current;
+    }
+
+    public static ReservationChangedEvent booked(ConfirmedReservation confirmedReservation) {
+        return new ReservationChangedEvent(null, confirmedReservation);
+    }
+
+    public static ReservationChangedEvent deleted(ConfirmedReservation confirmedReservation) {
+        return new ReservationChangedEvent(confirmedReservation, null);
+    }
+
+    /**
+     * @return the reservation as it was before the change, empty for a new booking
+     */
+    public Optional<ConfirmedReservation> getPrevious() {
+        return Optional.ofNullable(previous);
+    }
+
+    /**
+     * @return the reservation as it is after the change, empty for a deletion
+     */
+    public Optional<ConfirmedReservation> getCurrent() {
+        return Optional.ofNullable(current);
+    }
+
+    @Override
+    public String toString() {
+        return "ReservationChangedEvent{previous=" + previous + ", current=" + current + '}';
+    }
+}
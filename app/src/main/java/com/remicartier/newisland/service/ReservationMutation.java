@@ -0,0 +1,24 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import lombok.Value;
+
+/**
+ * Row returned by the single-statement update and deletion of a reservation: see
+ * {@link ReservationQueries#UPDATE_RESERVATION_DATES} and {@link ReservationQueries#DELETE_RESERVATION}.
+ */
+@Value
+class ReservationMutation {
+    /**
+     * The reservation after the change, or as it still is when the change wasn't applied
+     */
+    VersionedReservation current;
+    /**
+     * The reservation before the change
+     */
+    ConfirmedReservation previous;
+    /**
+     * False when the reservation wasn't at the expected version
+     */
+    boolean applied;
+}
@@ -0,0 +1,182 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Hold;
+import com.remicartier.model.Reservation;
+import com.remicartier.model.Site;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every SQL statement run by the service package. Dates are bound as {@link java.time.LocalDate} parameters and turned
+ * into ranges by Postgres, so that statement texts never vary.
+ */
+public final class ReservationQueries {
+    private final static RowMapper<Reservation> SITE_DATES_MAPPER = (resultSet, i) -> (Reservation) new Reservation()
+            .siteId(resultSet.getLong(1))
+            .startDate(resultSet.getDate(2).toLocalDate())
+            .endDate(resultSet.getDate(3).toLocalDate());
+    private final static String CONFIRMED_RESERVATION_COLUMNS = "SELECT reservation.id,person.email,person.full_name,lower(reservation.duration) as start_date,upper(reservation.duration) as end_date,reservation.site_id FROM reservation JOIN person ON reservation.person_id=person.id";
+    private final static String CONFIRMED_RESERVATION_RETURNING = " RETURNING reservation.id,person.email,person.full_name,lower(reservation.duration) as start_date,upper(reservation.duration) as end_date,reservation.site_id";
+
+    /**
+     * No params
+     */
+    final static SqlQuery<Site> SITES = new SqlQuery<>("sites",
+            "SELECT id,name FROM site",
+            (resultSet, i) -> new Site().id(resultSet.getLong(1)).name(resultSet.getString(2)));
+
+    /**
+     * Params: site id
+     */
+    final static SqlQuery<Long> SITE_BY_ID = new SqlQuery<>("siteById",
+            "SELECT id FROM site WHERE id = ?",
+            (resultSet, i) -> resultSet.getLong(1));
+
+    /**
+     * Params: first day, last day (inclusive)
+     */
+    final static SqlQuery<Reservation> VACANCY = new SqlQuery<>("vacancy",
+            "SELECT site_id,lower(duration) as start_date,upper(duration) as end_date FROM reservation WHERE daterange(?, ?, '[]') && duration",
+            SITE_DATES_MAPPER);
+    /**
+     * Params: day from which reservations are still relevant
+     */
+    final static SqlQuery<Reservation> OCCUPANCY = new SqlQuery<>("occupancy",
+            "SELECT site_id,lower(duration) as start_date,upper(duration) as end_date FROM reservation WHERE NOT isempty(duration) AND upper(duration) >= ?",
+            SITE_DATES_MAPPER);
+    /**
+     * Params: email, first day, last day (inclusive)
+     */
+    final static SqlQuery<ConfirmedReservation> RESERVATIONS_BY_EMAIL = new SqlQuery<>("reservationsByEmail",
+            CONFIRMED_RESERVATION_COLUMNS + " WHERE person.email=? AND daterange(?, ?, '[]') && duration AND reservation.hold_expires_at IS NULL",
+            ReservationService.ConfirmedReservationMapper.INSTANCE);
+    /**
+     * Params: reservation id
+     */
+    final static SqlQuery<VersionedReservation> RESERVATION_BY_ID = new SqlQuery<>("reservationById",
+            "SELECT reservation.id,person.email,person.full_name,lower(reservation.duration) as start_date,upper(reservation.duration) as end_date,reservation.site_id,reservation.version"
+                    + " FROM reservation JOIN person ON reservation.person_id=person.id WHERE reservation.id=? AND reservation.hold_expires_at IS NULL",
+            (resultSet, i) -> new VersionedReservation(ReservationService.ConfirmedReservationMapper.INSTANCE.mapRow(resultSet, i), resultSet.getLong(7)));
+    /**
+     * Params: first day, last day (inclusive), either one null for no bound, then the same three times more: first day,
+     * last day and first day again, for the archived stays. Their end date bound only reads the partitions of
+     * {@code reservation_history} that can overlap the days. Unordered, meant to be streamed
+     */
+    final static SqlQuery<ConfirmedReservation> EXPORT_RESERVATIONS = new SqlQuery<>("exportReservations",
+            CONFIRMED_RESERVATION_COLUMNS + " WHERE daterange(?::date, ?::date, '[]') && duration AND reservation.hold_expires_at IS NULL"
+                    + " UNION ALL SELECT reservation_history.id,person.email,person.full_name,lower(reservation_history.duration) as start_date,"
+                    + "upper(reservation_history.duration) as end_date,reservation_history.site_id FROM reservation_history JOIN person ON reservation_history.person_id=person.id"
+                    + " WHERE daterange(?::date, ?::date, '[]') && reservation_history.duration AND upper(reservation_history.duration) > coalesce(?::date, '-infinity')",
+            ReservationService.ConfirmedReservationMapper.INSTANCE);
+    /**
+     * Params: email, full name. The no-op update makes the id returned when the person already exists
+     */
+    final static SqlQuery<Long> UPSERT_PERSON = new SqlQuery<>("upsertPerson",
+            "INSERT INTO person (email,full_name) VALUES (?,?) ON CONFLICT (email,full_name) DO UPDATE SET email=EXCLUDED.email RETURNING id",
+            (resultSet, i) -> resultSet.getLong(1));
+    /**
+     * Params: reservation id, person id, site id, start date, end date (exclusive)
+     */
+    final static SqlUpdate INSERT_RESERVATION = new SqlUpdate("insertReservation",
+            "INSERT INTO reservation (id, person_id, site_id, duration) VALUES (?,?,?,daterange(?, ?))");
+    /**
+     * Params: reservation id, person id, site id, start date, end date (exclusive). Without a conflict target, {@code ON CONFLICT
+     * DO NOTHING} also covers the exclusion constraint: an overlapping reservation is skipped with an update count of 0
+     * instead of failing the whole batch. The update counts are only exact as long as the driver doesn't rewrite
+     * batched inserts ({@code reWriteBatchedInserts}).
+     */
+    final static SqlUpdate INSERT_RESERVATION_IF_FREE = new SqlUpdate("insertReservationIfFree",
+            "INSERT INTO reservation (id, person_id, site_id, duration) VALUES (?,?,?,daterange(?, ?)) ON CONFLICT DO NOTHING");
+    /**
+     * Params: hold id, person id, site id, start date, end date (exclusive), time to live in seconds. Like
+     * {@link #INSERT_RESERVATION_IF_FREE}, returns no row when the dates are taken. Expiry times come from the database
+     * clock, the one every instance compares them with
+     */
+    final static SqlQuery<Hold> INSERT_HOLD_IF_FREE = new SqlQuery<>("insertHoldIfFree",
+            "INSERT INTO reservation (id, person_id, site_id, duration, hold_expires_at) VALUES (?,?,?,daterange(?, ?),now() + ? * interval '1 second') ON CONFLICT DO NOTHING RETURNING site_id,hold_expires_at",
+            (resultSet, i) -> (Hold) new Hold().expiresAt(resultSet.getObject(2, OffsetDateTime.class)).siteId(resultSet.getLong(1)));
+    /**
+     * Params: hold id. Returns the confirmed reservation, no row when the hold doesn't exist or has expired
+     */
+    final static SqlQuery<ConfirmedReservation> CONFIRM_HOLD = new SqlQuery<>("confirmHold",
+            "UPDATE reservation SET hold_expires_at=NULL FROM person WHERE reservation.id=? AND reservation.hold_expires_at > now() AND person.id=reservation.person_id"
+                    + CONFIRMED_RESERVATION_RETURNING,
+            ReservationService.ConfirmedReservationMapper.INSTANCE);
+    /**
+     * Params: hold id. Returns the released hold, if any
+     */
+    final static SqlQuery<ConfirmedReservation> DELETE_HOLD = new SqlQuery<>("deleteHold",
+            "DELETE FROM reservation USING person WHERE reservation.id=? AND reservation.hold_expires_at IS NOT NULL AND person.id=reservation.person_id"
+                    + CONFIRMED_RESERVATION_RETURNING,
+            ReservationService.ConfirmedReservationMapper.INSTANCE);
+    /**
+     * No params. Returns the expired holds
+     */
+    final static SqlQuery<ConfirmedReservation> DELETE_EXPIRED_HOLDS = new SqlQuery<>("deleteExpiredHolds",
+            "DELETE FROM reservation USING person WHERE reservation.hold_expires_at <= now() AND person.id=reservation.person_id"
+                    + CONFIRMED_RESERVATION_RETURNING,
+            ReservationService.ConfirmedReservationMapper.INSTANCE);
+    /**
+     * Params: reservation id, start date, end date (exclusive), expected version or null for any. Moves the reservation
+     * and bumps its version when it is at the expected one. Returns no row when the reservation doesn't exist, the
+     * {@link ReservationMutation} otherwise: the row is locked before being read, so that the previous dates are the
+     * ones the update replaced even when racing another one
+     */
+    final static SqlQuery<ReservationMutation> UPDATE_RESERVATION_DATES = new SqlQuery<>("updateReservationDates",
+            "WITH previous AS (SELECT id,person_id,site_id,duration,version FROM reservation WHERE id=? AND hold_expires_at IS NULL FOR UPDATE),"
+                    + " updated AS (UPDATE reservation SET duration=daterange(?, ?),version=previous.version+1 FROM previous"
+                    + " WHERE reservation.id=previous.id AND previous.version=coalesce(?::bigint, previous.version) RETURNING reservation.id,reservation.duration,reservation.version)"
+                    + " SELECT previous.id,person.email,person.full_name,lower(coalesce(updated.duration, previous.duration)) as start_date,"
+                    + "upper(coalesce(updated.duration, previous.duration)) as end_date,previous.site_id,coalesce(updated.version, previous.version) as version,"
+                    + "updated.id IS NOT NULL as applied,lower(previous.duration) as previous_start_date,upper(previous.duration) as previous_end_date"
+                    + " FROM previous JOIN person ON person.id=previous.person_id LEFT JOIN updated ON updated.id=previous.id",
+            (resultSet, i) -> {
+                ConfirmedReservation current = ReservationService.ConfirmedReservationMapper.INSTANCE.mapRow(resultSet, i);
+                ConfirmedReservation previous = (ConfirmedReservation) new ConfirmedReservation().id(current.getId()).email(current.getEmail())
+                        .fullName(current.getFullName()).siteId(current.getSiteId())
+                        .startDate(resultSet.getDate(9).toLocalDate()).endDate(resultSet.getDate(10).toLocalDate());
+                return new ReservationMutation(new VersionedReservation(current, resultSet.getLong(7)), previous, resultSet.getBoolean(8));
+            });
+    /**
+     * Params: reservation id, expected version or null for any. Deletes the reservation when it is at the expected
+     * version. Returns no row when the reservation doesn't exist, the {@link ReservationMutation} otherwise
+     */
+    final static SqlQuery<ReservationMutation> DELETE_RESERVATION = new SqlQuery<>("deleteReservation",
+            "WITH previous AS (SELECT id,person_id,site_id,duration,version FROM reservation WHERE id=? AND hold_expires_at IS NULL FOR UPDATE),"
+                    + " deleted AS (DELETE FROM reservation USING previous WHERE reservation.id=previous.id AND previous.version=coalesce(?::bigint, previous.version)"
+                    + " RETURNING reservation.id)"
+                    + " SELECT previous.id,person.email,person.full_name,lower(previous.duration) as start_date,upper(previous.duration) as end_date,previous.site_id,"
+                    + "previous.version,deleted.id IS NOT NULL as applied"
+                    + " FROM previous JOIN person ON person.id=previous.person_id LEFT JOIN deleted ON deleted.id=previous.id",
+            (resultSet, i) -> {
+                ConfirmedReservation previous = ReservationService.ConfirmedReservationMapper.INSTANCE.mapRow(resultSet, i);
+                return new ReservationMutation(new VersionedReservation(previous, resultSet.getLong(7)), previous, resultSet.getBoolean(8));
+            });
+    /**
+     * Params: day up to which ended stays are archived, maximum number of stays archived. Returns the number of stays
+     * moved to {@code reservation_history}, see the {@code archive_reservations} function
+     */
+    final static SqlQuery<Long> ARCHIVE_RESERVATIONS = new SqlQuery<>("archiveReservations",
+            "SELECT archive_reservations(?, ?)",
+            (resultSet, i) -> resultSet.getLong(1));
+
+    private final static List<SqlStatement> ALL = Collections.unmodifiableList(Arrays.asList(SITES, SITE_BY_ID, VACANCY,
+            OCCUPANCY, RESERVATIONS_BY_EMAIL, RESERVATION_BY_ID, EXPORT_RESERVATIONS, UPSERT_PERSON, INSERT_RESERVATION, INSERT_RESERVATION_IF_FREE,
+            INSERT_HOLD_IF_FREE, CONFIRM_HOLD, DELETE_HOLD, DELETE_EXPIRED_HOLDS, UPDATE_RESERVATION_DATES, DELETE_RESERVATION,
+            ARCHIVE_RESERVATIONS));
+
+    private ReservationQueries() {
+    }
+
+    /**
+     * @return every statement, along with its execution counters
+     */
+    public static List<SqlStatement> all() {
+        return ALL;
+    }
+}
@@ -1,114 +1,469 @@
 package com.remicartier.newisland.service;
 
 import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Hold;
 import com.remicartier.model.Reservation;
 import com.remicartier.model.ReservationDates;
+import com.remicartier.model.ReservationResult;
+import com.remicartier.model.Site;
+import com.remicartier.newisland.exception.ConflictException;
+import com.remicartier.newisland.exception.PreconditionFailedException;
 import com.remicartier.newisland.exception.ValidationException;
+import io.micrometer.core.annotation.Timed;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.CollectionUtils;
+import org.springframework.transaction.support.TransactionOperations;
 
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.text.MessageFormat;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Created by remicartier on 2020-07-18 12:19 p.m.
  */
 @Service
+@Lazy(false)
 @Slf4j
 public class ReservationService {
+    private final static String OVERLAP_MESSAGE = "Unable to create reservation, dates overlap with existing reservation";
+    private final static String UPDATE_OVERLAP_MESSAGE = "Unable to update reservationDates, dates overlap with existing reservationDates";
+    private final static int MAX_SITE_ATTEMPTS = 3;
+    final static String SERVICE_TIMER = "reservation.service";
+
     private final JdbcTemplate jdbcTemplate;
+    private final TransactionOperations readOnlyTransaction;
+    private final OccupancyCalendar occupancyCalendar;
+    private final VacancyCache vacancyCache;
+    private final PersonIdCache personIdCache;
+    private final ReservationCache reservationCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean inMemoryVacancy;
     private final int maxConsecutiveDays;
     private final int minDaysAhead;
     private final int maxDaysAhead;
 
     @Autowired
     public ReservationService(JdbcTemplate jdbcTemplate,
+                              @Qualifier("readOnlyTransaction") TransactionOperations readOnlyTransaction,
+                              OccupancyCalendar occupancyCalendar,
+                              VacancyCache vacancyCache,
+                              PersonIdCache personIdCache,
+                              ReservationCache reservationCache,
+                              ApplicationEventPublisher eventPublisher,
+                              @Value("${app.vacancy.inMemory:true}") boolean inMemoryVacancy,
                               @Value("${app.maxConsecutiveDays}") int maxConsecutiveDays,
                               @Value("${app.minDaysAhead}") int minDaysAhead,
                               @Value("${app.maxDaysAhead}") int maxDaysAhead) {
         this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = readOnlyTransaction;
+        this.occupancyCalendar = occupancyCalendar;
+        this.vacancyCache = vacancyCache;
+        this.personIdCache = personIdCache;
+        this.reservationCache = reservationCache;
+        this.eventPublisher = eventPublisher;
+        this.inMemoryVacancy = inMemoryVacancy;
         this.maxConsecutiveDays = maxConsecutiveDays;
         this.minDaysAhead = minDaysAhead;
         this.maxDaysAhead = maxDaysAhead;
     }
 
-    @Transactional
+    // Not transactional: the in-memory path must not check out a connection
+
+    @Timed(SERVICE_TIMER)
     public List<LocalDate> getVacancy(LocalDate startDate, LocalDate endDate) {
+        return getVacancy(null, startDate, endDate);
+    }
+
+    /**
+     * @param siteId site to look at, any site when null
+     */
+    @Timed(SERVICE_TIMER)
+    public List<LocalDate> getVacancy(Long siteId, LocalDate startDate, LocalDate endDate) {
+        return vacancyCache.get(getVacancyWindow(siteId, startDate, endDate), window -> inMemoryVacancy
+                ? occupancyCalendar.getVacancy(window.getSiteId(), window.getStartDate(), window.getEndDate())
+                : getVacancyFromDatabase(window.getSiteId(), window.getStartDate(), window.getEndDate()));
+    }
+
+    /**
+     * @return an ETag for the vacancy that {@link #getVacancy} would return for the same site and dates, computed
+     * without touching the database
+     */
+    public String getVacancyETag(Long siteId, LocalDate startDate, LocalDate endDate) {
+        return vacancyCache.getETag(getVacancyWindow(siteId, startDate, endDate));
+    }
+
+    /**
+     * @return the sites available on every day of the window, which is clamped the same way as {@link #getVacancy}
+     */
+    @Timed(SERVICE_TIMER)
+    public List<Site> getVacantSites(LocalDate startDate, LocalDate endDate) {
+        VacancyWindow window = getVacancyWindow(null, startDate, endDate);
+        if (inMemoryVacancy) {
+            return occupancyCalendar.getVacantSites(window.getStartDate(), window.getEndDate());
+        }
+        // Both queries on a single read connection
+        return readOnlyTransaction.execute(status -> getSiteOccupancyFromDatabase(window.getStartDate(), window.getEndDate())
+                .getVacantSites(window.getStartDate(), window.getEndDate()));
+    }
+
+    /**
+     * @return the days {@link #getVacancy} looks at for those dates: the requested ones, when within the next month
+     */
+    public VacancyWindow getVacancyWindow(Long siteId, LocalDate startDate, LocalDate endDate) {
         LocalDate now = LocalDate.now(Clock.systemUTC());
         LocalDate nowPlus1Month = now.plus(1, ChronoUnit.MONTHS);
         LocalDate realStartDate = startDate != null && startDate.isAfter(now) && startDate.isBefore(nowPlus1Month) ? startDate : now;
         LocalDate realEndDate = endDate != null && endDate.isAfter(now) && endDate.isBefore(nowPlus1Month) ? endDate : nowPlus1Month;
-        List<LocalDate> vacancy = new ArrayList<>();
-        for (LocalDate currentDate = realStartDate; currentDate.isBefore(realEndDate); currentDate = currentDate.plusDays(1)) {
-            vacancy.add(currentDate);
-        }
-        vacancy.add(realEndDate);
-        String sql = MessageFormat.format("SELECT lower(duration) as start_date,upper(duration) as end_date FROM reservation WHERE ''[{0}, {1}]''::daterange && duration", realStartDate, realEndDate);
-        jdbcTemplate.query(sql, (resultSet, i) -> {
-            LocalDate rowStartDate = resultSet.getDate(1).toLocalDate();
-            LocalDate rowEndDate = resultSet.getDate(2).toLocalDate();
-            return new ReservationDates().startDate(rowStartDate).endDate(rowEndDate);
-        }).forEach(rd -> {
-            for (LocalDate currentDate = rd.getStartDate(); currentDate.isBefore(rd.getEndDate()); currentDate = currentDate.plusDays(1)) {
-                vacancy.remove(currentDate);
-            }
-            vacancy.remove(rd.getEndDate());
-        });
-        return vacancy;
+        return new VacancyWindow(realStartDate, realEndDate, siteId);
     }
 
-    @Transactional
+    /**
+     * Computes the vacancy straight from the site and reservation tables, bypassing the {@link OccupancyCalendar}. Used
+     * when {@code app.vacancy.inMemory} is false, and handy to verify the in-memory calendar.
+     *
+     * @param siteId    site to look at, any site when null
+     * @param startDate first day to look at
+     * @param endDate   last day to look at, inclusive
+     */
+    public List<LocalDate> getVacancyFromDatabase(Long siteId, LocalDate startDate, LocalDate endDate) {
+        if (endDate.isBefore(startDate)) {
+            return new ArrayList<>();
+        }
+        return getSiteOccupancyFromDatabase(startDate, endDate).getVacancy(siteId, startDate, endDate);
+    }
+
+    SiteOccupancy getSiteOccupancyFromDatabase(LocalDate startDate, LocalDate endDate) {
+        SiteOccupancy siteOccupancy = new SiteOccupancy(ReservationQueries.SITES.query(jdbcTemplate));
+        ReservationQueries.VACANCY.query(jdbcTemplate, startDate, endDate).forEach(reservation -> siteOccupancy.mark(reservation, true));
+        return siteOccupancy;
+    }
+
+    /**
+     * Read through the {@link ReservationCache}: a hit doesn't check out a connection
+     */
+    @Timed(SERVICE_TIMER)
     public List<ConfirmedReservation> getReservations(String email) {
-        LocalDate now = LocalDate.now(Clock.systemUTC());
-        LocalDate nowPlus1Month = now.plus(1, ChronoUnit.MONTHS);
-        String sql = MessageFormat.format("SELECT reservation.id,person.email,person.full_name,lower(reservation.duration) as start_date,upper(reservation.duration) as end_date FROM reservation JOIN person ON reservation.person_id=person.id WHERE person.email=''{2}'' AND ''[{0}, {1}]''::daterange && duration", now, nowPlus1Month, email);
-        return jdbcTemplate.query(sql, ConfirmedReservationMapper.INSTANCE);
+        return reservationCache.getByEmail(email, key -> {
+            LocalDate now = LocalDate.now(Clock.systemUTC());
+            LocalDate nowPlus1Month = now.plus(1, ChronoUnit.MONTHS);
+            return ReservationQueries.RESERVATIONS_BY_EMAIL.query(jdbcTemplate, key, now, nowPlus1Month);
+        });
     }
 
+    /**
+     * Books the reservation on its site, or on any site available for its dates when it doesn't have one.
+     */
     @Transactional
+    @Timed(SERVICE_TIMER)
     public ConfirmedReservation bookReservation(Reservation reservation) {
         validateReservation(reservation);
-        List<Long> personIdList = jdbcTemplate.query("SELECT id FROM person WHERE email=? AND full_name=?", new Object[]{reservation.getEmail(), reservation.getFullName()}, (resultSet, i) -> resultSet.getLong(1));
-        long personId;
-        if (CollectionUtils.isEmpty(personIdList)) {
-            KeyHolder keyHolder = new GeneratedKeyHolder();
-            jdbcTemplate.update(connection -> {
-                PreparedStatement pstmt = connection.prepareStatement("INSERT INTO person (email,full_name) VALUES (?,?)", new String[]{"id"});
-                pstmt.setString(1, reservation.getEmail());
-                pstmt.setString(2, reservation.getFullName());
-                return pstmt;
-            }, keyHolder);
-            personId = Objects.requireNonNull(keyHolder.getKey()).longValue();
+        validateSite(reservation);
+        long siteId = getFreeSite(reservation);
+        long personId = personIdCache.getPersonId(reservation.getEmail(), reservation.getFullName());
+        String reservationId = UUID.randomUUID().toString();
+        long bookedSiteId;
+        if (reservation.getSiteId() != null) {
+            try {
+                ReservationQueries.INSERT_RESERVATION.update(jdbcTemplate, reservationId, personId, siteId, reservation.getStartDate(), reservation.getEndDate());
+            } catch (DataIntegrityViolationException x) {
+                throw new ConflictException(OVERLAP_MESSAGE, x);
+            }
+            bookedSiteId = siteId;
         } else {
-            personId = personIdList.get(0);
+            bookedSiteId = insertOnFreeSite(reservation, siteId, freeSiteId -> ReservationQueries.INSERT_RESERVATION_IF_FREE.update(jdbcTemplate,
+                    reservationId, personId, freeSiteId, reservation.getStartDate(), reservation.getEndDate()) > 0 ? Optional.of(freeSiteId) : Optional.empty());
         }
-        String reservationId = UUID.randomUUID().toString();
-        String duration = MessageFormat.format("[''{0}'', ''{1}'')", reservation.getStartDate(), reservation.getEndDate());
-        try {
-            jdbcTemplate.update("INSERT INTO reservation (id, person_id, duration) VALUES (?,?,?::daterange)", reservationId, personId, duration);
-        } catch (DataIntegrityViolationException x) {
-            throw new ValidationException("Unable to create reservation, dates overlap with existing reservation", x);
+        ConfirmedReservation confirmedReservation = (ConfirmedReservation) new ConfirmedReservation().id(reservationId).fullName(reservation.getFullName())
+                .email(reservation.getEmail()).siteId(bookedSiteId).startDate(reservation.getStartDate()).endDate(reservation.getEndDate());
+        eventPublisher.publishEvent(ReservationChangedEvent.booked(confirmedReservation));
+        return confirmedReservation;
+    }
+
+    /**
+     * Holds the dates of the reservation for ttl, on its site or on any site available for its dates when it doesn't
+     * have one. Until it expires, a hold takes its dates the same way as a reservation: {@link #confirmHold} can't
+     * conflict.
+     */
+    @Transactional
+    @Timed(SERVICE_TIMER)
+    public Hold holdReservation(Reservation reservation, Duration ttl) {
+        validateReservation(reservation);
+        validateSite(reservation);
+        long siteId = getFreeSite(reservation);
+        long personId = personIdCache.getPersonId(reservation.getEmail(), reservation.getFullName());
+        String holdId = UUID.randomUUID().toString();
+        LongFunction<Optional<Hold>> insert = freeSiteId -> ReservationQueries.INSERT_HOLD_IF_FREE.queryForFirst(jdbcTemplate,
+                holdId, personId, freeSiteId, reservation.getStartDate(), reservation.getEndDate(), ttl.toSeconds());
+        Hold hold = reservation.getSiteId() != null
+                ? insert.apply(siteId).orElseThrow(() -> new ConflictException(OVERLAP_MESSAGE))
+                : insertOnFreeSite(reservation, siteId, insert);
+        hold.id(holdId).fullName(reservation.getFullName()).email(reservation.getEmail())
+                .startDate(reservation.getStartDate()).endDate(reservation.getEndDate());
+        eventPublisher.publishEvent(ReservationChangedEvent.booked(hold));
+        return hold;
+    }
+
+    /**
+     * Turns a hold into a reservation, keeping its id. Its dates are already taken, nothing else changes.
+     *
+     * @return the reservation, empty when the hold doesn't exist or has expired
+     */
+    @Transactional
+    @Timed(SERVICE_TIMER)
+    public Optional<ConfirmedReservation> confirmHold(String holdId) {
+        Optional<ConfirmedReservation> confirmed = ReservationQueries.CONFIRM_HOLD.queryForFirst(jdbcTemplate, holdId);
+        // Not a change for the calendar, but the reservation now shows up in lookups
+        confirmed.ifPresent(reservationCache::evictAfterCommit);
+        return confirmed;
+    }
+
+    /**
+     * Releases the dates of a hold before it expires
+     *
+     * @return false when the hold doesn't exist, or has expired
+     */
+    @Transactional
+    @Timed(SERVICE_TIMER)
+    public boolean releaseHold(String holdId) {
+        Optional<ConfirmedReservation> released = ReservationQueries.DELETE_HOLD.queryForFirst(jdbcTemplate, holdId);
+        released.ifPresent(hold -> eventPublisher.publishEvent(ReservationChangedEvent.deleted(hold)));
+        return released.isPresent();
+    }
+
+    /**
+     * Releases the dates of the expired holds. Every instance sweeps, each one notifying its own listeners of the holds
+     * it deleted; the other instances see them gone at their next {@link OccupancyCalendar#refresh}.
+     *
+     * @return the number of holds released
+     */
+    @Scheduled(initialDelayString = "${app.hold.sweepInterval:5000}", fixedDelayString = "${app.hold.sweepInterval:5000}")
+    @Transactional
+    public int expireHolds() {
+        List<ConfirmedReservation> expired = ReservationQueries.DELETE_EXPIRED_HOLDS.query(jdbcTemplate);
+        expired.forEach(hold -> eventPublisher.publishEvent(ReservationChangedEvent.deleted(hold)));
+        if (!expired.isEmpty()) {
+            log.debug("Released {} expired hold(s)", expired.size());
+        }
+        return expired.size();
+    }
+
+    /**
+     * Moves a batch of the stays that ended before a day to {@code reservation_history}, see {@link ReservationArchiver}.
+     * No reservation starting before that day can be made anymore once the transaction commits.
+     *
+     * @param before    day up to which ended stays are archived, yesterday at most
+     * @param batchSize maximum number of stays archived
+     * @return the number of stays archived
+     */
+    @Transactional
+    @Timed(SERVICE_TIMER)
+    public long archiveReservations(LocalDate before, int batchSize) {
+        return ReservationQueries.ARCHIVE_RESERVATIONS.queryForFirst(jdbcTemplate, before, batchSize).orElse(0L);
+    }
+
+    /**
+     * Checked before anything is written, against the calendar, which is only trusted to have dates taken while it is
+     * {@link OccupancyCalendar#isCurrent current}. It may otherwise still have dates that were released by another
+     * instance, so they are left for the database to decide.
+     *
+     * @return the site of the reservation, or a free site for its dates when it doesn't have one
+     * @throws ConflictException when there is no such site
+     */
+    private long getFreeSite(Reservation reservation) {
+        OptionalLong siteId;
+        if (reservation.getSiteId() != null) {
+            siteId = isTaken(reservation.getSiteId(), reservation.getStartDate(), reservation.getEndDate(), null)
+                    ? OptionalLong.empty() : OptionalLong.of(reservation.getSiteId());
+        } else {
+            siteId = pickFreeSite(reservation.getStartDate(), reservation.getEndDate(), id -> false);
+        }
+        return siteId.orElseThrow(() -> new ConflictException(OVERLAP_MESSAGE));
+    }
+
+    /**
+     * @return whether the site is known to have a booked night between startDate and endDate (exclusive), see
+     * {@link OccupancyCalendar#isTaken}; never when the calendar isn't current
+     */
+    private boolean isTaken(long siteId, LocalDate startDate, LocalDate endDate, ReservationDates ignored) {
+        return occupancyCalendar.isCurrent() && occupancyCalendar.isTaken(siteId, startDate, endDate, ignored);
+    }
+
+    /**
+     * @return a random site with no booked night between startDate and endDate (exclusive), if any, see
+     * {@link OccupancyCalendar#pickFreeSite}. When the calendar isn't current and has none, the database is read for
+     * one
+     */
+    private OptionalLong pickFreeSite(LocalDate startDate, LocalDate endDate, LongPredicate excluded) {
+        OptionalLong siteId = occupancyCalendar.pickFreeSite(startDate, endDate, excluded);
+        if (siteId.isPresent() || occupancyCalendar.isCurrent()) {
+            return siteId;
+        }
+        return getSiteOccupancyFromDatabase(startDate, endDate).pickFreeSite(startDate, endDate, excluded, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Inserts the reservation on the first site that the database accepts, starting with firstSiteId. Another
+     * transaction may have taken a site the calendar still sees as free: it is then skipped for another one, at most
+     * {@value #MAX_SITE_ATTEMPTS} times.
+     *
+     * @param insert inserts the reservation on the given site, returning what the caller needs of it when the site was
+     *               free, empty otherwise
+     * @return what insert returned for the site the reservation was made on
+     */
+    private <T> T insertOnFreeSite(ReservationDates reservationDates, long firstSiteId, LongFunction<Optional<T>> insert) {
+        Set<Long> triedSiteIds = new HashSet<>();
+        OptionalLong siteId = OptionalLong.of(firstSiteId);
+        while (siteId.isPresent() && triedSiteIds.size() < MAX_SITE_ATTEMPTS) {
+            Optional<T> inserted = insert.apply(siteId.getAsLong());
+            if (inserted.isPresent()) {
+                return inserted.get();
+            }
+            triedSiteIds.add(siteId.getAsLong());
+            siteId = pickFreeSite(reservationDates.getStartDate(), reservationDates.getEndDate(), triedSiteIds::contains);
+        }
+        throw new ConflictException(OVERLAP_MESSAGE);
+    }
+
+    /**
+     * Books several reservations in one transaction: persons are upserted and reservations inserted with one JDBC batch
+     * each. Reservations are inserted in the order of the list, so when two of them overlap on a site the first one
+     * wins; a conflict or a validation error only affects its own reservation. Reservations without a site get one
+     * that neither the calendar nor the reservations before them in the batch use for their dates, the ones with a
+     * site that either uses already are in conflict without reaching the database. A reservation without a site whose
+     * site was taken by another transaction meanwhile is inserted again on another site, in a further batch, trying
+     * at most {@value #MAX_SITE_ATTEMPTS} sites in all.
+     *
+     * @param reservations reservations to book
+     * @param validator    validation run on each reservation before the service's own, throwing a
+     *                     {@link ValidationException} to reject it
+     * @return one result per reservation, in the same order
+     */
+    @Transactional
+    @Timed(SERVICE_TIMER)
+    public List<ReservationResult> bookReservations(List<Reservation> reservations, Consumer<Reservation> validator) {
+        List<ReservationResult> results = new ArrayList<>(reservations.size());
+        List<Integer> validIndexes = new ArrayList<>(reservations.size());
+        for (int i = 0; i < reservations.size(); i++) {
+            Reservation reservation = reservations.get(i);
+            try {
+                validator.accept(reservation);
+                validateReservation(reservation);
+                validateSite(reservation);
+                validIndexes.add(i);
+                results.add(null);
+            } catch (ValidationException x) {
+                results.add(new ReservationResult().status(ReservationResult.StatusEnum.INVALID).message(x.getMessage()));
+            }
+        }
+        if (validIndexes.isEmpty()) {
+            return results;
+        }
+        // Sites are picked as if the reservations before them in the batch were already booked
+        List<Reservation> picked = new ArrayList<>(validIndexes.size());
+        for (Iterator<Integer> iterator = validIndexes.iterator(); iterator.hasNext(); ) {
+            int i = iterator.next();
+            Reservation reservation = reservations.get(i);
+            LongPredicate pickedBefore = id -> picked.stream().anyMatch(other -> other.getSiteId() == id && overlap(other, reservation));
+            OptionalLong siteId;
+            if (reservation.getSiteId() != null) {
+                siteId = pickedBefore.test(reservation.getSiteId())
+                        || isTaken(reservation.getSiteId(), reservation.getStartDate(), reservation.getEndDate(), null)
+                        ? OptionalLong.empty() : OptionalLong.of(reservation.getSiteId());
+            } else {
+                siteId = pickFreeSite(reservation.getStartDate(), reservation.getEndDate(), pickedBefore);
+            }
+            if (siteId.isPresent()) {
+                picked.add((Reservation) new Reservation().siteId(siteId.getAsLong()).startDate(reservation.getStartDate()).endDate(reservation.getEndDate()));
+            } else {
+                results.set(i, new ReservationResult().status(ReservationResult.StatusEnum.CONFLICT).message(OVERLAP_MESSAGE));
+                iterator.remove();
+            }
         }
-        return (ConfirmedReservation) new ConfirmedReservation().id(reservationId).fullName(reservation.getFullName())
-                .email(reservation.getEmail()).startDate(reservation.getStartDate()).endDate(reservation.getEndDate());
+        if (validIndexes.isEmpty()) {
+            return results;
+        }
+        Map<PersonIdCache.PersonKey, Long> personIds = personIdCache.getPersonIds(validIndexes.stream()
+                .map(i -> new PersonIdCache.PersonKey(reservations.get(i).getEmail(), reservations.get(i).getFullName()))
+                .collect(Collectors.toList()));
+        List<ConfirmedReservation> confirmedReservations = new ArrayList<>(validIndexes.size());
+        for (int j = 0; j < validIndexes.size(); j++) {
+            Reservation reservation = reservations.get(validIndexes.get(j));
+            confirmedReservations.add((ConfirmedReservation) new ConfirmedReservation().id(UUID.randomUUID().toString()).fullName(reservation.getFullName())
+                    .email(reservation.getEmail()).siteId(picked.get(j).getSiteId()).startDate(reservation.getStartDate()).endDate(reservation.getEndDate()));
+        }
+        // Indexes in validIndexes of the reservations to insert, then of the ones to insert again on another site
+        List<Integer> pending = IntStream.range(0, validIndexes.size()).boxed().collect(Collectors.toList());
+        Map<Integer, Set<Long>> triedSiteIds = new HashMap<>();
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            List<Object[]> batchArgs = new ArrayList<>(pending.size());
+            for (int j : pending) {
+                ConfirmedReservation confirmedReservation = confirmedReservations.get(j);
+                long personId = personIds.get(new PersonIdCache.PersonKey(confirmedReservation.getEmail(), confirmedReservation.getFullName()));
+                batchArgs.add(new Object[]{confirmedReservation.getId(), personId, confirmedReservation.getSiteId(),
+                        confirmedReservation.getStartDate(), confirmedReservation.getEndDate()});
+            }
+            int[] updateCounts = ReservationQueries.INSERT_RESERVATION_IF_FREE.batchUpdate(jdbcTemplate, batchArgs);
+            List<Integer> conflicted = new ArrayList<>();
+            for (int k = 0; k < pending.size(); k++) {
+                int j = pending.get(k);
+                if (updateCounts[k] > 0) {
+                    ConfirmedReservation confirmedReservation = confirmedReservations.get(j);
+                    results.set(validIndexes.get(j), new ReservationResult().status(ReservationResult.StatusEnum.CONFIRMED).reservation(confirmedReservation));
+                    eventPublisher.publishEvent(ReservationChangedEvent.booked(confirmedReservation));
+                } else {
+                    conflicted.add(j);
+                }
+            }
+            pending = new ArrayList<>();
+            for (int j : conflicted) {
+                // Another transaction took the site the calendar saw as free: a reservation without a site is tried
+                // on another one, like insertOnFreeSite does, avoiding the sites the rest of the batch uses
+                OptionalLong siteId = OptionalLong.empty();
+                if (reservations.get(validIndexes.get(j)).getSiteId() == null && attempt < MAX_SITE_ATTEMPTS) {
+                    Reservation reservation = picked.get(j);
+                    Set<Long> tried = triedSiteIds.computeIfAbsent(j, k -> new HashSet<>());
+                    tried.add(reservation.getSiteId());
+                    LongPredicate usedInBatch = id -> picked.stream()
+                            .anyMatch(other -> other != null && other != reservation && other.getSiteId() == id && overlap(other, reservation));
+                    siteId = pickFreeSite(reservation.getStartDate(), reservation.getEndDate(), id -> tried.contains(id) || usedInBatch.test(id));
+                }
+                if (siteId.isPresent()) {
+                    picked.get(j).siteId(siteId.getAsLong());
+                    confirmedReservations.get(j).siteId(siteId.getAsLong());
+                    pending.add(j);
+                } else {
+                    picked.set(j, null);
+                    results.set(validIndexes.get(j), new ReservationResult().status(ReservationResult.StatusEnum.CONFLICT).message(OVERLAP_MESSAGE));
+                }
+            }
+        }
+        return results;
     }
 
-    private void validateReservation(ReservationDates reservationDates) {
+    void validateReservation(ReservationDates reservationDates) {
         LocalDate now = LocalDate.now(Clock.systemUTC());
         if (reservationDates.getStartDate().isBefore(now) || dayDiff(now, reservationDates.getStartDate()) < minDaysAhead) {
             throw new ValidationException(MessageFormat.format("Start date has to be at least {0} day(s) ahead of arrival", minDaysAhead));
@@ -121,31 +476,106 @@ public class ReservationService {
         }
     }
 
+    private void validateSite(Reservation reservation) {
+        if (reservation.getSiteId() != null && !occupancyCalendar.hasSite(reservation.getSiteId())) {
+            throw new ValidationException("Site " + reservation.getSiteId() + " doesn't exist");
+        }
+    }
+
+    private static boolean overlap(ReservationDates reservationDates1, ReservationDates reservationDates2) {
+        return reservationDates1.getStartDate().isBefore(reservationDates2.getEndDate()) && reservationDates2.getStartDate().isBefore(reservationDates1.getEndDate());
+    }
+
     private long dayDiff(LocalDate date1, LocalDate date2) {
         return date1.equals(date2) ? 0 : Math.abs(ChronoUnit.DAYS.between(date1, date2)) + 1;
     }
 
-    @Transactional
-    public Optional<ConfirmedReservation> getReservation(String reservationId) {
-        String sql = MessageFormat.format("SELECT reservation.id,person.email,person.full_name,lower(reservation.duration) as start_date,upper(reservation.duration) as end_date FROM reservation JOIN person ON reservation.person_id=person.id WHERE reservation.id=''{0}''", reservationId);
-        List<ConfirmedReservation> confirmedReservations = jdbcTemplate.query(sql, ConfirmedReservationMapper.INSTANCE);
-        return CollectionUtils.isEmpty(confirmedReservations) ? Optional.empty() : Optional.of(confirmedReservations.get(0));
+    /**
+     * Read through the {@link ReservationCache}, see {@link #getReservations}
+     */
+    @Timed(SERVICE_TIMER)
+    public Optional<VersionedReservation> getReservation(String reservationId) {
+        return reservationCache.get(reservationId, id -> ReservationQueries.RESERVATION_BY_ID.queryForFirst(jdbcTemplate, id));
+    }
+
+    /**
+     * Hands every reservation overlapping the dates to the consumer, archived ones included, as read from a server-side
+     * cursor: memory use doesn't depend on the number of reservations. The transaction, and the connection it holds,
+     * lasts until the consumer is done with the last one.
+     *
+     * @param startDate first day, no lower bound when null
+     * @param endDate   last day (inclusive), no upper bound when null
+     * @param fetchSize number of rows read from the cursor at a time
+     * @return the number of reservations
+     */
+    @Transactional(readOnly = true)
+    @Timed(SERVICE_TIMER)
+    public long exportReservations(LocalDate startDate, LocalDate endDate, int fetchSize, Consumer<ConfirmedReservation> consumer) {
+        return ReservationQueries.EXPORT_RESERVATIONS.stream(jdbcTemplate, fetchSize, consumer, startDate, endDate, startDate, endDate, startDate);
     }
 
+    /**
+     * Deletes the reservation in a single statement, without reading it first
+     *
+     * @param expectedVersion version the caller based the deletion on, any version when null
+     * @return the reservation as it was, empty when it doesn't exist
+     * @throws PreconditionFailedException when the reservation is at another version
+     */
     @Transactional
-    public void deleteReservation(ConfirmedReservation confirmedReservation) {
-        jdbcTemplate.update("DELETE FROM reservation WHERE id=?", confirmedReservation.getId());
+    @Timed(SERVICE_TIMER)
+    public Optional<VersionedReservation> deleteReservation(String reservationId, Long expectedVersion) {
+        Optional<ReservationMutation> deletion = ReservationQueries.DELETE_RESERVATION.queryForFirst(jdbcTemplate, reservationId, bigint(expectedVersion));
+        deletion.ifPresent(mutation -> {
+            checkApplied(mutation);
+            eventPublisher.publishEvent(ReservationChangedEvent.deleted(mutation.getPrevious()));
+        });
+        return deletion.map(ReservationMutation::getCurrent);
     }
 
+    /**
+     * Moves the reservation in a single statement, without reading it first. Only a cached reservation is checked
+     * against the calendar beforehand, and only while it is current; the database constraint has the last word anyway.
+     *
+     * @param expectedVersion version the caller based the update on, any version when null
+     * @return the reservation as it now is, empty when it doesn't exist
+     * @throws PreconditionFailedException when the reservation is at another version
+     */
     @Transactional
-    public void updateReservation(ConfirmedReservation confirmedReservation, ReservationDates reservationDates) {
+    @Timed(SERVICE_TIMER)
+    public Optional<VersionedReservation> updateReservation(String reservationId, ReservationDates reservationDates, Long expectedVersion) {
         validateReservation(reservationDates);
-        String duration = MessageFormat.format("[''{0}'', ''{1}'')", reservationDates.getStartDate(), reservationDates.getEndDate());
+        Optional<ConfirmedReservation> cached = reservationCache.peek(reservationId)
+                .filter(versionedReservation -> expectedVersion == null || versionedReservation.getVersion() == expectedVersion)
+                .map(VersionedReservation::getReservation);
+        if (cached.isPresent() && cached.get().getSiteId() != null && isTaken(cached.get().getSiteId(),
+                reservationDates.getStartDate(), reservationDates.getEndDate(), cached.get())) {
+            throw new ConflictException(UPDATE_OVERLAP_MESSAGE);
+        }
+        Optional<ReservationMutation> update;
         try {
-            jdbcTemplate.update("UPDATE reservation SET duration=?::daterange WHERE id=?", duration, confirmedReservation.getId());
+            update = ReservationQueries.UPDATE_RESERVATION_DATES.queryForFirst(jdbcTemplate, reservationId, reservationDates.getStartDate(),
+                    reservationDates.getEndDate(), bigint(expectedVersion));
         } catch (DataIntegrityViolationException x) {
-            throw new ValidationException("Unable to update reservationDates, dates overlap with existing reservationDates", x);
+            throw new ConflictException(UPDATE_OVERLAP_MESSAGE, x);
         }
+        update.ifPresent(mutation -> {
+            checkApplied(mutation);
+            eventPublisher.publishEvent(new ReservationChangedEvent(mutation.getPrevious(), mutation.getCurrent().getReservation()));
+        });
+        return update.map(ReservationMutation::getCurrent);
+    }
+
+    private static void checkApplied(ReservationMutation mutation) {
+        if (!mutation.isApplied()) {
+            throw new PreconditionFailedException("Reservation was modified, its version is now " + mutation.getCurrent().getVersion(), mutation.getCurrent().getVersion());
+        }
+    }
+
+    /**
+     * Typed, so that binding a null doesn't need the driver to look the parameter type up
+     */
+    private static SqlParameterValue bigint(Long value) {
+        return new SqlParameterValue(Types.BIGINT, value);
     }
 
     static class ConfirmedReservationMapper implements RowMapper<ConfirmedReservation> {
@@ -157,6 +587,7 @@ public class ReservationService {
                     .id(resultSet.getString(1))
                     .email(resultSet.getString(2))
                     .fullName(resultSet.getString(3))
+                    .siteId(resultSet.getLong(6))
                     .startDate(resultSet.getDate(4).toLocalDate())
                     .endDate(resultSet.getDate(5).toLocalDate());
         }
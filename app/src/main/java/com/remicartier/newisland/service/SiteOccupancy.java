@@ -0,0 +1,232 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.Reservation;
+import com.remicartier.model.ReservationDates;
+import com.remicartier.model.Site;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.LongPredicate;
+
+/**
+ * Booked days of every site, indexed by epoch-day then by site.
+ * <p>
+ * Sites are given a dense index (their rank by id), and each day holds two bitsets of site indexes: the sites booked
+ * for that night ({@code [startDate, endDate)}) and the sites whose reservation checks out that day ({@code endDate}).
+ * The exclusion constraint on {@code (site_id, duration)} guarantees that neither of them overlaps between two
+ * reservations of a same site, so releasing a reservation can simply clear its bits. Looking at a window costs one
+ * bitset operation per day, whatever the number of sites.
+ * <p>
+ * A day is unavailable on a site when it is either a booked night or a check-out day there, and unavailable overall
+ * when it is unavailable on every site. Picking a site for a booking only looks at the booked nights, like the
+ * database does.
+ * <p>
+ * Not thread-safe.
+ */
+class SiteOccupancy {
+    private final List<Site> sites;
+    private final long[] siteIds;
+    private final Map<Integer, BitSet> nights = new HashMap<>();
+    private final Map<Integer, BitSet> checkOuts = new HashMap<>();
+
+    SiteOccupancy(List<Site> sites) {
+        this.sites = new ArrayList<>(sites);
+        this.sites.sort(Comparator.comparing(Site::getId));
+        this.siteIds = this.sites.stream().mapToLong(Site::getId).toArray();
+    }
+
+    List<Site> getSites() {
+        return Collections.unmodifiableList(sites);
+    }
+
+    boolean hasSite(long siteId) {
+        return Arrays.binarySearch(siteIds, siteId) >= 0;
+    }
+
+    /**
+     * @return false when the reservation is on a site unknown to this occupancy, in which case nothing was marked
+     */
+    boolean mark(Reservation reservation, boolean booked) {
+        if (reservation.getStartDate() == null || reservation.getEndDate() == null || reservation.getSiteId() == null) {
+            return true;
+        }
+        int siteIndex = Arrays.binarySearch(siteIds, reservation.getSiteId());
+        if (siteIndex < 0) {
+            return false;
+        }
+        int start = toIndex(reservation.getStartDate());
+        int end = toIndex(reservation.getEndDate());
+        // Empty ranges don't hold any day and are ignored by the exclusion constraint
+        if (end <= start) {
+            return true;
+        }
+        for (int day = start; day < end; day++) {
+            set(nights, day, siteIndex, booked);
+        }
+        set(checkOuts, end, siteIndex, booked);
+        return true;
+    }
+
+    private void set(Map<Integer, BitSet> days, int day, int siteIndex, boolean booked) {
+        if (booked) {
+            days.computeIfAbsent(day, d -> new BitSet(siteIds.length)).set(siteIndex);
+        } else {
+            BitSet bitSet = days.get(day);
+            if (bitSet != null) {
+                bitSet.clear(siteIndex);
+                if (bitSet.isEmpty()) {
+                    days.remove(day);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param siteId    site to look at, any site when null
+     * @param startDate first day to look at
+     * @param endDate   last day to look at, inclusive
+     * @return the days between startDate and endDate (inclusive) that are available
+     */
+    List<LocalDate> getVacancy(Long siteId, LocalDate startDate, LocalDate endDate) {
+        int from = toIndex(startDate);
+        int to = toIndex(endDate) + 1;
+        if (to <= from) {
+            return new ArrayList<>();
+        }
+        int siteIndex = siteId == null ? -1 : Arrays.binarySearch(siteIds, siteId);
+        BitSet unavailable = new BitSet(to - from);
+        if (siteId != null && siteIndex < 0) {
+            unavailable.set(0, to - from);
+        } else {
+            for (int day = from; day < to; day++) {
+                BitSet unavailableSites = getUnavailableSites(day);
+                if (siteIndex >= 0 ? unavailableSites.get(siteIndex) : unavailableSites.cardinality() >= siteIds.length) {
+                    unavailable.set(day - from);
+                }
+            }
+        }
+        return OccupancyCalendar.toVacancy(unavailable, startDate, to - from);
+    }
+
+    /**
+     * @param startDate first day to look at
+     * @param endDate   last day to look at, inclusive
+     * @return the sites that are available on every day between startDate and endDate (inclusive)
+     */
+    List<Site> getVacantSites(LocalDate startDate, LocalDate endDate) {
+        BitSet unavailableSites = new BitSet(siteIds.length);
+        for (int day = toIndex(startDate), to = toIndex(endDate); day <= to; day++) {
+            unavailableSites.or(getUnavailableSites(day));
+        }
+        List<Site> vacantSites = new ArrayList<>(siteIds.length - unavailableSites.cardinality());
+        for (int i = unavailableSites.nextClearBit(0); i < siteIds.length; i = unavailableSites.nextClearBit(i + 1)) {
+            vacantSites.add(sites.get(i));
+        }
+        return vacantSites;
+    }
+
+    /**
+     * Picks a random site so that concurrent bookings of the same dates don't all compete for the same site.
+     *
+     * @param startDate check-in day
+     * @param endDate   check-out day, which can be another reservation's check-in day
+     * @param excluded  sites that must not be picked
+     * @return a site with no booked night between startDate and endDate (exclusive), if any
+     */
+    OptionalLong pickFreeSite(LocalDate startDate, LocalDate endDate, LongPredicate excluded, Random random) {
+        BitSet taken = new BitSet(siteIds.length);
+        for (int day = toIndex(startDate), to = toIndex(endDate); day < to; day++) {
+            BitSet bookedSites = nights.get(day);
+            if (bookedSites != null) {
+                taken.or(bookedSites);
+            }
+        }
+        int free = siteIds.length - taken.cardinality();
+        while (free > 0) {
+            int siteIndex = taken.nextClearBit(0);
+            for (int skip = random.nextInt(free); skip > 0; skip--) {
+                siteIndex = taken.nextClearBit(siteIndex + 1);
+            }
+            if (!excluded.test(siteIds[siteIndex])) {
+                return OptionalLong.of(siteIds[siteIndex]);
+            }
+            taken.set(siteIndex);
+            free--;
+        }
+        return OptionalLong.empty();
+    }
+
+    /**
+     * @return whether both have the same sites, with the same booked nights and check-out days
+     */
+    boolean sameAs(SiteOccupancy other) {
+        return sameSites(other) && nights.equals(other.nights) && checkOuts.equals(other.checkOuts);
+    }
+
+    boolean sameSites(SiteOccupancy other) {
+        return Arrays.equals(siteIds, other.siteIds);
+    }
+
+    /**
+     * Replaces the booked nights and check-out days between startDate and endDate (inclusive) with the ones of other,
+     * which must have the same sites, see {@link #sameSites}
+     *
+     * @return whether any of them changed
+     */
+    boolean replaceDays(SiteOccupancy other, LocalDate startDate, LocalDate endDate) {
+        boolean changed = false;
+        for (int day = toIndex(startDate), to = toIndex(endDate); day <= to; day++) {
+            changed |= replaceDay(nights, other.nights, day);
+            changed |= replaceDay(checkOuts, other.checkOuts, day);
+        }
+        return changed;
+    }
+
+    private static boolean replaceDay(Map<Integer, BitSet> days, Map<Integer, BitSet> otherDays, int day) {
+        BitSet replacement = otherDays.get(day);
+        BitSet replaced = replacement != null ? days.put(day, (BitSet) replacement.clone()) : days.remove(day);
+        return !Objects.equals(replaced, replacement);
+    }
+
+    /**
+     * @param siteId    site to look at
+     * @param startDate check-in day
+     * @param endDate   check-out day
+     * @param ignored   dates whose nights don't count on that site, e.g. the ones a reservation being moved has
+     *                  now, or null
+     * @return whether the site has a booked night between startDate and endDate (exclusive), false for an unknown
+     * site
+     */
+    boolean isTaken(long siteId, LocalDate startDate, LocalDate endDate, ReservationDates ignored) {
+        int siteIndex = Arrays.binarySearch(siteIds, siteId);
+        if (siteIndex < 0) {
+            return false;
+        }
+        int ignoredStart = ignored != null ? toIndex(ignored.getStartDate()) : 0;
+        int ignoredEnd = ignored != null ? toIndex(ignored.getEndDate()) : 0;
+        for (int day = toIndex(startDate), to = toIndex(endDate); day < to; day++) {
+            BitSet bookedSites = nights.get(day);
+            if (bookedSites != null && bookedSites.get(siteIndex) && (day < ignoredStart || day >= ignoredEnd)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private BitSet getUnavailableSites(int day) {
+        BitSet unavailableSites = new BitSet(siteIds.length);
+        BitSet bookedSites = nights.get(day);
+        if (bookedSites != null) {
+            unavailableSites.or(bookedSites);
+        }
+        BitSet checkOutSites = checkOuts.get(day);
+        if (checkOutSites != null) {
+            unavailableSites.or(checkOutSites);
+        }
+        return unavailableSites;
+    }
+
+    private static int toIndex(LocalDate date) {
+        return Math.toIntExact(date.toEpochDay());
+    }
+}
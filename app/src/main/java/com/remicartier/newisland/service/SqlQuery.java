@@ -0,0 +1,94 @@
+package com.remicartier.newisland.service;
+
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * {@link SqlStatement} returning rows of type T.
+ */
+public class SqlQuery<T> extends SqlStatement {
+    private final RowMapper<T> rowMapper;
+
+    public SqlQuery(String name, String sql, RowMapper<T> rowMapper) {
+        super(name, sql);
+        this.rowMapper = rowMapper;
+    }
+
+    public List<T> query(JdbcTemplate jdbcTemplate, Object... args) {
+        long start = System.nanoTime();
+        try {
+            return jdbcTemplate.query(getSql(), rowMapper, args);
+        } finally {
+            recordExecution(start);
+        }
+    }
+
+    /**
+     * @return the first row, if any
+     */
+    public Optional<T> queryForFirst(JdbcTemplate jdbcTemplate, Object... args) {
+        List<T> rows = query(jdbcTemplate, args);
+        return rows == null || rows.isEmpty() ? Optional.empty() : Optional.ofNullable(rows.get(0));
+    }
+
+    /**
+     * Hands the rows to the consumer as they are read, fetchSize at a time, instead of collecting them. The Postgres
+     * driver only reads through a server-side cursor within a transaction: outside of one, every row is fetched at once.
+     *
+     * @return the number of rows
+     */
+    public long stream(JdbcTemplate jdbcTemplate, int fetchSize, Consumer<? super T> consumer, Object... args) {
+        long start = System.nanoTime();
+        long[] rowCount = {0};
+        try {
+            jdbcTemplate.query(getSql(), preparedStatement -> {
+                preparedStatement.setFetchSize(fetchSize);
+                new ArgumentPreparedStatementSetter(args).setValues(preparedStatement);
+            }, (RowCallbackHandler) resultSet -> consumer.accept(rowMapper.mapRow(resultSet, (int) rowCount[0]++)));
+            return rowCount[0];
+        } finally {
+            recordExecution(start);
+        }
+    }
+
+    /**
+     * Runs the statement once per element of batchArgs, as a single JDBC batch. Meant for statements ending with a
+     * {@code RETURNING} clause, whose rows are read back through the generated keys of the batch.
+     *
+     * @return the returned rows, in the order of batchArgs
+     */
+    public List<T> queryBatch(JdbcTemplate jdbcTemplate, List<Object[]> batchArgs) {
+        long start = System.nanoTime();
+        try {
+            return jdbcTemplate.execute((ConnectionCallback<List<T>>) connection -> {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(getSql(), Statement.RETURN_GENERATED_KEYS)) {
+                    for (Object[] args : batchArgs) {
+                        new ArgumentPreparedStatementSetter(args).setValues(preparedStatement);
+                        preparedStatement.addBatch();
+                    }
+                    preparedStatement.executeBatch();
+                    List<T> rows = new ArrayList<>(batchArgs.size());
+                    try (ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+                        while (resultSet.next()) {
+                            rows.add(rowMapper.mapRow(resultSet, rows.size()));
+                        }
+                    }
+                    return rows;
+                }
+            });
+        } finally {
+            recordExecution(start);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.remicartier.newisland.service;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named, constant SQL statement whose parameters are always bound, never inlined.
+ * <p>
+ * Keeping the statement text constant lets the Postgres driver reuse the server-side prepared statement it caches per
+ * connection, instead of parsing and planning a new statement for every call. Executions and the time spent in them are
+ * counted per statement.
+ */
+public abstract class SqlStatement {
+    private final String name;
+    private final String sql;
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    protected SqlStatement(String name, String sql) {
+        this.name = name;
+        this.sql = sql;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    public Duration getTotalTime() {
+        return Duration.ofNanos(totalNanos.sum());
+    }
+
+    protected void recordExecution(long startNanos) {
+        executions.increment();
+        totalNanos.add(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + sql;
+    }
+}
@@ -0,0 +1,37 @@
+package com.remicartier.newisland.service;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+/**
+ * {@link SqlStatement} returning an update count.
+ */
+public class SqlUpdate extends SqlStatement {
+    public SqlUpdate(String name, String sql) {
+        super(name, sql);
+    }
+
+    public int update(JdbcTemplate jdbcTemplate, Object... args) {
+        long start = System.nanoTime();
+        try {
+            return jdbcTemplate.update(getSql(), args);
+        } finally {
+            recordExecution(start);
+        }
+    }
+
+    /**
+     * Runs the statement once per element of batchArgs, as a single JDBC batch.
+     *
+     * @return the update count of each execution, in the order of batchArgs
+     */
+    public int[] batchUpdate(JdbcTemplate jdbcTemplate, List<Object[]> batchArgs) {
+        long start = System.nanoTime();
+        try {
+            return jdbcTemplate.batchUpdate(getSql(), batchArgs);
+        } finally {
+            recordExecution(start);
+        }
+    }
+}
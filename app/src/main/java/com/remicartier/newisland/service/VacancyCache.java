@@ -0,0 +1,93 @@
+package com.remicartier.newisland.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.remicartier.model.ReservationDates;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Vacancy results by effective {@link VacancyWindow}, along with a global reservation change version.
+ * <p>
+ * Every committed {@link ReservationChangedEvent} bumps the version and evicts the windows overlapping the days it
+ * touched, whatever their site; the other windows stay cached. An {@link OccupancyRefreshedEvent} bumps the version
+ * and evicts every window. The version is seeded with the startup time so that ETags derived from it never repeat
+ * across restarts.
+ * <p>
+ * The version is only bumped once the evictions are done: an ETag read before a change is then at worst paired with
+ * a result loaded after it, which only costs a spurious {@code 200} on the next revalidation, never the other way
+ * round, which would have the new ETag cover a stale result for good.
+ */
+@Component
+@Slf4j
+public class VacancyCache {
+    private final Cache<VacancyWindow, List<LocalDate>> cache;
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+
+    @Autowired
+    public VacancyCache(@Value("${app.vacancy.cache.maxSize:1000}") long maxSize) {
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).build();
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return an ETag identifying the vacancy of that window at the current version
+     */
+    public String getETag(VacancyWindow vacancyWindow) {
+        return "\"" + Long.toHexString(getVersion()) + "-" + vacancyWindow.getStartDate() + "-" + vacancyWindow.getEndDate()
+                + (vacancyWindow.getSiteId() == null ? "" : "-" + vacancyWindow.getSiteId()) + "\"";
+    }
+
+    public List<LocalDate> get(VacancyWindow vacancyWindow, Function<VacancyWindow, List<LocalDate>> loader) {
+        List<LocalDate> vacancy = cache.getIfPresent(vacancyWindow);
+        if (vacancy != null) {
+            return vacancy;
+        }
+        long loadVersion = getVersion();
+        vacancy = Collections.unmodifiableList(loader.apply(vacancyWindow));
+        put(vacancyWindow, vacancy, loadVersion);
+        return vacancy;
+    }
+
+    // Applied after the OccupancyCalendar so that a reload never sees the calendar before the change
+    @Order(10)
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onReservationChanged(ReservationChangedEvent event) {
+        event.getPrevious().ifPresent(this::evict);
+        event.getCurrent().ifPresent(this::evict);
+        version.incrementAndGet();
+    }
+
+    @EventListener
+    public synchronized void onOccupancyRefreshed(OccupancyRefreshedEvent event) {
+        cache.invalidateAll();
+        version.incrementAndGet();
+    }
+
+    // Synchronized with onReservationChanged: a result loaded before a change must not be cached after its eviction
+    private synchronized void put(VacancyWindow vacancyWindow, List<LocalDate> vacancy, long loadVersion) {
+        if (version.get() == loadVersion) {
+            cache.put(vacancyWindow, vacancy);
+        }
+    }
+
+    private void evict(ReservationDates reservationDates) {
+        if (reservationDates.getStartDate() != null && reservationDates.getEndDate() != null) {
+            cache.asMap().keySet().removeIf(window -> window.overlaps(reservationDates.getStartDate(), reservationDates.getEndDate()));
+        }
+    }
+}
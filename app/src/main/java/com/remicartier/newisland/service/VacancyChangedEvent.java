@@ -0,0 +1,56 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.VacancyDelta;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Published by {@link VacancyFeed} when committed reservation changes, whichever instance made them, touched bookable
+ * days. Each {@link VacancyDelta} gives the current availability of the days touched, on a site or on any site.
+ * <p>
+ * A reset event doesn't have any delta: changes may have been missed, e.g. while the feed was reconnecting, and
+ * whoever follows the vacancy has to read it again.
+ */
+public class VacancyChangedEvent {
+    private final long id;
+    private final List<VacancyDelta> deltas;
+    private final boolean reset;
+
+    private VacancyChangedEvent(long id, List<VacancyDelta> deltas, boolean reset) {
+        this.id = id;
+        this.deltas = deltas;
+        this.reset = reset;
+    }
+
+    public static VacancyChangedEvent changed(long id, List<VacancyDelta> deltas) {
+        return new VacancyChangedEvent(id, Collections.unmodifiableList(deltas), false);
+    }
+
+    public static VacancyChangedEvent reset(long id) {
+        return new VacancyChangedEvent(id, Collections.emptyList(), true);
+    }
+
+    /**
+     * @return increasing number of the event, since this instance started
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the delta of any site first, if any, then the ones of each site
+     */
+    public List<VacancyDelta> getDeltas() {
+        return deltas;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    @Override
+    public String toString() {
+        return "VacancyChangedEvent{id=" + id + ", deltas=" + deltas + ", reset=" + reset + '}';
+    }
+}
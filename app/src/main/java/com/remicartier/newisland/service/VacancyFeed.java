@@ -0,0 +1,210 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.VacancyDelta;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows the committed reservation changes of every instance through a single {@code LISTEN} connection on the
+ * {@value #CHANNEL} channel, which the {@code reservation} table notifies (see {@code V6__reservation_notify.sql}), and
+ * publishes them as {@link VacancyChangedEvent}s.
+ * <p>
+ * Notifications coming within {@code app.vacancy.stream.coalesce} of each other are handled together: the days they
+ * touch within the bookable window are read again from the database, in a single query, and published as the
+ * {@link VacancyDelta} of any site then one per site. Those days are also replaced in the {@link OccupancyCalendar},
+ * which thereby follows the changes made by other instances. The connection is opened with the {@code spring.datasource}
+ * settings, outside of the pools, and reopened every {@code app.vacancy.stream.reconnectDelay} when lost; changes
+ * made meanwhile are unknown, so the calendar is refreshed and a reset is published once it is back. The calendar is
+ * only {@link OccupancyCalendar#isCurrent current} from that refresh until the connection is lost.
+ */
+@Component
+@Lazy(false)
+@Slf4j
+public class VacancyFeed {
+    final static String CHANNEL = "reservation_changed";
+    private final static int POLL_MILLIS = 1000;
+
+    private final ReservationService reservationService;
+    private final OccupancyCalendar occupancyCalendar;
+    private final DataSourceProperties dataSourceProperties;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+    private final Duration coalesce;
+    private final Duration reconnectDelay;
+    private final AtomicLong lastEventId = new AtomicLong();
+    private Thread listener;
+    private volatile boolean running;
+
+    @Autowired
+    public VacancyFeed(ReservationService reservationService, OccupancyCalendar occupancyCalendar,
+                       DataSourceProperties dataSourceProperties, ApplicationEventPublisher eventPublisher,
+                       @Value("${app.vacancy.stream.enabled:true}") boolean enabled,
+                       @Value("${app.vacancy.stream.coalesce:100ms}") Duration coalesce,
+                       @Value("${app.vacancy.stream.reconnectDelay:5s}") Duration reconnectDelay) {
+        this.reservationService = reservationService;
+        this.occupancyCalendar = occupancyCalendar;
+        this.dataSourceProperties = dataSourceProperties;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.coalesce = coalesce;
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            running = true;
+            listener = new Thread(this::listen, "vacancy-feed");
+            listener.setDaemon(true);
+            listener.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (listener != null) {
+            running = false;
+            listener.interrupt();
+            listener.join(TimeUnit.SECONDS.toMillis(10));
+            occupancyCalendar.setCurrent(false);
+        }
+    }
+
+    /**
+     * @return the id of the last event published, 0 when none was
+     */
+    public long getLastEventId() {
+        return lastEventId.get();
+    }
+
+    private void listen() {
+        boolean connected = false;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                // Whatever changed before the LISTEN was not notified, including before the first one
+                occupancyCalendar.refresh();
+                occupancyCalendar.setCurrent(true);
+                if (connected) {
+                    log.info("Listening to {} again", CHANNEL);
+                    eventPublisher.publishEvent(VacancyChangedEvent.reset(lastEventId.incrementAndGet()));
+                }
+                connected = true;
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    List<String> payloads = receive(pgConnection);
+                    if (!payloads.isEmpty()) {
+                        apply(payloads);
+                    }
+                }
+            } catch (SQLException | RuntimeException x) {
+                occupancyCalendar.setCurrent(false);
+                log.warn("Lost the {} notifications, reconnecting in {}", CHANNEL, reconnectDelay, x);
+                try {
+                    Thread.sleep(reconnectDelay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the payloads of the notifications received within a second, and of the ones following them within the
+     * coalescing delay
+     */
+    private List<String> receive(PGConnection pgConnection) throws SQLException {
+        List<String> payloads = new ArrayList<>();
+        PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+        if (notifications == null || notifications.length == 0) {
+            return payloads;
+        }
+        long deadline = System.nanoTime() + coalesce.toNanos();
+        while (notifications != null) {
+            Arrays.stream(notifications).map(PGNotification::getParameter).forEach(payloads::add);
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            // 0 would wait forever
+            notifications = remainingMillis > 0 ? pgConnection.getNotifications((int) remainingMillis) : null;
+        }
+        return payloads;
+    }
+
+    /**
+     * Publishes the availability of the days touched by the changes, as it is now in the database, and replaces them in
+     * the {@link OccupancyCalendar}
+     *
+     * @param payloads notified changes, as {@code siteId,startDate,endDate}, which touch the days between startDate and
+     *                 endDate inclusive: the check-out day isn't available either
+     */
+    void apply(List<String> payloads) {
+        VacancyWindow window = reservationService.getVacancyWindow(null, null, null);
+        Map<Long, SortedSet<LocalDate>> touchedDays = new TreeMap<>();
+        SortedSet<LocalDate> allTouchedDays = new TreeSet<>();
+        for (String payload : payloads) {
+            String[] fields = payload.split(",");
+            if (fields.length != 3) {
+                log.warn("Ignoring the unexpected {} notification {}", CHANNEL, payload);
+                continue;
+            }
+            LocalDate startDate = max(LocalDate.parse(fields[1]), window.getStartDate());
+            LocalDate endDate = min(LocalDate.parse(fields[2]), window.getEndDate());
+            SortedSet<LocalDate> siteTouchedDays = touchedDays.computeIfAbsent(Long.parseLong(fields[0]), siteId -> new TreeSet<>());
+            for (LocalDate day = startDate; !day.isAfter(endDate); day = day.plusDays(1)) {
+                siteTouchedDays.add(day);
+                allTouchedDays.add(day);
+            }
+        }
+        if (allTouchedDays.isEmpty()) {
+            return;
+        }
+        // From the day before, for the check-out days of the first day
+        SiteOccupancy siteOccupancy = reservationService.getSiteOccupancyFromDatabase(allTouchedDays.first().minusDays(1), allTouchedDays.last());
+        occupancyCalendar.replaceDays(siteOccupancy, allTouchedDays.first(), allTouchedDays.last());
+        List<VacancyDelta> deltas = new ArrayList<>(touchedDays.size() + 1);
+        deltas.add(delta(siteOccupancy, null, allTouchedDays));
+        touchedDays.forEach((siteId, days) -> {
+            if (!days.isEmpty()) {
+                deltas.add(delta(siteOccupancy, siteId, days));
+            }
+        });
+        eventPublisher.publishEvent(VacancyChangedEvent.changed(lastEventId.incrementAndGet(), deltas));
+    }
+
+    private static VacancyDelta delta(SiteOccupancy siteOccupancy, Long siteId, SortedSet<LocalDate> days) {
+        Set<LocalDate> vacancy = new HashSet<>(siteOccupancy.getVacancy(siteId, days.first(), days.last()));
+        VacancyDelta delta = new VacancyDelta().siteId(siteId).available(new ArrayList<>()).unavailable(new ArrayList<>());
+        days.forEach(day -> (vacancy.contains(day) ? delta.getAvailable() : delta.getUnavailable()).add(day));
+        return delta;
+    }
+
+    private static LocalDate max(LocalDate date1, LocalDate date2) {
+        return date1.isAfter(date2) ? date1 : date2;
+    }
+
+    private static LocalDate min(LocalDate date1, LocalDate date2) {
+        return date1.isBefore(date2) ? date1 : date2;
+    }
+}
@@ -0,0 +1,29 @@
+package com.remicartier.newisland.service;
+
+import lombok.Value;
+
+import java.time.LocalDate;
+
+/**
+ * Effective window of a vacancy search, once the requested dates have been clamped to what can be booked, and the
+ * site it is about.
+ */
+@Value
+public class VacancyWindow {
+    LocalDate startDate;
+    /**
+     * Inclusive
+     */
+    LocalDate endDate;
+    /**
+     * Null for the vacancy of any site
+     */
+    Long siteId;
+
+    /**
+     * @return true when any day between startDate and endDate (both inclusive) falls in this window
+     */
+    public boolean overlaps(LocalDate startDate, LocalDate endDate) {
+        return !startDate.isAfter(this.endDate) && !endDate.isBefore(this.startDate);
+    }
+}
@@ -0,0 +1,13 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import lombok.Value;
+
+/**
+ * A reservation along with its version, which every update bumps: see {@code V7__reservation_version.sql}.
+ */
+@Value
+public class VersionedReservation {
+    ConfirmedReservation reservation;
+    long version;
+}
@@ -0,0 +1,12 @@
+-- Merge the persons that were created more than once by concurrent first bookings
+UPDATE reservation SET person_id = keeper.id
+FROM person duplicate
+JOIN (SELECT min(id) AS id, email, full_name FROM person GROUP BY email, full_name) keeper
+    ON keeper.email = duplicate.email AND keeper.full_name = duplicate.full_name
+WHERE reservation.person_id = duplicate.id AND duplicate.id <> keeper.id;
+
+DELETE FROM person duplicate USING person keeper
+WHERE duplicate.email = keeper.email AND duplicate.full_name = keeper.full_name AND duplicate.id > keeper.id;
+
+ALTER TABLE ONLY person
+    ADD CONSTRAINT person_email_full_name_key UNIQUE (email, full_name);
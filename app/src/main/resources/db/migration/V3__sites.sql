@@ -0,0 +1,46 @@
+-- Reservations are now made per site: the exclusion constraint only prevents overlaps on a same site
+
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+CREATE TABLE site (
+    id bigint NOT NULL,
+    name text NOT NULL
+);
+
+ALTER TABLE site OWNER TO postgres;
+
+CREATE SEQUENCE site_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+ALTER TABLE site_id_seq OWNER TO postgres;
+
+ALTER SEQUENCE site_id_seq OWNED BY site.id;
+
+ALTER TABLE ONLY site ALTER COLUMN id SET DEFAULT nextval('site_id_seq'::regclass);
+
+ALTER TABLE ONLY site
+    ADD CONSTRAINT site_pkey PRIMARY KEY (id);
+
+ALTER TABLE ONLY site
+    ADD CONSTRAINT site_name_key UNIQUE (name);
+
+-- Existing reservations were all made on the one site the island had so far
+INSERT INTO site (name) VALUES ('Main');
+
+ALTER TABLE reservation ADD COLUMN site_id bigint;
+
+UPDATE reservation SET site_id = (SELECT id FROM site WHERE name = 'Main');
+
+ALTER TABLE ONLY reservation ALTER COLUMN site_id SET NOT NULL;
+
+ALTER TABLE ONLY reservation
+    ADD CONSTRAINT reservation_site_id_fkey FOREIGN KEY (site_id) REFERENCES site (id);
+
+ALTER TABLE reservation DROP CONSTRAINT reservation_duration_excl;
+
+ALTER TABLE ONLY reservation
+    ADD CONSTRAINT reservation_site_id_duration_excl EXCLUDE USING gist (site_id WITH =, duration WITH &&);
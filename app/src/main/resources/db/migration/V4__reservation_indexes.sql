@@ -0,0 +1,12 @@
+-- person.email is already the leading column of person_email_full_name_key, which serves the lookups by email. The
+-- reservations of a person, for getReservations, had no index though
+CREATE INDEX reservation_person_id_idx ON reservation (person_id);
+
+ALTER TABLE ONLY reservation
+    ADD CONSTRAINT reservation_person_id_fkey FOREIGN KEY (person_id) REFERENCES person (id);
+
+ALTER TABLE ONLY reservation ALTER COLUMN person_id SET NOT NULL;
+
+-- The occupancy calendar only loads the reservations that haven't ended yet, a small part of the table once history
+-- piles up
+CREATE INDEX reservation_upper_duration_idx ON reservation (upper(duration)) WHERE NOT isempty(duration);
@@ -0,0 +1,5 @@
+-- A hold is a reservation that expires unless it is confirmed. Being a row of the reservation table, it takes its dates
+-- through the exclusion constraint just like a booking, so that confirming it can't conflict
+ALTER TABLE reservation ADD COLUMN hold_expires_at timestamp with time zone;
+
+CREATE INDEX reservation_hold_expires_at_idx ON reservation (hold_expires_at) WHERE hold_expires_at IS NOT NULL;
@@ -0,0 +1,21 @@
+-- Every committed change to the days a reservation (or hold) takes is notified on the reservation_changed channel, as
+-- 'siteId,startDate,endDate' for the days taken before and after the change, whichever instance or client made it.
+-- Postgres drops duplicate notifications of a same transaction, and delivers them on commit only. Past reservations
+-- don't change the vacancy, e.g. when history is archived: they aren't notified
+CREATE FUNCTION notify_reservation_changed() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP <> 'INSERT' AND NOT isempty(OLD.duration) AND upper(OLD.duration) >= current_date THEN
+        PERFORM pg_notify('reservation_changed', concat_ws(',', OLD.site_id, lower(OLD.duration), upper(OLD.duration)));
+    END IF;
+    IF TG_OP <> 'DELETE' AND NOT isempty(NEW.duration) AND upper(NEW.duration) >= current_date THEN
+        PERFORM pg_notify('reservation_changed', concat_ws(',', NEW.site_id, lower(NEW.duration), upper(NEW.duration)));
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+ALTER FUNCTION notify_reservation_changed() OWNER TO postgres;
+
+-- Confirming a hold only clears hold_expires_at: its days were already taken
+CREATE TRIGGER reservation_changed AFTER INSERT OR DELETE OR UPDATE OF site_id, duration ON reservation
+    FOR EACH ROW EXECUTE FUNCTION notify_reservation_changed();
@@ -0,0 +1,3 @@
+-- Bumped by every update of a reservation, and exposed as its ETag: a PATCH or DELETE sent with If-Match only applies
+-- to the version the client saw. A constant default doesn't rewrite the table
+ALTER TABLE reservation ADD COLUMN version bigint NOT NULL DEFAULT 1;
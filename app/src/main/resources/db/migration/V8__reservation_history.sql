@@ -0,0 +1,90 @@
+-- Completed stays are moved out of reservation by archive_reservations(), see ReservationArchiver, so that the table
+-- and its exclusion index only hold the current and upcoming stays. The archived ones are partitioned by year of their
+-- end date, partitions being created as stays are archived into them
+CREATE TABLE reservation_history (
+    id text NOT NULL,
+    duration daterange NOT NULL,
+    person_id bigint NOT NULL,
+    site_id bigint NOT NULL,
+    version bigint NOT NULL,
+    archived_at timestamp with time zone NOT NULL DEFAULT now()
+) PARTITION BY RANGE (upper(duration));
+
+ALTER TABLE reservation_history OWNER TO postgres;
+
+ALTER TABLE ONLY reservation_history
+    ADD CONSTRAINT reservation_history_person_id_fkey FOREIGN KEY (person_id) REFERENCES person (id);
+
+ALTER TABLE ONLY reservation_history
+    ADD CONSTRAINT reservation_history_site_id_fkey FOREIGN KEY (site_id) REFERENCES site (id);
+
+CREATE INDEX reservation_history_upper_duration_idx ON reservation_history (upper(duration));
+
+-- Stays ending up to archived_until may have been archived. No reservation can start before it anymore (see
+-- check_reservation_archived): the ones left can't overlap an archived one, which the exclusion constraint no longer
+-- sees
+CREATE TABLE reservation_archive (
+    id boolean NOT NULL DEFAULT true CHECK (id),
+    archived_until date NOT NULL
+);
+
+ALTER TABLE reservation_archive OWNER TO postgres;
+
+ALTER TABLE ONLY reservation_archive
+    ADD CONSTRAINT reservation_archive_pkey PRIMARY KEY (id);
+
+INSERT INTO reservation_archive (archived_until) VALUES ('-infinity');
+
+-- archived_until is at least a day behind current_date, as seen by any session a day apart at most: a stay starting
+-- from today on is always allowed, without looking it up. Earlier ones lock it, waiting for an archival in progress. A
+-- refusal is an exclusion violation, as if the archived stay was still there
+CREATE FUNCTION check_reservation_archived() RETURNS trigger AS $$
+DECLARE
+    until date;
+BEGIN
+    IF isempty(NEW.duration) OR lower(NEW.duration) >= current_date THEN
+        RETURN NEW;
+    END IF;
+    SELECT archived_until INTO until FROM reservation_archive FOR SHARE;
+    IF lower(NEW.duration) < until THEN
+        RAISE EXCEPTION 'Reservation % starts on %, before the archived stays ending up to %', NEW.id, lower(NEW.duration), until
+            USING ERRCODE = 'exclusion_violation';
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+ALTER FUNCTION check_reservation_archived() OWNER TO postgres;
+
+CREATE TRIGGER reservation_archived BEFORE INSERT OR UPDATE OF duration ON reservation
+    FOR EACH ROW EXECUTE FUNCTION check_reservation_archived();
+
+-- Moves up to batch_size confirmed stays ending up to before (or yesterday, whichever comes first) to
+-- reservation_history, returning how many. Their end date is in the past: reservation_changed isn't notified
+CREATE FUNCTION archive_reservations(before date, batch_size integer) RETURNS bigint AS $$
+DECLARE
+    until date := least(before, current_date - 1);
+    partition_year integer;
+    archived_count bigint;
+BEGIN
+    -- Raised first: once this transaction commits, no reservation starting before it can be written anymore
+    UPDATE reservation_archive SET archived_until = greatest(archived_until, until);
+    FOR partition_year IN SELECT generate_series(extract(year FROM min(upper(duration)))::integer, extract(year FROM until)::integer)
+                FROM reservation WHERE NOT isempty(duration) AND upper(duration) <= until AND hold_expires_at IS NULL LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF reservation_history FOR VALUES FROM (%L) TO (%L)',
+                       'reservation_history_' || partition_year, make_date(partition_year, 1, 1), make_date(partition_year + 1, 1, 1));
+    END LOOP;
+    WITH archived AS (
+        DELETE FROM reservation WHERE id IN (
+            SELECT id FROM reservation
+            WHERE NOT isempty(duration) AND upper(duration) <= until AND hold_expires_at IS NULL
+            ORDER BY upper(duration) LIMIT batch_size)
+        RETURNING id, duration, person_id, site_id, version)
+    INSERT INTO reservation_history (id, duration, person_id, site_id, version)
+    SELECT id, duration, person_id, site_id, version FROM archived;
+    GET DIAGNOSTICS archived_count = ROW_COUNT;
+    RETURN archived_count;
+END;
+$$ LANGUAGE plpgsql;
+
+ALTER FUNCTION archive_reservations(date, integer) OWNER TO postgres;
@@ -13,6 +13,7 @@ import org.springframework.boot.test.util.TestPropertyValues;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.context.ApplicationContextInitializer;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
@@ -42,8 +43,9 @@ class NewIslandApplicationTests {
 
     private final LocalDate now = LocalDate.now(Clock.systemUTC());
 
+    // The migrations need Postgres 11 or later, Testcontainers defaults to 9.6
     @Container
-    private static final PostgreSQLContainer<?> POSTGRE_SQL_CONTAINER = new PostgreSQLContainer<>()
+    private static final PostgreSQLContainer<?> POSTGRE_SQL_CONTAINER = new PostgreSQLContainer<>("postgres:12")
             .withDatabaseName("new_island")
             .withUsername(USERNAME)
             .withPassword(PASSWORD);
@@ -105,18 +107,29 @@ class NewIslandApplicationTests {
 
         //Update booking
         ReservationDates reservationDates = new ReservationDates().startDate(now.plusDays(1)).endDate(now.plusDays(3));
-        ResponseEntity<Object> objectResponseEntity = restTemplate.exchange(RequestEntity.patch(URI.create("/reservations/" + confirmedReservation.getId())).body(reservationDates), Object.class);
+        ResponseEntity<ConfirmedReservation> patchResponseEntity = restTemplate.exchange(RequestEntity.patch(URI.create("/reservations/" + confirmedReservation.getId()))
+                .header(HttpHeaders.IF_MATCH, "\"1\"").body(reservationDates), ConfirmedReservation.class);
 
-        Assertions.assertEquals(HttpStatus.NO_CONTENT, objectResponseEntity.getStatusCode());
+        Assertions.assertEquals(HttpStatus.OK, patchResponseEntity.getStatusCode());
+        Assertions.assertEquals("\"2\"", patchResponseEntity.getHeaders().getETag());
+        Assertions.assertNotNull(patchResponseEntity.getBody());
+        Assertions.assertEquals(now.plusDays(3), patchResponseEntity.getBody().getEndDate());
         listResponseEntity = restTemplate.getForEntity("/reservations?email=" + EMAIL, ConfirmedReservationList.class);
         Assertions.assertNotNull(listResponseEntity.getBody());
         Assertions.assertEquals(1, listResponseEntity.getBody().size());
         confirmedReservation = listResponseEntity.getBody().get(0);
         Assertions.assertEquals(now.plusDays(3), confirmedReservation.getEndDate());
 
-        //Delete booking
-        objectResponseEntity = restTemplate.exchange(RequestEntity.delete(URI.create("/reservations/" + confirmedReservation.getId())).build(), Object.class);
+        //Delete booking, from a stale version first
+        ResponseEntity<Object> objectResponseEntity = restTemplate.exchange(RequestEntity.delete(URI.create("/reservations/" + confirmedReservation.getId()))
+                .header(HttpHeaders.IF_MATCH, "\"1\"").build(), Object.class);
+        Assertions.assertEquals(HttpStatus.PRECONDITION_FAILED, objectResponseEntity.getStatusCode());
+        Assertions.assertEquals("\"2\"", objectResponseEntity.getHeaders().getETag());
+        objectResponseEntity = restTemplate.exchange(RequestEntity.delete(URI.create("/reservations/" + confirmedReservation.getId()))
+                .header(HttpHeaders.IF_MATCH, "\"2\"").build(), Object.class);
         Assertions.assertEquals(HttpStatus.NO_CONTENT, objectResponseEntity.getStatusCode());
+        objectResponseEntity = restTemplate.exchange(RequestEntity.delete(URI.create("/reservations/" + confirmedReservation.getId())).build(), Object.class);
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, objectResponseEntity.getStatusCode());
 
         listResponseEntity = restTemplate.getForEntity("/reservations?email=" + EMAIL, ConfirmedReservationList.class);
         Assertions.assertNotNull(listResponseEntity.getBody());
@@ -0,0 +1,36 @@
+package com.remicartier.newisland.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+class DataSourceConfigurationTest {
+    private final DataSourceConfiguration.ReadWriteRoutingDataSource routingDataSource = new DataSourceConfiguration.ReadWriteRoutingDataSource();
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    void determineCurrentLookupKeyNoTransaction() {
+        Assertions.assertEquals(DataSourceConfiguration.READ_POOL, routingDataSource.determineCurrentLookupKey());
+    }
+
+    @Test
+    void determineCurrentLookupKeyReadOnlyTransaction() {
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        Assertions.assertEquals(DataSourceConfiguration.READ_POOL, routingDataSource.determineCurrentLookupKey());
+    }
+
+    @Test
+    void determineCurrentLookupKeyReadWriteTransaction() {
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+
+        Assertions.assertEquals(DataSourceConfiguration.WRITE_POOL, routingDataSource.determineCurrentLookupKey());
+    }
+}
@@ -0,0 +1,32 @@
+package com.remicartier.newisland.config;
+
+import com.remicartier.newisland.service.ReservationQueries;
+import com.remicartier.newisland.service.SqlQuery;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+class MetricsConfigurationTest {
+    @Test
+    void sqlStatementMetrics() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        new MetricsConfiguration().sqlStatementMetrics().bindTo(meterRegistry);
+
+        Assertions.assertEquals(ReservationQueries.all().size(), meterRegistry.find(MetricsConfiguration.SQL_TIMER).functionTimers().size());
+
+        SqlQuery<?> query = (SqlQuery<?>) ReservationQueries.all().stream().filter(statement -> statement instanceof SqlQuery).findFirst().orElseThrow();
+        FunctionTimer timer = meterRegistry.get(MetricsConfiguration.SQL_TIMER).tag("statement", query.getName()).functionTimer();
+        double count = timer.count();
+        query.query(mock(JdbcTemplate.class));
+
+        Assertions.assertEquals(count + 1, timer.count());
+        Assertions.assertTrue(timer.totalTime(TimeUnit.NANOSECONDS) > 0);
+    }
+}
@@ -0,0 +1,49 @@
+package com.remicartier.newisland.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+class StartupReportTest {
+    @Test
+    void phases() {
+        AtomicLong nanoTime = new AtomicLong(Duration.ofSeconds(10).toNanos());
+        StartupReport startupReport = new StartupReport(nanoTime::get, () -> 400);
+
+        nanoTime.addAndGet(Duration.ofMillis(100).toNanos());
+        startupReport.starting();
+        nanoTime.addAndGet(Duration.ofMillis(50).toNanos());
+        startupReport.environmentPrepared(null);
+        nanoTime.addAndGet(Duration.ofMillis(20).toNanos());
+        startupReport.contextPrepared(null);
+        nanoTime.addAndGet(Duration.ofMillis(10).toNanos());
+        startupReport.contextLoaded(null);
+        nanoTime.addAndGet(Duration.ofMillis(1500).toNanos());
+        startupReport.started(null);
+
+        Assertions.assertEquals(List.of("jvm", "environment", "context", "refresh"), List.copyOf(startupReport.getPhases().keySet()));
+        Assertions.assertEquals(Duration.ofMillis(500), startupReport.getPhases().get("jvm"));
+        Assertions.assertEquals(Duration.ofMillis(50), startupReport.getPhases().get("environment"));
+        Assertions.assertEquals(Duration.ofMillis(30), startupReport.getPhases().get("context"));
+        Assertions.assertEquals(Duration.ofMillis(1500), startupReport.getPhases().get("refresh"));
+        Assertions.assertEquals(Duration.ofMillis(2080), startupReport.getTotal());
+    }
+
+    @Test
+    void bindTo() {
+        AtomicLong nanoTime = new AtomicLong();
+        StartupReport startupReport = new StartupReport(nanoTime::get, () -> 0);
+        nanoTime.addAndGet(Duration.ofMillis(250).toNanos());
+        startupReport.starting();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        startupReport.bindTo(meterRegistry);
+
+        Assertions.assertEquals(0.25, meterRegistry.get(StartupReport.STARTUP_GAUGE).tag("phase", "jvm").gauge().value(), 1e-9);
+    }
+}
@@ -0,0 +1,32 @@
+package com.remicartier.newisland.config;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+class VirtualThreadsConfigurationTest {
+    @Test
+    void newVirtualThreadPerTaskExecutor() throws Exception {
+        Assumptions.assumeTrue(Runtime.version().feature() >= 21, "Needs a Java 21 runtime");
+        ExecutorService executorService = VirtualThreadsConfiguration.newVirtualThreadPerTaskExecutor("test-vt-");
+        try {
+            Thread thread = executorService.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+
+            Assertions.assertEquals(true, Thread.class.getMethod("isVirtual").invoke(thread));
+            Assertions.assertEquals("test-vt-0", thread.getName());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    void newVirtualThreadPerTaskExecutorUnsupported() {
+        Assumptions.assumeTrue(Runtime.version().feature() < 19, "Virtual threads are available");
+        IllegalStateException x = Assertions.assertThrows(IllegalStateException.class,
+                () -> VirtualThreadsConfiguration.newVirtualThreadPerTaskExecutor("test-vt-"));
+        Assertions.assertTrue(x.getMessage().startsWith("app.virtualThreads.enabled needs a Java 21 runtime"));
+    }
+}
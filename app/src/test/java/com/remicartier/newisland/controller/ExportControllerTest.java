@@ -0,0 +1,88 @@
+package com.remicartier.newisland.controller;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.ErrorMessage;
+import com.remicartier.newisland.service.ReservationService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.LocalDate;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings({"unused", "unchecked"})
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "app.export.enabled=true")
+class ExportControllerTest {
+    private final static LocalDate START_DATE = LocalDate.of(2026, 11, 1);
+
+    @MockBean
+    private ReservationService reservationService;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void exportReservations() {
+        stubExport(null, null);
+
+        ResponseEntity<String> responseEntity = restTemplate.getForEntity("/admin/reservations", String.class);
+
+        Assertions.assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        Assertions.assertEquals("application/x-ndjson;charset=UTF-8", String.valueOf(responseEntity.getHeaders().getContentType()));
+        String[] lines = Objects.requireNonNull(responseEntity.getBody()).split("\n");
+        Assertions.assertEquals(2, lines.length);
+        Assertions.assertTrue(lines[0].startsWith("{") && lines[0].contains("\"id\":\"1\"") && lines[0].contains("\"startDate\":\"2026-11-01\""));
+        Assertions.assertTrue(lines[1].contains("\"fullName\":\"Doe, \\\"Jane\\\"\""));
+    }
+
+    @Test
+    void exportReservationsCsv() {
+        stubExport(START_DATE, START_DATE.plusDays(10));
+
+        ResponseEntity<String> responseEntity = restTemplate.getForEntity("/admin/reservations?format=csv&startDate=2026-11-01&endDate=2026-11-11", String.class);
+
+        Assertions.assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        Assertions.assertEquals("text/csv;charset=UTF-8", String.valueOf(responseEntity.getHeaders().getContentType()));
+        Assertions.assertEquals("id,email,fullName,siteId,startDate,endDate\n"
+                + "1,john@domain.com,John Doe,1,2026-11-01,2026-11-03\n"
+                + "2,jane@domain.com,\"Doe, \"\"Jane\"\"\",2,2026-11-01,2026-11-03\n", responseEntity.getBody());
+    }
+
+    @Test
+    void exportReservationsUnknownFormat() {
+        ResponseEntity<ErrorMessage> responseEntity = restTemplate.getForEntity("/admin/reservations?format=xml", ErrorMessage.class);
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        verify(reservationService, never()).exportReservations(any(), any(), anyInt(), any());
+    }
+
+    private void stubExport(LocalDate startDate, LocalDate endDate) {
+        when(reservationService.exportReservations(startDate == null ? isNull() : eq(startDate), endDate == null ? isNull() : eq(endDate), anyInt(), any()))
+                .thenAnswer(invocation -> {
+                    Consumer<ConfirmedReservation> consumer = invocation.getArgument(3);
+                    consumer.accept(reservation("1", "john@domain.com", "John Doe", 1L));
+                    consumer.accept(reservation("2", "jane@domain.com", "Doe, \"Jane\"", 2L));
+                    return 2L;
+                });
+    }
+
+    private ConfirmedReservation reservation(String id, String email, String fullName, long siteId) {
+        return (ConfirmedReservation) new ConfirmedReservation().id(id).email(email).fullName(fullName).siteId(siteId)
+                .startDate(START_DATE).endDate(START_DATE.plusDays(2));
+    }
+}
@@ -2,10 +2,16 @@ package com.remicartier.newisland.controller;
 
 import com.remicartier.model.ConfirmedReservation;
 import com.remicartier.model.ErrorMessage;
+import com.remicartier.model.Hold;
 import com.remicartier.model.Reservation;
 import com.remicartier.model.ReservationDates;
+import com.remicartier.model.ReservationResult;
+import com.remicartier.newisland.exception.ConflictException;
+import com.remicartier.newisland.exception.PreconditionFailedException;
 import com.remicartier.newisland.exception.ValidationException;
 import com.remicartier.newisland.service.ReservationService;
+import com.remicartier.newisland.service.VersionedReservation;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -13,6 +19,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.RequestEntity;
@@ -21,16 +28,22 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.net.URI;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 /**
  * Created by remicartier on 2020-07-19 2:26 p.m.
  */
-@SuppressWarnings("unused")
+@SuppressWarnings({"unused", "unchecked"})
 @ExtendWith(SpringExtension.class)
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 class ReservationsControllerTest {
@@ -45,6 +58,9 @@ class ReservationsControllerTest {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Test
     void getReservations() {
         when(reservationService.getReservations("user@domain.com")).thenReturn(Collections.singletonList(new ConfirmedReservation()));
@@ -54,6 +70,15 @@ class ReservationsControllerTest {
         Assertions.assertEquals(1, Objects.requireNonNull(responseEntity.getBody()).size());
     }
 
+    @Test
+    void exportReservationsDisabled() {
+        // Off by default, see ExportControllerTest
+        ResponseEntity<String> responseEntity = restTemplate.getForEntity("/admin/reservations", String.class);
+
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
+        verify(reservationService, never()).exportReservations(any(), any(), anyInt(), any());
+    }
+
     @Test
     void getReservationsAnyException() {
         when(reservationService.getReservations("user@domain.com")).thenThrow(new RuntimeException("Nope"));
@@ -76,6 +101,33 @@ class ReservationsControllerTest {
         Assertions.assertEquals(BOOKING_ID, responseEntity.getBody().getId());
     }
 
+    @Test
+    void createReservationIdempotent() {
+        when(reservationService.bookReservation(any(Reservation.class))).thenReturn(new ConfirmedReservation().id(BOOKING_ID));
+        String idempotencyKey = UUID.randomUUID().toString();
+
+        Reservation reservation = (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now).endDate(now.plusDays(1));
+        RequestEntity<Reservation> requestEntity = RequestEntity.post(URI.create("/reservations"))
+                .header(ReservationsController.IDEMPOTENCY_KEY, idempotencyKey).body(reservation);
+
+        ResponseEntity<ConfirmedReservation> responseEntity = restTemplate.exchange(requestEntity, ConfirmedReservation.class);
+        ResponseEntity<ConfirmedReservation> retryResponseEntity = restTemplate.exchange(requestEntity, ConfirmedReservation.class);
+
+        verify(reservationService, times(1)).bookReservation(any(Reservation.class));
+        Assertions.assertEquals(HttpStatus.CREATED, responseEntity.getStatusCode());
+        Assertions.assertEquals("false", responseEntity.getHeaders().getFirst(ReservationsController.IDEMPOTENT_REPLAYED));
+        Assertions.assertEquals(HttpStatus.CREATED, retryResponseEntity.getStatusCode());
+        Assertions.assertEquals("true", retryResponseEntity.getHeaders().getFirst(ReservationsController.IDEMPOTENT_REPLAYED));
+        Assertions.assertEquals(BOOKING_ID, Objects.requireNonNull(retryResponseEntity.getBody()).getId());
+
+        reservation.endDate(now.plusDays(2));
+        ResponseEntity<ErrorMessage> otherResponseEntity = restTemplate.exchange(RequestEntity.post(URI.create("/reservations"))
+                .header(ReservationsController.IDEMPOTENCY_KEY, idempotencyKey).body(reservation), ErrorMessage.class);
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, otherResponseEntity.getStatusCode());
+        verify(reservationService, times(1)).bookReservation(any(Reservation.class));
+    }
+
     @Test
     void createReservationBadRequest() {
         when(reservationService.bookReservation(any(Reservation.class))).thenThrow(new ValidationException("Nope"));
@@ -89,8 +141,25 @@ class ReservationsControllerTest {
         Assertions.assertEquals("Nope", responseEntity.getBody().getMessage());
     }
 
+    @Test
+    void createReservationConflict() {
+        double conflicts = count(ReservationMetrics.CONFLICTS, "createReservation");
+        double rejections = count(ReservationMetrics.REJECTIONS, "createReservation");
+        when(reservationService.bookReservation(any(Reservation.class))).thenThrow(new ConflictException("Taken"));
+
+        Reservation reservation = (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now).endDate(now.plusDays(1));
+
+        ResponseEntity<ErrorMessage> responseEntity = restTemplate.postForEntity("/reservations", reservation, ErrorMessage.class);
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        Assertions.assertEquals(conflicts + 1, count(ReservationMetrics.CONFLICTS, "createReservation"));
+        Assertions.assertEquals(rejections, count(ReservationMetrics.REJECTIONS, "createReservation"));
+    }
+
     @Test
     void createReservationBadRequestMissingField() {
+        double rejections = count(ReservationMetrics.REJECTIONS, "createReservation");
+
         Reservation reservation = (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now);
 
         ResponseEntity<ErrorMessage> responseEntity = restTemplate.postForEntity("/reservations", reservation, ErrorMessage.class);
@@ -98,19 +167,76 @@ class ReservationsControllerTest {
         Assertions.assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
         Assertions.assertNotNull(responseEntity.getBody());
         Assertions.assertEquals("Field 'endDate' is undefined", responseEntity.getBody().getMessage());
+        Assertions.assertEquals(rejections + 1, count(ReservationMetrics.REJECTIONS, "createReservation"));
+    }
+
+    @Test
+    void createReservations() {
+        double rejections = count(ReservationMetrics.REJECTIONS, "createReservations");
+        when(reservationService.bookReservations(anyList(), any())).thenAnswer(invocation -> {
+            Consumer<Reservation> validator = invocation.getArgument(1);
+            List<ReservationResult> results = new ArrayList<>();
+            for (Reservation reservation : (List<Reservation>) invocation.getArgument(0)) {
+                try {
+                    validator.accept(reservation);
+                    results.add(new ReservationResult().status(ReservationResult.StatusEnum.CONFIRMED).reservation(new ConfirmedReservation().id(BOOKING_ID)));
+                } catch (ValidationException x) {
+                    results.add(new ReservationResult().status(ReservationResult.StatusEnum.INVALID).message(x.getMessage()));
+                }
+            }
+            return results;
+        });
+
+        List<Reservation> reservations = Arrays.asList(
+                (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now).endDate(now.plusDays(1)),
+                (Reservation) new Reservation().fullName(FULL_NAME).startDate(now).endDate(now.plusDays(1)));
+
+        ResponseEntity<ReservationResult[]> responseEntity = restTemplate.postForEntity("/reservations/batch", reservations, ReservationResult[].class);
+
+        Assertions.assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        Assertions.assertNotNull(responseEntity.getBody());
+        Assertions.assertEquals(2, responseEntity.getBody().length);
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFIRMED, responseEntity.getBody()[0].getStatus());
+        Assertions.assertEquals(BOOKING_ID, responseEntity.getBody()[0].getReservation().getId());
+        Assertions.assertEquals(ReservationResult.StatusEnum.INVALID, responseEntity.getBody()[1].getStatus());
+        Assertions.assertEquals("Field 'email' is undefined", responseEntity.getBody()[1].getMessage());
+        Assertions.assertEquals(rejections + 1, count(ReservationMetrics.REJECTIONS, "createReservations"));
+    }
+
+    @Test
+    void createReservationsTooMany() {
+        List<Reservation> reservations = Collections.nCopies(101, (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now).endDate(now.plusDays(1)));
+
+        ResponseEntity<ErrorMessage> responseEntity = restTemplate.postForEntity("/reservations/batch", reservations, ErrorMessage.class);
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        Assertions.assertNotNull(responseEntity.getBody());
+        Assertions.assertEquals("You can't book more than 100 reservation(s) at once", responseEntity.getBody().getMessage());
+        verify(reservationService, never()).bookReservations(anyList(), any());
     }
 
     @Test
     void getReservationInfo() {
-        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.of(new ConfirmedReservation().id(BOOKING_ID)));
+        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.of(new VersionedReservation(new ConfirmedReservation().id(BOOKING_ID), 3)));
 
         ResponseEntity<ConfirmedReservation> responseEntity = restTemplate.getForEntity("/reservations/" + BOOKING_ID, ConfirmedReservation.class);
 
         Assertions.assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        Assertions.assertEquals("\"3\"", responseEntity.getHeaders().getETag());
         Assertions.assertNotNull(responseEntity.getBody());
         Assertions.assertEquals(BOOKING_ID, responseEntity.getBody().getId());
     }
 
+    @Test
+    void getReservationInfoNotModified() {
+        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.of(new VersionedReservation(new ConfirmedReservation().id(BOOKING_ID), 3)));
+
+        ResponseEntity<ConfirmedReservation> responseEntity = restTemplate.exchange(RequestEntity.get(URI.create("/reservations/" + BOOKING_ID))
+                .ifNoneMatch("\"3\"").build(), ConfirmedReservation.class);
+
+        Assertions.assertEquals(HttpStatus.NOT_MODIFIED, responseEntity.getStatusCode());
+    }
+
     @Test
     void getReservationInfoNotFound() {
         when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.empty());
@@ -122,26 +248,32 @@ class ReservationsControllerTest {
 
     @Test
     void deleteReservation() {
-        ConfirmedReservation confirmedReservation = new ConfirmedReservation().id(BOOKING_ID);
-
-        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.of(confirmedReservation));
+        when(reservationService.deleteReservation(BOOKING_ID, null)).thenReturn(Optional.of(new VersionedReservation(new ConfirmedReservation().id(BOOKING_ID), 1)));
 
         ResponseEntity<Object> responseEntity = restTemplate.exchange("/reservations/" + BOOKING_ID, HttpMethod.DELETE, null, Object.class);
 
-        verify(reservationService).deleteReservation(confirmedReservation);
-
+        verify(reservationService, never()).getReservation(anyString());
         Assertions.assertEquals(HttpStatus.NO_CONTENT, responseEntity.getStatusCode());
     }
 
     @Test
-    void deleteReservationNotFound() {
-        ConfirmedReservation confirmedReservation = new ConfirmedReservation().id(BOOKING_ID);
+    void deleteReservationIfMatch() {
+        when(reservationService.deleteReservation(BOOKING_ID, 2L)).thenThrow(new PreconditionFailedException("Reservation was modified, its version is now 3", 3));
 
-        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.empty());
+        ResponseEntity<ErrorMessage> responseEntity = restTemplate.exchange(RequestEntity.delete(URI.create("/reservations/" + BOOKING_ID))
+                .header(HttpHeaders.IF_MATCH, "\"2\"").build(), ErrorMessage.class);
 
-        ResponseEntity<Object> responseEntity = restTemplate.exchange("/reservations/" + BOOKING_ID, HttpMethod.DELETE, null, Object.class);
+        Assertions.assertEquals(HttpStatus.PRECONDITION_FAILED, responseEntity.getStatusCode());
+        Assertions.assertEquals("\"3\"", responseEntity.getHeaders().getETag());
+        Assertions.assertNotNull(responseEntity.getBody());
+        Assertions.assertEquals("Reservation was modified, its version is now 3", responseEntity.getBody().getMessage());
+    }
 
-        verify(reservationService, never()).deleteReservation(confirmedReservation);
+    @Test
+    void deleteReservationNotFound() {
+        when(reservationService.deleteReservation(BOOKING_ID, null)).thenReturn(Optional.empty());
+
+        ResponseEntity<Object> responseEntity = restTemplate.exchange("/reservations/" + BOOKING_ID, HttpMethod.DELETE, null, Object.class);
 
         Assertions.assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
     }
@@ -149,38 +281,48 @@ class ReservationsControllerTest {
     @Test
     void updateReservation() {
         Reservation reservation = (Reservation) new Reservation().startDate(now).endDate(now.plusDays(1));
-        ConfirmedReservation confirmedReservation = new ConfirmedReservation().id(BOOKING_ID);
+        ConfirmedReservation confirmedReservation = (ConfirmedReservation) new ConfirmedReservation().id(BOOKING_ID).startDate(now).endDate(now.plusDays(1));
 
-        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.of(confirmedReservation));
+        when(reservationService.updateReservation(eq(BOOKING_ID), any(ReservationDates.class), eq(1L))).thenReturn(Optional.of(new VersionedReservation(confirmedReservation, 2)));
 
-        ResponseEntity<Object> responseEntity = restTemplate.exchange(RequestEntity.patch(URI.create("/reservations/" + BOOKING_ID)).body(reservation), Object.class);
-
-        verify(reservationService).updateReservation(any(ConfirmedReservation.class), any(ReservationDates.class));
+        ResponseEntity<ConfirmedReservation> responseEntity = restTemplate.exchange(RequestEntity.patch(URI.create("/reservations/" + BOOKING_ID))
+                .header(HttpHeaders.IF_MATCH, "\"1\"").body(reservation), ConfirmedReservation.class);
 
-        Assertions.assertEquals(HttpStatus.NO_CONTENT, responseEntity.getStatusCode());
+        verify(reservationService, never()).getReservation(anyString());
+        Assertions.assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        Assertions.assertEquals("\"2\"", responseEntity.getHeaders().getETag());
+        Assertions.assertEquals(confirmedReservation, responseEntity.getBody());
     }
 
     @Test
     void updateReservationNotFound() {
         Reservation reservation = (Reservation) new Reservation().startDate(now).endDate(now.plusDays(1));
-        ConfirmedReservation confirmedReservation = new ConfirmedReservation().id(BOOKING_ID);
 
-        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.empty());
+        when(reservationService.updateReservation(eq(BOOKING_ID), any(ReservationDates.class), isNull())).thenReturn(Optional.empty());
 
         ResponseEntity<Object> responseEntity = restTemplate.exchange(RequestEntity.patch(URI.create("/reservations/" + BOOKING_ID)).body(reservation), Object.class);
 
-        verify(reservationService, never()).updateReservation(confirmedReservation, reservation);
-
         Assertions.assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
     }
 
+    @Test
+    void updateReservationBadIfMatch() {
+        Reservation reservation = (Reservation) new Reservation().startDate(now).endDate(now.plusDays(1));
+
+        ResponseEntity<ErrorMessage> responseEntity = restTemplate.exchange(RequestEntity.patch(URI.create("/reservations/" + BOOKING_ID))
+                .header(HttpHeaders.IF_MATCH, "W/\"1\"").body(reservation), ErrorMessage.class);
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        Assertions.assertNotNull(responseEntity.getBody());
+        Assertions.assertEquals("Header 'If-Match' has to be the ETag of the reservation", responseEntity.getBody().getMessage());
+        verify(reservationService, never()).updateReservation(anyString(), any(ReservationDates.class), any());
+    }
+
     @Test
     void updateReservationBadRequest() {
         Reservation reservation = (Reservation) new Reservation().startDate(now).endDate(now.plusDays(1));
-        ConfirmedReservation confirmedReservation = new ConfirmedReservation().id(BOOKING_ID);
 
-        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.of(confirmedReservation));
-        doThrow(new ValidationException("Nope")).when(reservationService).updateReservation(eq(confirmedReservation), any(ReservationDates.class));
+        when(reservationService.updateReservation(eq(BOOKING_ID), any(ReservationDates.class), isNull())).thenThrow(new ValidationException("Nope"));
 
         ResponseEntity<ErrorMessage> responseEntity = restTemplate.exchange(RequestEntity.patch(URI.create("/reservations/" + BOOKING_ID)).body(reservation), ErrorMessage.class);
 
@@ -192,9 +334,6 @@ class ReservationsControllerTest {
     @Test
     void updateReservationBadRequestMissingField() {
         Reservation reservation = (Reservation) new Reservation().startDate(now);
-        ConfirmedReservation confirmedReservation = new ConfirmedReservation().id(BOOKING_ID);
-
-        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Optional.of(confirmedReservation));
 
         ResponseEntity<ErrorMessage> responseEntity = restTemplate.exchange(RequestEntity.patch(URI.create("/reservations/" + BOOKING_ID)).body(reservation), ErrorMessage.class);
 
@@ -203,6 +342,75 @@ class ReservationsControllerTest {
         Assertions.assertEquals("Field 'endDate' is undefined", responseEntity.getBody().getMessage());
     }
 
+    @Test
+    void prometheus() {
+        ResponseEntity<String> responseEntity = restTemplate.getForEntity("/actuator/prometheus", String.class);
+
+        Assertions.assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        Assertions.assertNotNull(responseEntity.getBody());
+        Assertions.assertTrue(responseEntity.getBody().contains("reservation_sql_seconds_count{application=\"new-island\",statement=\"insertReservation\",}"));
+        Assertions.assertTrue(responseEntity.getBody().contains("hikaricp_connections_max{application=\"new-island\",pool=\"write\",}"));
+    }
+
+    @Test
+    void createHold() {
+        OffsetDateTime expiresAt = OffsetDateTime.now().plusMinutes(10);
+        when(reservationService.holdReservation(any(Reservation.class), eq(Duration.ofMinutes(10)))).thenReturn((Hold) new Hold().expiresAt(expiresAt).id(BOOKING_ID));
+
+        Reservation reservation = (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now).endDate(now.plusDays(1));
+
+        ResponseEntity<Hold> responseEntity = restTemplate.postForEntity("/holds", reservation, Hold.class);
+
+        Assertions.assertEquals(HttpStatus.CREATED, responseEntity.getStatusCode());
+        Assertions.assertNotNull(responseEntity.getBody());
+        Assertions.assertEquals(BOOKING_ID, responseEntity.getBody().getId());
+        Assertions.assertEquals(expiresAt.toInstant(), responseEntity.getBody().getExpiresAt().toInstant());
+    }
+
+    @Test
+    void createHoldBadRequestMissingField() {
+        Reservation reservation = (Reservation) new Reservation().fullName(FULL_NAME).startDate(now).endDate(now.plusDays(1));
+
+        ResponseEntity<ErrorMessage> responseEntity = restTemplate.postForEntity("/holds", reservation, ErrorMessage.class);
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        verify(reservationService, never()).holdReservation(any(), any());
+    }
+
+    @Test
+    void confirmHold() {
+        when(reservationService.confirmHold(BOOKING_ID)).thenReturn(Optional.of(new ConfirmedReservation().id(BOOKING_ID)));
+
+        ResponseEntity<ConfirmedReservation> responseEntity = restTemplate.postForEntity("/holds/" + BOOKING_ID + "/confirm", null, ConfirmedReservation.class);
+
+        Assertions.assertEquals(HttpStatus.CREATED, responseEntity.getStatusCode());
+        Assertions.assertEquals(BOOKING_ID, Objects.requireNonNull(responseEntity.getBody()).getId());
+    }
+
+    @Test
+    void confirmHoldNotFound() {
+        when(reservationService.confirmHold(BOOKING_ID)).thenReturn(Optional.empty());
+
+        ResponseEntity<Object> responseEntity = restTemplate.postForEntity("/holds/" + BOOKING_ID + "/confirm", null, Object.class);
+
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
+    }
+
+    @Test
+    void deleteHold() {
+        when(reservationService.releaseHold(BOOKING_ID)).thenReturn(true);
+
+        ResponseEntity<Object> responseEntity = restTemplate.exchange(RequestEntity.delete(URI.create("/holds/" + BOOKING_ID)).build(), Object.class);
+        ResponseEntity<Object> notFoundResponseEntity = restTemplate.exchange(RequestEntity.delete(URI.create("/holds/other")).build(), Object.class);
+
+        Assertions.assertEquals(HttpStatus.NO_CONTENT, responseEntity.getStatusCode());
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, notFoundResponseEntity.getStatusCode());
+    }
+
+    private double count(String name, String operation) {
+        return meterRegistry.counter(name, "operation", operation).count();
+    }
+
     // Helper class to simplify generics usage
     static class ConfirmedReservationList extends ArrayList<ConfirmedReservation> {
     }
@@ -1,6 +1,11 @@
 package com.remicartier.newisland.controller;
 
+import com.remicartier.model.Site;
+import com.remicartier.model.VacancyDelta;
+import com.remicartier.model.VacancyRange;
 import com.remicartier.newisland.service.ReservationService;
+import com.remicartier.newisland.service.VacancyChangedEvent;
+import com.remicartier.newisland.service.VacancyWindow;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -8,17 +13,31 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.Clock;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 /**
  * Created by remicartier on 2020-07-19 2:17 p.m.
@@ -27,6 +46,7 @@ import static org.mockito.Mockito.when;
 @ExtendWith(SpringExtension.class)
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 class VacancyControllerTest {
+    private final static String ETAG = "\"1-2020-08-01-2020-09-01\"";
     private final LocalDate now = LocalDate.now(Clock.systemUTC());
 
     @MockBean
@@ -35,25 +55,143 @@ class VacancyControllerTest {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @LocalServerPort
+    private int port;
+
     @Test
     void getVacancy() {
-        when(reservationService.getVacancy(null, null)).thenReturn(Collections.singletonList(now));
+        when(reservationService.getVacancyETag(null, null, null)).thenReturn(ETAG);
+        when(reservationService.getVacancy(null, null, null)).thenReturn(Collections.singletonList(now));
 
         ResponseEntity<LocalDateList> responseEntity = restTemplate.getForEntity("/vacancy", LocalDateList.class);
 
         Assertions.assertEquals(1, Objects.requireNonNull(responseEntity.getBody()).size());
         Assertions.assertEquals(now, Objects.requireNonNull(responseEntity.getBody()).get(0));
+        Assertions.assertEquals(ETAG, responseEntity.getHeaders().getETag());
+    }
+
+    @Test
+    void getVacancyNotModified() {
+        when(reservationService.getVacancyETag(null, null, null)).thenReturn(ETAG);
+
+        ResponseEntity<LocalDateList> responseEntity = restTemplate.exchange(RequestEntity.get(URI.create("/vacancy")).header(HttpHeaders.IF_NONE_MATCH, ETAG).build(), LocalDateList.class);
+
+        Assertions.assertEquals(HttpStatus.NOT_MODIFIED, responseEntity.getStatusCode());
+        Assertions.assertEquals(ETAG, responseEntity.getHeaders().getETag());
+        Assertions.assertEquals(Collections.singletonList(HttpHeaders.ACCEPT), responseEntity.getHeaders().getVary());
+        verify(reservationService, never()).getVacancy(any(), any(), any());
     }
 
     @Test
     void getVacancyAnyException() {
-        when(reservationService.getVacancy(null, null)).thenThrow(new RuntimeException("Nope"));
+        when(reservationService.getVacancyETag(null, null, null)).thenReturn(ETAG);
+        when(reservationService.getVacancy(null, null, null)).thenThrow(new RuntimeException("Nope"));
 
         ResponseEntity<LocalDateList> responseEntity = restTemplate.getForEntity("/vacancy", LocalDateList.class);
 
         Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, responseEntity.getStatusCode());
     }
 
+    @Test
+    void getVacancyForSite() {
+        when(reservationService.getVacancyETag(2L, null, null)).thenReturn(ETAG);
+        when(reservationService.getVacancy(2L, null, null)).thenReturn(Collections.singletonList(now));
+
+        ResponseEntity<LocalDateList> responseEntity = restTemplate.getForEntity("/vacancy?siteId=2", LocalDateList.class);
+
+        Assertions.assertEquals(Collections.singletonList(now), responseEntity.getBody());
+    }
+
+    @Test
+    void getVacancyRanges() {
+        when(reservationService.getVacancyETag(null, null, null)).thenReturn(ETAG);
+        when(reservationService.getVacancy(null, null, null)).thenReturn(Arrays.asList(now, now.plusDays(1), now.plusDays(3)));
+
+        ResponseEntity<VacancyRange[]> responseEntity = restTemplate.exchange(RequestEntity.get(URI.create("/vacancy"))
+                .header(HttpHeaders.ACCEPT, VacancyController.VACANCY_RANGES_VALUE).build(), VacancyRange[].class);
+
+        Assertions.assertArrayEquals(new VacancyRange[]{new VacancyRange().startDate(now).endDate(now.plusDays(2)),
+                new VacancyRange().startDate(now.plusDays(3)).endDate(now.plusDays(4))}, responseEntity.getBody());
+        Assertions.assertEquals("\"1-2020-08-01-2020-09-01-ranges\"", responseEntity.getHeaders().getETag());
+        Assertions.assertEquals(Collections.singletonList(HttpHeaders.ACCEPT), responseEntity.getHeaders().getVary());
+    }
+
+    @Test
+    void getVacancyBitmask() {
+        when(reservationService.getVacancyETag(null, null, null)).thenReturn(ETAG);
+        when(reservationService.getVacancyWindow(null, null, null)).thenReturn(new VacancyWindow(now, now.plusDays(9), null));
+        when(reservationService.getVacancy(null, null, null)).thenReturn(Arrays.asList(now, now.plusDays(1), now.plusDays(9)));
+
+        ResponseEntity<byte[]> responseEntity = restTemplate.exchange(RequestEntity.get(URI.create("/vacancy"))
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_OCTET_STREAM_VALUE).build(), byte[].class);
+
+        Assertions.assertArrayEquals(new byte[]{0b0000_0011, 0b0000_0010}, responseEntity.getBody());
+        Assertions.assertEquals(now.toString(), responseEntity.getHeaders().getFirst(VacancyController.VACANCY_START_DATE));
+        Assertions.assertEquals("10", responseEntity.getHeaders().getFirst(VacancyController.VACANCY_DAYS));
+        Assertions.assertEquals("\"1-2020-08-01-2020-09-01-bitmask\"", responseEntity.getHeaders().getETag());
+    }
+
+    @Test
+    void getVacancyBitmaskNotModified() {
+        when(reservationService.getVacancyETag(null, null, null)).thenReturn(ETAG);
+
+        ResponseEntity<byte[]> responseEntity = restTemplate.exchange(RequestEntity.get(URI.create("/vacancy"))
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"1-2020-08-01-2020-09-01-bitmask\"").build(), byte[].class);
+
+        Assertions.assertEquals(HttpStatus.NOT_MODIFIED, responseEntity.getStatusCode());
+        Assertions.assertEquals(Collections.singletonList(HttpHeaders.ACCEPT), responseEntity.getHeaders().getVary());
+        verify(reservationService, never()).getVacancy(any(), any(), any());
+    }
+
+    @Test
+    void getVacantSites() {
+        when(reservationService.getVacantSites(now, now.plusDays(2))).thenReturn(Collections.singletonList(new Site().id(2L).name("Site 2")));
+
+        ResponseEntity<Site[]> responseEntity = restTemplate.getForEntity("/vacancy/sites?startDate=" + now + "&endDate=" + now.plusDays(2), Site[].class);
+
+        Assertions.assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        Assertions.assertEquals(1, Objects.requireNonNull(responseEntity.getBody()).length);
+        Assertions.assertEquals(2L, responseEntity.getBody()[0].getId());
+    }
+
+    @Test
+    void streamVacancy() throws IOException {
+        when(reservationService.getVacancy(2L, null, null)).thenReturn(Collections.singletonList(now));
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/new-island/vacancy/stream?siteId=2").openConnection();
+        connection.setReadTimeout(10000);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            Assertions.assertEquals(Arrays.asList("event:vacancy", "data:[\"" + now + "\"]"), readEvent(reader));
+
+            // Only the delta of site 2 is for this subscriber
+            eventPublisher.publishEvent(VacancyChangedEvent.changed(7, Arrays.asList(
+                    new VacancyDelta().available(Collections.singletonList(now)).unavailable(Collections.emptyList()),
+                    new VacancyDelta().siteId(2L).available(Collections.emptyList()).unavailable(Collections.singletonList(now)))));
+
+            Assertions.assertEquals(Arrays.asList("id:7", "event:delta", "data:{\"siteId\":2,\"available\":[],\"unavailable\":[\"" + now + "\"]}"),
+                    readEvent(reader));
+
+            // Told to start over
+            eventPublisher.publishEvent(VacancyChangedEvent.reset(8));
+
+            Assertions.assertNull(reader.readLine());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static List<String> readEvent(BufferedReader reader) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
     //Helper class to simplify generics usage
     static class LocalDateList extends ArrayList<LocalDate> {
     }
@@ -0,0 +1,47 @@
+package com.remicartier.newisland.controller;
+
+import com.remicartier.model.VacancyRange;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class VacancyFormatsTest {
+    private final LocalDate start = LocalDate.of(2020, 8, 1);
+
+    @Test
+    void toRanges() {
+        List<VacancyRange> ranges = VacancyFormats.toRanges(Arrays.asList(day(0), day(1), day(2), day(6), day(11)));
+
+        Assertions.assertEquals(Arrays.asList(range(0, 3), range(6, 7), range(11, 12)), ranges);
+    }
+
+    @Test
+    void toRangesEmpty() {
+        Assertions.assertTrue(VacancyFormats.toRanges(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    void toBitmask() {
+        byte[] bitmask = VacancyFormats.toBitmask(Arrays.asList(day(0), day(1), day(2), day(6), day(11), day(31)), start, 31);
+
+        // Day 31 is out of the 31 days
+        Assertions.assertArrayEquals(new byte[]{(byte) 0b0100_0111, 0b0000_1000, 0, 0}, bitmask);
+    }
+
+    @Test
+    void toBitmaskNoDays() {
+        Assertions.assertEquals(0, VacancyFormats.toBitmask(Collections.singletonList(day(0)), start, 0).length);
+    }
+
+    private LocalDate day(int day) {
+        return start.plusDays(day);
+    }
+
+    private VacancyRange range(int startDay, int endDay) {
+        return new VacancyRange().startDate(day(startDay)).endDate(day(endDay));
+    }
+}
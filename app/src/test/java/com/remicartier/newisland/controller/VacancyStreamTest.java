@@ -0,0 +1,67 @@
+package com.remicartier.newisland.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.remicartier.model.VacancyDelta;
+import com.remicartier.newisland.service.VacancyChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collections;
+
+class VacancyStreamTest {
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+
+    private VacancyStream vacancyStream;
+
+    @AfterEach
+    void tearDown() {
+        vacancyStream.stop();
+    }
+
+    @Test
+    void onVacancyChanged() {
+        vacancyStream = vacancyStream(100);
+        vacancyStream.subscribe(null, () -> Collections.singletonList(now));
+        vacancyStream.subscribe(1L, () -> Collections.singletonList(now));
+
+        vacancyStream.onVacancyChanged(VacancyChangedEvent.changed(1, Collections.singletonList(delta())));
+        vacancyStream.heartbeat();
+
+        Assertions.assertEquals(2, vacancyStream.getSubscriberCount());
+    }
+
+    @Test
+    void onVacancyChangedSubscriberBehind() {
+        vacancyStream = vacancyStream(0);
+        vacancyStream.subscribe(null, () -> Collections.singletonList(now));
+        vacancyStream.subscribe(1L, () -> Collections.singletonList(now));
+
+        vacancyStream.onVacancyChanged(VacancyChangedEvent.changed(1, Collections.singletonList(delta())));
+
+        // Dropped the one the delta was for, the other one had nothing to send
+        Assertions.assertEquals(1, vacancyStream.getSubscriberCount());
+    }
+
+    @Test
+    void onVacancyChangedReset() {
+        vacancyStream = vacancyStream(100);
+        vacancyStream.subscribe(null, () -> Collections.singletonList(now));
+
+        vacancyStream.onVacancyChanged(VacancyChangedEvent.reset(1));
+
+        Assertions.assertEquals(0, vacancyStream.getSubscriberCount());
+    }
+
+    private VacancyStream vacancyStream(int maxQueued) {
+        return new VacancyStream(new ObjectMapper(), new SimpleMeterRegistry(), Duration.ofMinutes(1), 1, maxQueued);
+    }
+
+    private VacancyDelta delta() {
+        return new VacancyDelta().available(Collections.singletonList(now)).unavailable(Collections.emptyList());
+    }
+}
@@ -0,0 +1,113 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Reservation;
+import com.remicartier.model.ReservationResult;
+import com.remicartier.newisland.exception.ConflictException;
+import com.remicartier.newisland.exception.ValidationException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+class BookingPipelineTest {
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+    private final ReservationService reservationService = mock(ReservationService.class);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private BookingPipeline bookingPipeline;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        bookingPipeline.stop();
+    }
+
+    @Test
+    void bookDisabled() {
+        bookingPipeline = pipeline(false, Duration.ofMillis(50));
+        ConfirmedReservation confirmedReservation = new ConfirmedReservation().id("1");
+        when(reservationService.bookReservation(any(Reservation.class))).thenReturn(confirmedReservation);
+
+        Assertions.assertSame(confirmedReservation, bookingPipeline.book(reservation("a")));
+        verify(reservationService, never()).bookReservations(anyList(), any());
+    }
+
+    @Test
+    void book() throws Exception {
+        bookingPipeline = pipeline(true, Duration.ofSeconds(30));
+        when(reservationService.bookReservations(anyList(), any())).thenAnswer(invocation -> {
+            List<Reservation> reservations = invocation.getArgument(0);
+            return reservations.stream().map(reservation -> {
+                switch (reservation.getEmail()) {
+                    case "conflict":
+                        return new ReservationResult().status(ReservationResult.StatusEnum.CONFLICT).message("Taken");
+                    case "invalid":
+                        return new ReservationResult().status(ReservationResult.StatusEnum.INVALID).message("Invalid");
+                    default:
+                        return new ReservationResult().status(ReservationResult.StatusEnum.CONFIRMED)
+                                .reservation(new ConfirmedReservation().id(reservation.getEmail()));
+                }
+            }).collect(Collectors.toList());
+        });
+
+        List<CompletableFuture<ConfirmedReservation>> bookings = new ArrayList<>();
+        for (String email : new String[]{"a", "conflict", "invalid"}) {
+            bookings.add(CompletableFuture.supplyAsync(() -> bookingPipeline.book(reservation(email))));
+        }
+
+        Assertions.assertEquals("a", bookings.get(0).get(10, TimeUnit.SECONDS).getId());
+        Assertions.assertTrue(Assertions.assertThrows(Exception.class, () -> bookings.get(1).get(10, TimeUnit.SECONDS)).getCause() instanceof ConflictException);
+        Exception invalid = Assertions.assertThrows(Exception.class, () -> bookings.get(2).get(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(invalid.getCause() instanceof ValidationException && !(invalid.getCause() instanceof ConflictException));
+        // Committed as soon as the batch is full, long before maxWait
+        verify(reservationService).bookReservations(anyList(), any());
+        verify(reservationService, never()).bookReservation(any());
+        Assertions.assertEquals(1, meterRegistry.get(BookingPipeline.BATCH_SUMMARY).summary().count());
+        Assertions.assertEquals(3, meterRegistry.get(BookingPipeline.BATCH_SUMMARY).summary().totalAmount());
+        Assertions.assertEquals(3, meterRegistry.get(BookingPipeline.QUEUE_TIMER).timer().count());
+    }
+
+    @Test
+    void bookAlone() {
+        bookingPipeline = pipeline(true, Duration.ofMillis(50));
+        when(reservationService.bookReservations(anyList(), any())).thenReturn(List.of(new ReservationResult()
+                .status(ReservationResult.StatusEnum.CONFIRMED).reservation(new ConfirmedReservation().id("1"))));
+
+        // Committed on its own once maxWait is over
+        Assertions.assertEquals("1", bookingPipeline.book(reservation("a")).getId());
+        Assertions.assertEquals(1, meterRegistry.get(BookingPipeline.BATCH_SUMMARY).summary().totalAmount());
+    }
+
+    @Test
+    void bookFailed() {
+        bookingPipeline = pipeline(true, Duration.ofMillis(50));
+        when(reservationService.bookReservations(anyList(), any())).thenThrow(new QueryTimeoutException("Too slow"));
+
+        Assertions.assertThrows(QueryTimeoutException.class, () -> bookingPipeline.book(reservation("a")));
+    }
+
+    private BookingPipeline pipeline(boolean enabled, Duration maxWait) {
+        BookingPipeline pipeline = new BookingPipeline(reservationService, meterRegistry, enabled, maxWait, 3, 100);
+        pipeline.start();
+        return pipeline;
+    }
+
+    private Reservation reservation(String email) {
+        return (Reservation) new Reservation().email(email).fullName("John Doe").startDate(now.plusDays(1)).endDate(now.plusDays(2));
+    }
+}
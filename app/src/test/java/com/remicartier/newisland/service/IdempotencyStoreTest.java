@@ -0,0 +1,139 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Reservation;
+import com.remicartier.newisland.exception.ConflictException;
+import com.remicartier.newisland.exception.InProgressException;
+import com.remicartier.newisland.exception.ValidationException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class IdempotencyStoreTest {
+    private final static String KEY = "8e03978e-40d5-43e8-bc93-6894a57f9324";
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+    private final IdempotencyStore idempotencyStore = new IdempotencyStore(10, Duration.ofHours(1), Duration.ofSeconds(10));
+    private final AtomicInteger bookings = new AtomicInteger();
+
+    @Test
+    void book() {
+        IdempotencyStore.Outcome outcome = idempotencyStore.book(KEY, reservation(), this::confirm);
+        IdempotencyStore.Outcome retryOutcome = idempotencyStore.book(KEY, reservation(), this::confirm);
+
+        Assertions.assertFalse(outcome.isReplayed());
+        Assertions.assertTrue(retryOutcome.isReplayed());
+        Assertions.assertSame(outcome.getConfirmedReservation(), retryOutcome.getConfirmedReservation());
+        Assertions.assertEquals(1, bookings.get());
+    }
+
+    @Test
+    void bookOtherKey() {
+        idempotencyStore.book(KEY, reservation(), this::confirm);
+        IdempotencyStore.Outcome outcome = idempotencyStore.book("other", reservation(), this::confirm);
+
+        Assertions.assertFalse(outcome.isReplayed());
+        Assertions.assertEquals(2, bookings.get());
+    }
+
+    @Test
+    void bookDifferentReservation() {
+        idempotencyStore.book(KEY, reservation(), this::confirm);
+
+        Assertions.assertThrows(ValidationException.class, () -> idempotencyStore.book(KEY, (Reservation) reservation().endDate(now.plusDays(3)), this::confirm));
+        Assertions.assertEquals(1, bookings.get());
+    }
+
+    @Test
+    void bookFailed() {
+        Assertions.assertThrows(ConflictException.class, () -> idempotencyStore.book(KEY, reservation(), () -> {
+            throw new ConflictException("Taken");
+        }));
+
+        // Not kept, the retry books again
+        IdempotencyStore.Outcome outcome = idempotencyStore.book(KEY, reservation(), this::confirm);
+
+        Assertions.assertFalse(outcome.isReplayed());
+        Assertions.assertEquals(1, bookings.get());
+    }
+
+    @Test
+    void bookWhileInFlight() throws Exception {
+        CountDownLatch booking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<IdempotencyStore.Outcome> original = CompletableFuture.supplyAsync(() -> idempotencyStore.book(KEY, reservation(), () -> {
+            booking.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException x) {
+                throw new IllegalStateException(x);
+            }
+            return confirm();
+        }));
+        Assertions.assertTrue(booking.await(10, TimeUnit.SECONDS));
+        CompletableFuture<IdempotencyStore.Outcome> retry = CompletableFuture.supplyAsync(() -> idempotencyStore.book(KEY, reservation(), this::confirm));
+
+        Assertions.assertFalse(retry.isDone());
+        release.countDown();
+
+        Assertions.assertTrue(retry.get(10, TimeUnit.SECONDS).isReplayed());
+        Assertions.assertSame(original.get(10, TimeUnit.SECONDS).getConfirmedReservation(), retry.get().getConfirmedReservation());
+        Assertions.assertEquals(1, bookings.get());
+    }
+
+    @Test
+    void bookFailedWithError() {
+        Assertions.assertThrows(AssertionError.class, () -> idempotencyStore.book(KEY, reservation(), () -> {
+            throw new AssertionError("Boom");
+        }));
+
+        // Not kept either
+        IdempotencyStore.Outcome outcome = idempotencyStore.book(KEY, reservation(), this::confirm);
+
+        Assertions.assertFalse(outcome.isReplayed());
+        Assertions.assertEquals(1, bookings.get());
+    }
+
+    @Test
+    void bookWhileInFlightTooLong() throws Exception {
+        IdempotencyStore idempotencyStore = new IdempotencyStore(10, Duration.ofHours(1), Duration.ofMillis(10));
+        CountDownLatch booking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<IdempotencyStore.Outcome> original = CompletableFuture.supplyAsync(() -> idempotencyStore.book(KEY, reservation(), () -> {
+            booking.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException x) {
+                throw new IllegalStateException(x);
+            }
+            return confirm();
+        }));
+        Assertions.assertTrue(booking.await(10, TimeUnit.SECONDS));
+
+        InProgressException x = Assertions.assertThrows(InProgressException.class, () -> idempotencyStore.book(KEY, reservation(), this::confirm));
+        Assertions.assertTrue(x.getRetryAfter().getSeconds() > 0);
+        release.countDown();
+        Assertions.assertFalse(original.get(10, TimeUnit.SECONDS).isReplayed());
+        Assertions.assertEquals(1, bookings.get());
+    }
+
+    @Test
+    void bookKeyTooLong() {
+        Assertions.assertThrows(ValidationException.class, () -> idempotencyStore.book("k".repeat(IdempotencyStore.MAX_KEY_LENGTH + 1), reservation(), this::confirm));
+        Assertions.assertEquals(0, bookings.get());
+    }
+
+    private Reservation reservation() {
+        return (Reservation) new Reservation().email("user@domain.com").fullName("John Doe").startDate(now.plusDays(1)).endDate(now.plusDays(2));
+    }
+
+    private ConfirmedReservation confirm() {
+        return new ConfirmedReservation().id(Integer.toString(bookings.incrementAndGet()));
+    }
+}
@@ -0,0 +1,243 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Reservation;
+import com.remicartier.model.Site;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+class OccupancyCalendarTest {
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+
+    private JdbcTemplate jdbcTemplate;
+    private ApplicationEventPublisher eventPublisher;
+    private OccupancyCalendar occupancyCalendar;
+
+    @BeforeEach
+    void setup() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        occupancyCalendar = new OccupancyCalendar(jdbcTemplate, eventPublisher);
+        when(jdbcTemplate.query(eq(ReservationQueries.SITES.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Collections.singletonList(new Site().id(1L).name("Main")));
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Collections.singletonList(new Reservation().siteId(1L).startDate(now.plusDays(2)).endDate(now.plusDays(3))));
+    }
+
+    @Test
+    void getVacancy() {
+        List<LocalDate> vacancy = occupancyCalendar.getVacancy(now.plusDays(1), now.plusDays(4));
+
+        Assertions.assertEquals(Arrays.asList(now.plusDays(1), now.plusDays(4)), vacancy);
+    }
+
+    @Test
+    void getVacancyEmptyWindow() {
+        Assertions.assertTrue(occupancyCalendar.getVacancy(now.plusDays(4), now.plusDays(1)).isEmpty());
+    }
+
+    @Test
+    void onReservationChangedBeforeLoad() {
+        occupancyCalendar.onReservationChanged(ReservationChangedEvent.booked(reservation(5, 6)));
+
+        // The change is expected to be read from the database by the first load
+        Assertions.assertEquals(Arrays.asList(now.plusDays(5), now.plusDays(6)), occupancyCalendar.getVacancy(now.plusDays(5), now.plusDays(6)));
+    }
+
+    @Test
+    void onReservationChangedBooked() {
+        occupancyCalendar.getVacancy(now, now);
+
+        occupancyCalendar.onReservationChanged(ReservationChangedEvent.booked(reservation(5, 6)));
+
+        Assertions.assertEquals(Arrays.asList(now.plusDays(4), now.plusDays(7)), occupancyCalendar.getVacancy(now.plusDays(4), now.plusDays(7)));
+        verify(jdbcTemplate, times(1)).query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any());
+    }
+
+    @Test
+    void onReservationChangedAdjacentDeleted() {
+        ConfirmedReservation adjacent = reservation(3, 4);
+        occupancyCalendar.getVacancy(now, now);
+        occupancyCalendar.onReservationChanged(ReservationChangedEvent.booked(adjacent));
+
+        occupancyCalendar.onReservationChanged(ReservationChangedEvent.deleted(adjacent));
+
+        // Day 3 is still the check-out day of the loaded reservation
+        Assertions.assertEquals(Arrays.asList(now.plusDays(1), now.plusDays(4)), occupancyCalendar.getVacancy(now.plusDays(1), now.plusDays(4)));
+    }
+
+    @Test
+    void onReservationChangedUpdated() {
+        ConfirmedReservation previous = reservation(5, 6);
+        occupancyCalendar.getVacancy(now, now);
+        occupancyCalendar.onReservationChanged(ReservationChangedEvent.booked(previous));
+
+        occupancyCalendar.onReservationChanged(new ReservationChangedEvent(previous, reservation(7, 8)));
+
+        Assertions.assertEquals(Arrays.asList(now.plusDays(5), now.plusDays(6), now.plusDays(9)), occupancyCalendar.getVacancy(now.plusDays(5), now.plusDays(9)));
+    }
+
+    @Test
+    void reload() {
+        occupancyCalendar.getVacancy(now, now);
+        occupancyCalendar.onReservationChanged(ReservationChangedEvent.booked(reservation(5, 6)));
+
+        occupancyCalendar.reload();
+
+        Assertions.assertEquals(Arrays.asList(now.plusDays(5), now.plusDays(6)), occupancyCalendar.getVacancy(now.plusDays(5), now.plusDays(6)));
+        verify(jdbcTemplate, times(2)).query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any());
+    }
+
+    @Test
+    void refresh() {
+        occupancyCalendar.getVacancy(now, now);
+        when(jdbcTemplate.query(eq(ReservationQueries.SITES.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Arrays.asList(new Site().id(1L).name("Main"), new Site().id(2L).name("New")));
+        // Booked while the refresh reads the database, which doesn't return it
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any())).thenAnswer(invocation -> {
+            occupancyCalendar.onReservationChanged(ReservationChangedEvent.booked(reservation(5, 6)));
+            return Collections.singletonList(new Reservation().siteId(1L).startDate(now.plusDays(2)).endDate(now.plusDays(3)));
+        });
+
+        occupancyCalendar.refresh();
+
+        Assertions.assertTrue(occupancyCalendar.hasSite(2L));
+        Assertions.assertTrue(occupancyCalendar.isTaken(1L, now.plusDays(5), now.plusDays(6), null));
+        Assertions.assertTrue(occupancyCalendar.isTaken(1L, now.plusDays(2), now.plusDays(3), null));
+        Assertions.assertFalse(occupancyCalendar.isTaken(2L, now.plusDays(5), now.plusDays(6), null));
+        verify(eventPublisher).publishEvent(any(OccupancyRefreshedEvent.class));
+    }
+
+    @Test
+    void refreshUnchanged() {
+        occupancyCalendar.getVacancy(now, now);
+
+        occupancyCalendar.refresh();
+
+        verify(jdbcTemplate, times(2)).query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void refreshBeforeLoad() {
+        occupancyCalendar.refresh();
+
+        verify(jdbcTemplate, never()).query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any());
+    }
+
+    @Test
+    void onReservationChangedUnknownSite() {
+        occupancyCalendar.getVacancy(now, now);
+        when(jdbcTemplate.query(eq(ReservationQueries.SITES.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Arrays.asList(new Site().id(1L).name("Main"), new Site().id(2L).name("New")));
+
+        occupancyCalendar.onReservationChanged(ReservationChangedEvent.booked((ConfirmedReservation) new ConfirmedReservation().siteId(2L).startDate(now.plusDays(5)).endDate(now.plusDays(6))));
+
+        // Reloaded with the new site, which the (stubbed) database doesn't have a reservation on
+        Assertions.assertTrue(occupancyCalendar.hasSite(2L));
+        Assertions.assertEquals(Arrays.asList(now.plusDays(5), now.plusDays(6)), occupancyCalendar.getVacancy(2L, now.plusDays(5), now.plusDays(6)));
+        verify(jdbcTemplate, times(2)).query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any());
+    }
+
+    @Test
+    void replaceDays() {
+        occupancyCalendar.getVacancy(now, now);
+        // Read from the database after another instance moved the reservation from day 2 to day 5
+        SiteOccupancy fromDatabase = new SiteOccupancy(Collections.singletonList(new Site().id(1L).name("Main")));
+        fromDatabase.mark(reservation(5, 6), true);
+
+        occupancyCalendar.replaceDays(fromDatabase, now.plusDays(2), now.plusDays(6));
+
+        Assertions.assertFalse(occupancyCalendar.isTaken(1L, now.plusDays(2), now.plusDays(3), null));
+        Assertions.assertTrue(occupancyCalendar.isTaken(1L, now.plusDays(5), now.plusDays(6), null));
+        Assertions.assertEquals(Arrays.asList(now.plusDays(2), now.plusDays(3), now.plusDays(4)), occupancyCalendar.getVacancy(now.plusDays(2), now.plusDays(6)));
+        verify(eventPublisher).publishEvent(any(OccupancyRefreshedEvent.class));
+
+        occupancyCalendar.replaceDays(fromDatabase, now.plusDays(2), now.plusDays(6));
+
+        // Nothing changed the second time
+        verify(eventPublisher, times(1)).publishEvent(any(OccupancyRefreshedEvent.class));
+    }
+
+    @Test
+    void replaceDaysDuringRefresh() {
+        occupancyCalendar.getVacancy(now, now);
+        SiteOccupancy fromDatabase = new SiteOccupancy(Collections.singletonList(new Site().id(1L).name("Main")));
+        // Released while the refresh reads the database, which still returns it
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any())).thenAnswer(invocation -> {
+            occupancyCalendar.replaceDays(fromDatabase, now.plusDays(2), now.plusDays(3));
+            return Collections.singletonList(new Reservation().siteId(1L).startDate(now.plusDays(2)).endDate(now.plusDays(3)));
+        });
+
+        occupancyCalendar.refresh();
+
+        Assertions.assertEquals(Arrays.asList(now.plusDays(2), now.plusDays(3)), occupancyCalendar.getVacancy(now.plusDays(2), now.plusDays(3)));
+    }
+
+    @Test
+    void replaceDaysNewSite() {
+        occupancyCalendar.getVacancy(now, now);
+        when(jdbcTemplate.query(eq(ReservationQueries.SITES.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Arrays.asList(new Site().id(1L).name("Main"), new Site().id(2L).name("New")));
+
+        occupancyCalendar.replaceDays(new SiteOccupancy(Arrays.asList(new Site().id(1L), new Site().id(2L))), now.plusDays(2), now.plusDays(3));
+
+        Assertions.assertTrue(occupancyCalendar.hasSite(2L));
+        verify(jdbcTemplate, times(2)).query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any());
+    }
+
+    @Test
+    void replaceDaysBeforeLoad() {
+        occupancyCalendar.replaceDays(new SiteOccupancy(Collections.emptyList()), now, now);
+
+        verify(jdbcTemplate, never()).query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void hasSite() {
+        Assertions.assertTrue(occupancyCalendar.hasSite(1L));
+        Assertions.assertFalse(occupancyCalendar.hasSite(2L));
+    }
+
+    @Test
+    void hasSiteCreatedSinceLoad() {
+        occupancyCalendar.getVacancy(now, now);
+        when(jdbcTemplate.query(eq(ReservationQueries.SITES.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Arrays.asList(new Site().id(1L).name("Main"), new Site().id(2L).name("New")));
+        when(jdbcTemplate.query(eq(ReservationQueries.SITE_BY_ID.getSql()), any(RowMapper.class), eq(2L))).thenReturn(Collections.singletonList(2L));
+
+        Assertions.assertTrue(occupancyCalendar.hasSite(2L));
+
+        Assertions.assertEquals(2, occupancyCalendar.getVacantSites(now.plusDays(5), now.plusDays(6)).size());
+        verify(jdbcTemplate, times(2)).query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any());
+    }
+
+    @Test
+    void pickFreeSite() {
+        Assertions.assertTrue(occupancyCalendar.pickFreeSite(now.plusDays(1), now.plusDays(3), siteId -> false).isEmpty());
+        // Check-out and check-in on the same day
+        Assertions.assertEquals(OptionalLong.of(1L), occupancyCalendar.pickFreeSite(now.plusDays(3), now.plusDays(4), siteId -> false));
+        Assertions.assertTrue(occupancyCalendar.pickFreeSite(now.plusDays(3), now.plusDays(4), siteId -> siteId == 1L).isEmpty());
+    }
+
+    private ConfirmedReservation reservation(int startDay, int endDay) {
+        return (ConfirmedReservation) new ConfirmedReservation().siteId(1L).startDate(now.plusDays(startDay)).endDate(now.plusDays(endDay));
+    }
+}
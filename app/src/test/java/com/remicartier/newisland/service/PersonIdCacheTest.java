@@ -0,0 +1,97 @@
+package com.remicartier.newisland.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+class PersonIdCacheTest {
+    private final static String EMAIL = "user@domain.com";
+    private final static String FULL_NAME = "John Doe";
+
+    private JdbcTemplate jdbcTemplate;
+    private PersonIdCache personIdCache;
+
+    @BeforeEach
+    void setup() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        personIdCache = new PersonIdCache(jdbcTemplate, 10);
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(7L));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void getPersonId() {
+        Assertions.assertEquals(7L, personIdCache.getPersonId(EMAIL, FULL_NAME));
+        Assertions.assertEquals(7L, personIdCache.getPersonId(EMAIL, FULL_NAME));
+
+        verify(jdbcTemplate, times(1)).query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME));
+    }
+
+    @Test
+    void invalidateAll() {
+        personIdCache.getPersonId(EMAIL, FULL_NAME);
+        personIdCache.invalidateAll();
+        personIdCache.getPersonId(EMAIL, FULL_NAME);
+
+        verify(jdbcTemplate, times(2)).query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME));
+    }
+
+    @Test
+    void getPersonIdRolledBack() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        Assertions.assertEquals(7L, personIdCache.getPersonId(EMAIL, FULL_NAME));
+        TransactionSynchronizationManager.clearSynchronization();
+        Assertions.assertEquals(7L, personIdCache.getPersonId(EMAIL, FULL_NAME));
+
+        verify(jdbcTemplate, times(2)).query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME));
+    }
+
+    @Test
+    void getPersonIdCommitted() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        Assertions.assertEquals(7L, personIdCache.getPersonId(EMAIL, FULL_NAME));
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        TransactionSynchronizationManager.clearSynchronization();
+        Assertions.assertEquals(7L, personIdCache.getPersonId(EMAIL, FULL_NAME));
+
+        verify(jdbcTemplate, times(1)).query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME));
+    }
+
+    @Test
+    void getPersonIds() {
+        PersonIdCache.PersonKey cached = new PersonIdCache.PersonKey(EMAIL, FULL_NAME);
+        PersonIdCache.PersonKey missing = new PersonIdCache.PersonKey("other@domain.com", "Jane Doe");
+        personIdCache.getPersonId(EMAIL, FULL_NAME);
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(Collections.singletonList(8L));
+
+        Map<PersonIdCache.PersonKey, Long> personIds = personIdCache.getPersonIds(Arrays.asList(cached, missing, missing));
+
+        Assertions.assertEquals(7L, personIds.get(cached));
+        Assertions.assertEquals(8L, personIds.get(missing));
+        Assertions.assertEquals(8L, personIdCache.getPersonId("other@domain.com", "Jane Doe"));
+        verify(jdbcTemplate, times(1)).execute(any(ConnectionCallback.class));
+    }
+}
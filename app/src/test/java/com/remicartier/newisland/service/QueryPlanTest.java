@@ -0,0 +1,146 @@
+package com.remicartier.newisland.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Plan regression suite: EXPLAINs every {@link ReservationQueries} statement against a seeded database, several years
+ * of history on {@value #SITES} sites and {@value #PERSONS} persons, archived but for the last month, and fails when a
+ * plan scans a whole large table or goes over its cost budget, about 3 times the cost of the expected plan.
+ */
+@Testcontainers
+class QueryPlanTest {
+    private final static String USERNAME = "postgres";
+    private final static String PASSWORD = "password";
+    private final static int SITES = 50;
+    private final static int PERSONS = 100000;
+    private final static int HISTORY_DAYS = 3650;
+    private final static Set<String> LARGE_TABLES = new HashSet<>(Arrays.asList("reservation", "person", "reservation_history"));
+    private final static LocalDate NOW = LocalDate.now(Clock.systemUTC());
+    private final static String RESERVATION_ID = "7c1b4f0e-8f69-4c1e-9a3b-2f7d2c9e5a10";
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRE_SQL_CONTAINER = new PostgreSQLContainer<>("postgres:12")
+            .withDatabaseName("new_island")
+            .withUsername(USERNAME)
+            .withPassword(PASSWORD);
+
+    private static JdbcTemplate jdbcTemplate;
+
+    /**
+     * Statement name to its parameters and cost budget, one entry per statement of {@link ReservationQueries#all()}
+     */
+    private final Map<String, PlanCase> planCases = Map.ofEntries(
+            planCase(ReservationQueries.SITES, 10),
+            planCase(ReservationQueries.SITE_BY_ID, 10, 1L),
+            planCase(ReservationQueries.VACANCY, 2500, NOW, NOW.plusDays(30)),
+            planCase(ReservationQueries.OCCUPANCY, 1500, NOW),
+            planCase(ReservationQueries.RESERVATIONS_BY_EMAIL, 100, "guest42@plan.test", NOW, NOW.plusDays(30)),
+            planCase(ReservationQueries.RESERVATION_BY_ID, 50, RESERVATION_ID),
+            // Bounded: a whole export is a full scan by design
+            planCase(ReservationQueries.EXPORT_RESERVATIONS, 12000, NOW.minusDays(30), NOW, NOW.minusDays(30), NOW, NOW.minusDays(30)),
+            planCase(ReservationQueries.UPSERT_PERSON, 10, "guest42@plan.test", "Guest 42"),
+            planCase(ReservationQueries.INSERT_RESERVATION, 10, RESERVATION_ID, 1L, 1L, NOW, NOW.plusDays(2)),
+            planCase(ReservationQueries.INSERT_RESERVATION_IF_FREE, 10, RESERVATION_ID, 1L, 1L, NOW, NOW.plusDays(2)),
+            planCase(ReservationQueries.INSERT_HOLD_IF_FREE, 10, RESERVATION_ID, 1L, 1L, NOW, NOW.plusDays(2), 600L),
+            planCase(ReservationQueries.CONFIRM_HOLD, 50, RESERVATION_ID),
+            planCase(ReservationQueries.DELETE_HOLD, 50, RESERVATION_ID),
+            planCase(ReservationQueries.DELETE_EXPIRED_HOLDS, 50),
+            planCase(ReservationQueries.UPDATE_RESERVATION_DATES, 50, RESERVATION_ID, NOW, NOW.plusDays(2), 1L),
+            planCase(ReservationQueries.DELETE_RESERVATION, 50, RESERVATION_ID, 1L),
+            // The function call only, the statements it runs are planned within it
+            planCase(ReservationQueries.ARCHIVE_RESERVATIONS, 10, NOW.minusDays(30), 10000));
+
+    @BeforeAll
+    static void setup() {
+        Flyway.configure().dataSource(POSTGRE_SQL_CONTAINER.getJdbcUrl(), USERNAME, PASSWORD).load().migrate();
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(POSTGRE_SQL_CONTAINER.getJdbcUrl(), USERNAME, PASSWORD));
+        jdbcTemplate.update("INSERT INTO site (name) SELECT 'Site ' || i FROM generate_series(2, ?) i", SITES);
+        jdbcTemplate.update("INSERT INTO person (email, full_name) SELECT 'guest' || i || '@plan.test', 'Guest ' || i FROM generate_series(1, ?) i", PERSONS);
+        // A 2 night stay every 3 days on each site, from HISTORY_DAYS ago to the end of the booking window
+        jdbcTemplate.update("INSERT INTO reservation (id, person_id, site_id, duration) "
+                + "SELECT md5(site.id || '-' || day), first_person.id + abs(hashtext(site.id || '-' || day)) % ?, site.id, daterange(current_date + day, current_date + day + 2) "
+                + "FROM site, generate_series(?, 30, 3) day, (SELECT min(id) AS id FROM person) first_person", PERSONS, -HISTORY_DAYS);
+        // All but the last month of it archived, as ReservationArchiver does
+        jdbcTemplate.queryForObject("SELECT archive_reservations(current_date - 30, ?)", Long.class, SITES * HISTORY_DAYS);
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @AfterAll
+    static void tearDown() {
+        POSTGRE_SQL_CONTAINER.stop();
+    }
+
+    @Test
+    void everyStatementHasAPlanCase() {
+        Set<String> names = ReservationQueries.all().stream().map(SqlStatement::getName).collect(Collectors.toSet());
+
+        Assertions.assertEquals(names, planCases.keySet(), "Statements and plan cases differ");
+    }
+
+    @Test
+    void plans() throws IOException {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, PlanCase> entry : planCases.entrySet()) {
+            PlanCase planCase = entry.getValue();
+            JsonNode plan = explain(planCase);
+            double cost = plan.get("Total Cost").asDouble();
+            if (cost > planCase.maxCost) {
+                regressions.add(entry.getKey() + " costs " + cost + ", over its budget of " + planCase.maxCost + ": " + plan);
+            }
+            for (String relation : seqScannedRelations(plan, new ArrayList<>())) {
+                // Partitions of reservation_history are named after their year
+                if (LARGE_TABLES.contains(relation.replaceFirst("_\\d{4}$", ""))) {
+                    regressions.add(entry.getKey() + " scans the whole " + relation + " table: " + plan);
+                }
+            }
+        }
+
+        Assertions.assertTrue(regressions.isEmpty(), String.join("\n", regressions));
+    }
+
+    private JsonNode explain(PlanCase planCase) throws IOException {
+        String json = jdbcTemplate.queryForObject("EXPLAIN (FORMAT JSON) " + planCase.statement.getSql(), String.class, planCase.args);
+        return new ObjectMapper().readTree(json).get(0).get("Plan");
+    }
+
+    private static List<String> seqScannedRelations(JsonNode plan, List<String> relations) {
+        if ("Seq Scan".equals(plan.path("Node Type").asText())) {
+            relations.add(plan.path("Relation Name").asText());
+        }
+        plan.path("Plans").forEach(subPlan -> seqScannedRelations(subPlan, relations));
+        return relations;
+    }
+
+    private static Map.Entry<String, PlanCase> planCase(SqlStatement statement, double maxCost, Object... args) {
+        return Map.entry(statement.getName(), new PlanCase(statement, maxCost, args));
+    }
+
+    private static class PlanCase {
+        private final SqlStatement statement;
+        private final double maxCost;
+        private final Object[] args;
+
+        private PlanCase(SqlStatement statement, double maxCost, Object[] args) {
+            this.statement = statement;
+            this.maxCost = maxCost;
+            this.args = args;
+        }
+    }
+}
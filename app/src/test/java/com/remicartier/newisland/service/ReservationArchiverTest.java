@@ -0,0 +1,49 @@
+package com.remicartier.newisland.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ReservationArchiverTest {
+    private final LocalDate before = LocalDate.now(Clock.systemUTC()).minusDays(30);
+
+    private ReservationService reservationService;
+    private ReservationArchiver reservationArchiver;
+
+    @BeforeEach
+    void setup() {
+        reservationService = mock(ReservationService.class);
+        reservationArchiver = new ReservationArchiver(reservationService, Duration.ofDays(30), 100);
+    }
+
+    @Test
+    void archive() {
+        when(reservationService.archiveReservations(before, 100)).thenReturn(42L);
+
+        Assertions.assertEquals(42, reservationArchiver.archive());
+        verify(reservationService, times(1)).archiveReservations(eq(before), anyInt());
+    }
+
+    @Test
+    void archiveFullBatchesUntilDone() {
+        when(reservationService.archiveReservations(before, 100)).thenReturn(100L, 100L, 7L);
+
+        Assertions.assertEquals(207, reservationArchiver.archive());
+        verify(reservationService, times(3)).archiveReservations(eq(before), anyInt());
+    }
+
+    @Test
+    void archiveNothing() {
+        when(reservationService.archiveReservations(before, 100)).thenReturn(0L);
+
+        Assertions.assertEquals(0, reservationArchiver.archive());
+    }
+}
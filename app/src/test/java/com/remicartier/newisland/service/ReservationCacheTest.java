@@ -0,0 +1,145 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+class ReservationCacheTest {
+    private final static String EMAIL = "user@domain.com";
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+    private final ConfirmedReservation reservation1 = (ConfirmedReservation) new ConfirmedReservation().id("1").email(EMAIL).siteId(1L)
+            .startDate(now.plusDays(1)).endDate(now.plusDays(2));
+    private final ConfirmedReservation reservation2 = (ConfirmedReservation) new ConfirmedReservation().id("2").email("other@domain.com").siteId(1L)
+            .startDate(now.plusDays(3)).endDate(now.plusDays(4));
+    private final VersionedReservation versionedReservation1 = new VersionedReservation(reservation1, 1);
+    private final VersionedReservation versionedReservation2 = new VersionedReservation(reservation2, 1);
+
+    private ReservationCache reservationCache;
+    private Function<String, Optional<VersionedReservation>> loader;
+    private Function<String, List<ConfirmedReservation>> emailLoader;
+
+    @BeforeEach
+    void setup() {
+        reservationCache = new ReservationCache(100, Duration.ofMinutes(1));
+        loader = mock(Function.class);
+        when(loader.apply("1")).thenReturn(Optional.of(versionedReservation1));
+        when(loader.apply("2")).thenReturn(Optional.of(versionedReservation2));
+        when(loader.apply("3")).thenReturn(Optional.empty());
+        emailLoader = mock(Function.class);
+        when(emailLoader.apply(any())).thenAnswer(invocationOnMock -> Collections.singletonList(reservation1));
+    }
+
+    @Test
+    void get() {
+        Assertions.assertSame(versionedReservation1, reservationCache.get("1", loader).orElseThrow());
+        Assertions.assertSame(versionedReservation1, reservationCache.get("1", loader).orElseThrow());
+
+        verify(loader, times(1)).apply("1");
+    }
+
+    @Test
+    void peek() {
+        Assertions.assertTrue(reservationCache.peek("1").isEmpty());
+        reservationCache.get("1", loader);
+
+        Assertions.assertSame(versionedReservation1, reservationCache.peek("1").orElseThrow());
+        verify(loader, times(1)).apply("1");
+    }
+
+    @Test
+    void getAbsentIsNotCached() {
+        Assertions.assertTrue(reservationCache.get("3", loader).isEmpty());
+        Assertions.assertTrue(reservationCache.get("3", loader).isEmpty());
+
+        verify(loader, times(2)).apply("3");
+    }
+
+    @Test
+    void getByEmail() {
+        List<ConfirmedReservation> reservations = reservationCache.getByEmail(EMAIL, emailLoader);
+
+        Assertions.assertSame(reservations, reservationCache.getByEmail(EMAIL, emailLoader));
+        verify(emailLoader, times(1)).apply(EMAIL);
+    }
+
+    @Test
+    void onReservationChangedEvictsTheReservation() {
+        reservationCache.get("1", loader);
+        reservationCache.get("2", loader);
+        reservationCache.getByEmail(EMAIL, emailLoader);
+
+        ConfirmedReservation updated = (ConfirmedReservation) new ConfirmedReservation().id("1").email(EMAIL).siteId(1L)
+                .startDate(now.plusDays(5)).endDate(now.plusDays(6));
+        reservationCache.onReservationChanged(new ReservationChangedEvent(reservation1, updated));
+        reservationCache.get("1", loader);
+        reservationCache.get("2", loader);
+        reservationCache.getByEmail(EMAIL, emailLoader);
+
+        verify(loader, times(2)).apply("1");
+        verify(loader, times(1)).apply("2");
+        verify(emailLoader, times(2)).apply(EMAIL);
+    }
+
+    @Test
+    void onOccupancyRefreshedEvictsEverything() {
+        reservationCache.get("1", loader);
+        reservationCache.get("2", loader);
+
+        reservationCache.onOccupancyRefreshed(new OccupancyRefreshedEvent());
+        reservationCache.get("1", loader);
+        reservationCache.get("2", loader);
+
+        verify(loader, times(2)).apply("1");
+        verify(loader, times(2)).apply("2");
+    }
+
+    @Test
+    void evictAfterCommitOutsideTransaction() {
+        reservationCache.getByEmail(EMAIL, emailLoader);
+
+        reservationCache.evictAfterCommit(reservation1);
+        reservationCache.getByEmail(EMAIL, emailLoader);
+
+        verify(emailLoader, times(2)).apply(EMAIL);
+    }
+
+    @Test
+    void loadRacingAChangeIsNotCached() {
+        Function<String, Optional<VersionedReservation>> racingLoader = id -> {
+            reservationCache.onReservationChanged(ReservationChangedEvent.deleted(reservation1));
+            return Optional.of(versionedReservation1);
+        };
+
+        reservationCache.get("1", racingLoader);
+        reservationCache.get("1", loader);
+
+        verify(loader, times(1)).apply("1");
+    }
+
+    @Test
+    void bindTo() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        reservationCache.bindTo(meterRegistry);
+
+        reservationCache.get("1", loader);
+        reservationCache.get("1", loader);
+
+        Assertions.assertEquals(1, meterRegistry.get("cache.gets").tag("cache", ReservationCache.BY_ID).tag("result", "hit").functionCounter().count());
+        Assertions.assertEquals(1, meterRegistry.get("cache.gets").tag("cache", ReservationCache.BY_ID).tag("result", "miss").functionCounter().count());
+    }
+}
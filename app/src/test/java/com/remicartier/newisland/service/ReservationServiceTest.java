@@ -1,29 +1,43 @@
 package com.remicartier.newisland.service;
 
 import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Hold;
 import com.remicartier.model.Reservation;
 import com.remicartier.model.ReservationDates;
+import com.remicartier.model.ReservationResult;
+import com.remicartier.model.Site;
+import com.remicartier.newisland.exception.ConflictException;
+import com.remicartier.newisland.exception.PreconditionFailedException;
 import com.remicartier.newisland.exception.ValidationException;
-import lombok.val;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.stubbing.Answer;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.support.KeyHolder;
-import org.testcontainers.shaded.com.google.common.collect.ImmutableMap;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.transaction.support.TransactionOperations;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -35,26 +49,42 @@ class ReservationServiceTest {
     private final static String EMAIL = "user@domain.com";
     private final static String FULL_NAME = "John Doe";
     private final static String BOOKING_ID = UUID.randomUUID().toString();
+    private final static long SITE_ID = 1L;
     private final LocalDate now = LocalDate.now(Clock.systemUTC());
 
     private JdbcTemplate jdbcTemplate;
+    private ApplicationEventPublisher eventPublisher;
+    private OccupancyCalendar occupancyCalendar;
     private ReservationService reservationService;
 
     @BeforeEach
     void setup() {
         jdbcTemplate = mock(JdbcTemplate.class);
-        reservationService = new ReservationService(jdbcTemplate, 3, 1, 30);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        occupancyCalendar = new OccupancyCalendar(jdbcTemplate, eventPublisher);
+        // As when the vacancy feed is listening
+        occupancyCalendar.setCurrent(true);
+        reservationService = new ReservationService(jdbcTemplate, TransactionOperations.withoutTransaction(), occupancyCalendar, new VacancyCache(100), new PersonIdCache(jdbcTemplate, 100), new ReservationCache(100, Duration.ofMinutes(1)), eventPublisher, true, 3, 1, 30);
+        stubSites(SITE_ID);
+    }
+
+    private void stubSites(long... siteIds) {
+        List<Site> sites = new ArrayList<>();
+        for (long siteId : siteIds) {
+            sites.add(new Site().id(siteId).name("Site " + siteId));
+        }
+        when(jdbcTemplate.query(eq(ReservationQueries.SITES.getSql()), any(RowMapper.class), any())).thenReturn(sites);
     }
 
     @Test
     void getVacancy() {
-        List<ReservationDates> reservationDates = new ArrayList<>();
+        List<Reservation> reservationDates = new ArrayList<>();
         for (int i = 0; i < 10; i++) {
             LocalDate startDate = now.plusDays(1 + i * 2);
             LocalDate endDate = now.plusDays(2 + i * 2);
-            reservationDates.add(new ReservationDates().startDate(startDate).endDate(endDate));
+            reservationDates.add((Reservation) new Reservation().siteId(SITE_ID).startDate(startDate).endDate(endDate));
         }
-        when(jdbcTemplate.query(anyString(), any(RowMapper.class))).thenReturn(reservationDates);
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any())).thenReturn(reservationDates);
 
         List<LocalDate> vacancy = reservationService.getVacancy(null, null);
         reservationDates.forEach(rd -> vacancy.forEach(d -> Assertions.assertFalse(rd.getStartDate().equals(d) && rd.getEndDate().equals(d))));
@@ -62,13 +92,49 @@ class ReservationServiceTest {
         //Every day should be taken for the first 20 days
         List<LocalDate> vacancy2 = reservationService.getVacancy(now.plusDays(3), now.plusDays(10));
         Assertions.assertEquals(0, vacancy2.size());
+
+        //Calendar is only loaded once
+        verify(jdbcTemplate, times(1)).query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any());
+
+        //Same window is served from the cache
+        Assertions.assertSame(vacancy2, reservationService.getVacancy(now.plusDays(3), now.plusDays(10)));
+    }
+
+    @Test
+    void getVacancyETag() {
+        String eTag = reservationService.getVacancyETag(null, null, null);
+
+        Assertions.assertEquals(eTag, reservationService.getVacancyETag(null, now.minusDays(1), now.plusDays(60)));
+        Assertions.assertNotEquals(eTag, reservationService.getVacancyETag(null, now.plusDays(3), now.plusDays(10)));
+        Assertions.assertNotEquals(eTag, reservationService.getVacancyETag(SITE_ID, null, null));
+    }
+
+    @Test
+    void getVacancyPerSite() {
+        stubSites(SITE_ID, 2L);
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Collections.singletonList(new Reservation().siteId(SITE_ID).startDate(now.plusDays(2)).endDate(now.plusDays(3))));
+
+        Assertions.assertEquals(Arrays.asList(now.plusDays(1), now.plusDays(2), now.plusDays(3), now.plusDays(4)), reservationService.getVacancy(now.plusDays(1), now.plusDays(4)));
+        Assertions.assertEquals(Arrays.asList(now.plusDays(1), now.plusDays(4)), reservationService.getVacancy(SITE_ID, now.plusDays(1), now.plusDays(4)));
+        Assertions.assertEquals(Collections.singletonList(2L), reservationService.getVacantSites(now.plusDays(1), now.plusDays(4)).stream().map(Site::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void getVacancyFromDatabase() {
+        List<Reservation> reservationDates = Collections.singletonList((Reservation) new Reservation().siteId(SITE_ID).startDate(now.plusDays(2)).endDate(now.plusDays(4)));
+        when(jdbcTemplate.query(eq(ReservationQueries.VACANCY.getSql()), any(RowMapper.class), eq(now.plusDays(1)), eq(now.plusDays(5)))).thenReturn(reservationDates);
+
+        List<LocalDate> vacancy = reservationService.getVacancyFromDatabase(null, now.plusDays(1), now.plusDays(5));
+
+        Assertions.assertEquals(Arrays.asList(now.plusDays(1), now.plusDays(5)), vacancy);
     }
 
     @Test
     void getReservations() {
         reservationService.getReservations(EMAIL);
 
-        verify(jdbcTemplate).query(anyString(), eq(ReservationService.ConfirmedReservationMapper.INSTANCE));
+        verify(jdbcTemplate).query(eq(ReservationQueries.RESERVATIONS_BY_EMAIL.getSql()), eq(ReservationService.ConfirmedReservationMapper.INSTANCE), eq(EMAIL), eq(now), eq(now.plusMonths(1)));
     }
 
     @Test
@@ -113,12 +179,8 @@ class ReservationServiceTest {
         LocalDate endDate = now.plusDays(2);
         Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(startDate).endDate(endDate);
 
-        when(jdbcTemplate.query(anyString(), (Object[]) any(), any(RowMapper.class))).thenReturn(Collections.emptyList());
-        when(jdbcTemplate.update(any(PreparedStatementCreator.class), any(KeyHolder.class))).thenAnswer((Answer<Integer>) invocationOnMock -> {
-            invocationOnMock.getArgument(1, KeyHolder.class).getKeyList().add(ImmutableMap.of(BOOKING_ID, 1L));
-            return 1;
-        });
-        when(jdbcTemplate.update(anyString(), anyString(), anyLong(), anyString())).thenReturn(1);
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+        when(jdbcTemplate.update(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyString(), eq(1L), eq(SITE_ID), eq(startDate), eq(endDate))).thenReturn(1);
 
         ConfirmedReservation confirmedReservation = reservationService.bookReservation(reservation);
 
@@ -126,6 +188,7 @@ class ReservationServiceTest {
         Assertions.assertNotNull(confirmedReservation.getId());
         Assertions.assertEquals(EMAIL, confirmedReservation.getEmail());
         Assertions.assertEquals(FULL_NAME, confirmedReservation.getFullName());
+        Assertions.assertEquals(SITE_ID, confirmedReservation.getSiteId());
         Assertions.assertEquals(startDate, confirmedReservation.getStartDate());
         Assertions.assertEquals(endDate, confirmedReservation.getEndDate());
     }
@@ -134,10 +197,10 @@ class ReservationServiceTest {
     void bookReservationExistingPerson() {
         LocalDate startDate = now.plusDays(1);
         LocalDate endDate = now.plusDays(2);
-        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(startDate).endDate(endDate);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID).startDate(startDate).endDate(endDate);
 
-        when(jdbcTemplate.query(anyString(), (Object[]) any(), any(RowMapper.class))).thenReturn(Collections.singletonList(1L));
-        when(jdbcTemplate.update(anyString(), anyString(), anyLong(), anyString())).thenReturn(1);
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+        when(jdbcTemplate.update(eq(ReservationQueries.INSERT_RESERVATION.getSql()), anyString(), eq(1L), eq(SITE_ID), eq(startDate), eq(endDate))).thenReturn(1);
 
         ConfirmedReservation confirmedReservation = reservationService.bookReservation(reservation);
 
@@ -147,16 +210,228 @@ class ReservationServiceTest {
         Assertions.assertEquals(FULL_NAME, confirmedReservation.getFullName());
         Assertions.assertEquals(startDate, confirmedReservation.getStartDate());
         Assertions.assertEquals(endDate, confirmedReservation.getEndDate());
+        verify(eventPublisher).publishEvent(any(ReservationChangedEvent.class));
+    }
+
+    @Test
+    void bookReservationRepeatGuest() {
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(2));
+        Reservation reservation2 = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(5)).endDate(now.plusDays(6));
+
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+        when(jdbcTemplate.update(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyString(), eq(1L), eq(SITE_ID), any(), any())).thenReturn(1);
+
+        reservationService.bookReservation(reservation);
+        reservationService.bookReservation(reservation2);
+
+        verify(jdbcTemplate, times(1)).query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME));
+        verify(jdbcTemplate, times(2)).update(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyString(), eq(1L), eq(SITE_ID), any(), any());
+    }
+
+    @Test
+    void bookReservationSiteTakenMeanwhile() {
+        stubSites(SITE_ID, 2L);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(2));
+
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+        // Whichever site is picked first was taken by another transaction, the other one is free
+        when(jdbcTemplate.update(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyString(), eq(1L), anyLong(), any(), any())).thenReturn(0, 1);
+
+        ConfirmedReservation confirmedReservation = reservationService.bookReservation(reservation);
+
+        verify(jdbcTemplate, times(2)).update(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyString(), eq(1L), anyLong(), any(), any());
+        verify(jdbcTemplate, times(1)).update(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyString(), eq(1L), eq(confirmedReservation.getSiteId()), any(), any());
+    }
+
+    @Test
+    void bookReservationNoSiteLeft() {
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(2));
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Collections.singletonList(new Reservation().siteId(SITE_ID).startDate(now.plusDays(1)).endDate(now.plusDays(3))));
+
+        try {
+            reservationService.bookReservation(reservation);
+            fail();
+        } catch (ValidationException x) {
+            Assertions.assertEquals("Unable to create reservation, dates overlap with existing reservation", x.getMessage());
+        }
+        // Rejected before anything was written
+        verify(jdbcTemplate, never()).query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), any(), any());
+    }
+
+    @Test
+    void bookReservationSiteTaken() {
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID).startDate(now.plusDays(2)).endDate(now.plusDays(3));
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Collections.singletonList(new Reservation().siteId(SITE_ID).startDate(now.plusDays(1)).endDate(now.plusDays(3))));
+
+        Assertions.assertThrows(ConflictException.class, () -> reservationService.bookReservation(reservation));
+        // Rejected before anything was written
+        verify(jdbcTemplate, never()).query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), any(), any());
+        verify(jdbcTemplate, never()).update(eq(ReservationQueries.INSERT_RESERVATION.getSql()), anyString(), anyLong(), anyLong(), any(), any());
+    }
+
+    @Test
+    void bookReservationSiteTakenCalendarNotCurrent() {
+        occupancyCalendar.setCurrent(false);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID).startDate(now.plusDays(2)).endDate(now.plusDays(3));
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Collections.singletonList(new Reservation().siteId(SITE_ID).startDate(now.plusDays(1)).endDate(now.plusDays(3))));
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+        // Released by another instance, which the calendar may not know yet
+        when(jdbcTemplate.update(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyString(), eq(1L), eq(SITE_ID), any(), any())).thenReturn(1);
+
+        Assertions.assertEquals(SITE_ID, reservationService.bookReservation(reservation).getSiteId());
+    }
+
+    @Test
+    void bookReservationNoSiteLeftCalendarNotCurrent() {
+        occupancyCalendar.setCurrent(false);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(2));
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Collections.singletonList(new Reservation().siteId(SITE_ID).startDate(now.plusDays(1)).endDate(now.plusDays(3))));
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+        when(jdbcTemplate.update(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyString(), eq(1L), eq(SITE_ID), any(), any())).thenReturn(1);
+
+        // The database has the site free
+        Assertions.assertEquals(SITE_ID, reservationService.bookReservation(reservation).getSiteId());
+        verify(jdbcTemplate).query(eq(ReservationQueries.VACANCY.getSql()), any(RowMapper.class), eq(now.plusDays(1)), eq(now.plusDays(2)));
+    }
+
+    @Test
+    void bookReservationUnknownSite() {
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(9L).startDate(now.plusDays(1)).endDate(now.plusDays(2));
+
+        try {
+            reservationService.bookReservation(reservation);
+            fail();
+        } catch (ValidationException x) {
+            Assertions.assertEquals("Site 9 doesn't exist", x.getMessage());
+        }
+    }
+
+    @Test
+    void bookReservations() {
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(3));
+        Reservation overlapping = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(2)).endDate(now.plusDays(3));
+        Reservation tooEarly = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now).endDate(now.plusDays(1));
+        Reservation missingName = (Reservation) new Reservation().email(EMAIL).startDate(now.plusDays(5)).endDate(now.plusDays(6));
+
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(Collections.singletonList(1L));
+        when(jdbcTemplate.batchUpdate(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyList())).thenReturn(new int[]{1});
+
+        List<ReservationResult> results = reservationService.bookReservations(Arrays.asList(reservation, overlapping, tooEarly, missingName), r -> {
+            if (r.getFullName() == null) {
+                throw new ValidationException("Field 'fullName' is undefined");
+            }
+        });
+
+        Assertions.assertEquals(4, results.size());
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFIRMED, results.get(0).getStatus());
+        Assertions.assertEquals(now.plusDays(1), results.get(0).getReservation().getStartDate());
+        Assertions.assertEquals(FULL_NAME, results.get(0).getReservation().getFullName());
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFLICT, results.get(1).getStatus());
+        Assertions.assertEquals(ReservationResult.StatusEnum.INVALID, results.get(2).getStatus());
+        Assertions.assertEquals("Start date has to be at least 1 day(s) ahead of arrival", results.get(2).getMessage());
+        Assertions.assertEquals(ReservationResult.StatusEnum.INVALID, results.get(3).getStatus());
+        Assertions.assertEquals("Field 'fullName' is undefined", results.get(3).getMessage());
+
+        // The only site is taken by the first reservation: the overlapping one isn't even sent to the database
+        verify(jdbcTemplate, times(1)).execute(any(ConnectionCallback.class));
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), argThat((List<Object[]> batchArgs) -> batchArgs.size() == 1));
+        verify(eventPublisher, times(1)).publishEvent(any(ReservationChangedEvent.class));
+    }
+
+    @Test
+    void bookReservationsOnSeveralSites() {
+        stubSites(SITE_ID, 2L);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(3));
+        Reservation overlapping = (Reservation) new Reservation().email("other@domain.com").fullName(FULL_NAME).startDate(now.plusDays(2)).endDate(now.plusDays(3));
+
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(Arrays.asList(1L, 2L));
+        when(jdbcTemplate.batchUpdate(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyList())).thenReturn(new int[]{1, 1});
+
+        List<ReservationResult> results = reservationService.bookReservations(Arrays.asList(reservation, overlapping), r -> {
+        });
+
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFIRMED, results.get(0).getStatus());
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFIRMED, results.get(1).getStatus());
+        Assertions.assertNotEquals(results.get(0).getReservation().getSiteId(), results.get(1).getReservation().getSiteId());
+    }
+
+    @Test
+    void bookReservationsSiteTakenMeanwhile() {
+        stubSites(SITE_ID, 2L);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(3));
+        Reservation onSite = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID).startDate(now.plusDays(5)).endDate(now.plusDays(6));
+
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(Collections.singletonList(1L));
+        // Both sites taken by another transaction, one at a time
+        when(jdbcTemplate.batchUpdate(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyList()))
+                .thenReturn(new int[]{0, 0}).thenReturn(new int[]{1});
+
+        List<ReservationResult> results = reservationService.bookReservations(Arrays.asList(reservation, onSite), r -> {
+        });
+
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFIRMED, results.get(0).getStatus());
+        // Given a site, it isn't moved to another one
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFLICT, results.get(1).getStatus());
+        ArgumentCaptor<List<Object[]>> batchArgs = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(2)).batchUpdate(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), batchArgs.capture());
+        Assertions.assertEquals(1, batchArgs.getAllValues().get(1).size());
+        Assertions.assertNotEquals(batchArgs.getAllValues().get(0).get(0)[2], batchArgs.getAllValues().get(1).get(0)[2]);
+        Assertions.assertEquals(batchArgs.getAllValues().get(1).get(0)[2], results.get(0).getReservation().getSiteId());
+        verify(eventPublisher, times(1)).publishEvent(any(ReservationChangedEvent.class));
+    }
+
+    @Test
+    void bookReservationsAllSitesTakenMeanwhile() {
+        stubSites(SITE_ID, 2L, 3L, 4L);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(3));
+
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(Collections.singletonList(1L));
+        when(jdbcTemplate.batchUpdate(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyList())).thenReturn(new int[]{0});
+
+        List<ReservationResult> results = reservationService.bookReservations(Collections.singletonList(reservation), r -> {
+        });
+
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFLICT, results.get(0).getStatus());
+        verify(jdbcTemplate, times(3)).batchUpdate(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyList());
+        verify(eventPublisher, never()).publishEvent(any(ReservationChangedEvent.class));
+    }
+
+    @Test
+    void bookReservationsSiteTaken() {
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID).startDate(now.plusDays(2)).endDate(now.plusDays(3));
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Collections.singletonList(new Reservation().siteId(SITE_ID).startDate(now.plusDays(1)).endDate(now.plusDays(3))));
+
+        List<ReservationResult> results = reservationService.bookReservations(Collections.singletonList(reservation), r -> {
+        });
+
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFLICT, results.get(0).getStatus());
+        verify(jdbcTemplate, never()).batchUpdate(eq(ReservationQueries.INSERT_RESERVATION_IF_FREE.getSql()), anyList());
+    }
+
+    @Test
+    void bookReservationsAllInvalid() {
+        Reservation tooEarly = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now).endDate(now.plusDays(1));
+
+        List<ReservationResult> results = reservationService.bookReservations(Collections.singletonList(tooEarly), r -> {
+        });
+
+        Assertions.assertEquals(ReservationResult.StatusEnum.INVALID, results.get(0).getStatus());
+        verifyNoInteractions(jdbcTemplate);
     }
 
     @Test
     void bookReservationExistingPersonOverlappingDates() {
         LocalDate startDate = now.plusDays(1);
         LocalDate endDate = now.plusDays(2);
-        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(startDate).endDate(endDate);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID).startDate(startDate).endDate(endDate);
 
-        when(jdbcTemplate.query(anyString(), (Object[]) any(), any(RowMapper.class))).thenReturn(Collections.singletonList(1L));
-        when(jdbcTemplate.update(anyString(), anyString(), anyLong(), anyString())).thenThrow(new DataIntegrityViolationException("Nope"));
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+        when(jdbcTemplate.update(eq(ReservationQueries.INSERT_RESERVATION.getSql()), anyString(), eq(1L), eq(SITE_ID), eq(startDate), eq(endDate))).thenThrow(new DataIntegrityViolationException("Nope"));
 
         try {
             reservationService.bookReservation(reservation);
@@ -165,40 +440,202 @@ class ReservationServiceTest {
         }
     }
 
+    @Test
+    void bookReservationCountsExecutions() {
+        LocalDate startDate = now.plusDays(1);
+        LocalDate endDate = now.plusDays(2);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID).startDate(startDate).endDate(endDate);
+        long executions = ReservationQueries.INSERT_RESERVATION.getExecutions();
+
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+        reservationService.bookReservation(reservation);
+
+        Assertions.assertEquals(executions + 1, ReservationQueries.INSERT_RESERVATION.getExecutions());
+    }
+
     @Test
     void getReservationAbsent() {
-        when(jdbcTemplate.query(anyString(), eq(ReservationService.ConfirmedReservationMapper.INSTANCE))).thenReturn(Collections.emptyList());
+        when(jdbcTemplate.query(eq(ReservationQueries.RESERVATION_BY_ID.getSql()), any(RowMapper.class), eq(BOOKING_ID))).thenReturn(Collections.emptyList());
 
-        Optional<ConfirmedReservation> optionalConfirmedReservation = reservationService.getReservation(BOOKING_ID);
+        Optional<VersionedReservation> optionalVersionedReservation = reservationService.getReservation(BOOKING_ID);
 
-        Assertions.assertTrue(optionalConfirmedReservation.isEmpty());
+        Assertions.assertTrue(optionalVersionedReservation.isEmpty());
     }
 
     @Test
     void getReservation() {
-        when(jdbcTemplate.query(anyString(), eq(ReservationService.ConfirmedReservationMapper.INSTANCE))).thenReturn(Collections.singletonList(new ConfirmedReservation()));
+        when(jdbcTemplate.query(eq(ReservationQueries.RESERVATION_BY_ID.getSql()), any(RowMapper.class), eq(BOOKING_ID)))
+                .thenReturn(Collections.singletonList(new VersionedReservation(new ConfirmedReservation(), 3)));
+
+        Optional<VersionedReservation> optionalVersionedReservation = reservationService.getReservation(BOOKING_ID);
+
+        Assertions.assertTrue(optionalVersionedReservation.isPresent());
+        Assertions.assertEquals(3, optionalVersionedReservation.get().getVersion());
+    }
+
+    @Test
+    void getReservationCached() {
+        when(jdbcTemplate.query(eq(ReservationQueries.RESERVATION_BY_ID.getSql()), any(RowMapper.class), eq(BOOKING_ID)))
+                .thenReturn(Collections.singletonList(new VersionedReservation(new ConfirmedReservation(), 1)));
+
+        reservationService.getReservation(BOOKING_ID);
+        Optional<VersionedReservation> optionalVersionedReservation = reservationService.getReservation(BOOKING_ID);
+
+        Assertions.assertTrue(optionalVersionedReservation.isPresent());
+        verify(jdbcTemplate, times(1)).query(eq(ReservationQueries.RESERVATION_BY_ID.getSql()), any(RowMapper.class), eq(BOOKING_ID));
+    }
+
+    @Test
+    void holdReservation() {
+        stubSites(SITE_ID, 2L);
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(2));
+        OffsetDateTime expiresAt = OffsetDateTime.now().plusMinutes(10);
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+        // Whichever site is picked first was taken by another transaction, the other one is free
+        when(jdbcTemplate.query(eq(ReservationQueries.INSERT_HOLD_IF_FREE.getSql()), any(RowMapper.class), anyString(), eq(1L), anyLong(), any(), any(), eq(600L)))
+                .thenReturn(Collections.emptyList(), Collections.singletonList(new Hold().expiresAt(expiresAt).siteId(2L)));
+
+        Hold hold = reservationService.holdReservation(reservation, Duration.ofMinutes(10));
+
+        Assertions.assertNotNull(hold.getId());
+        Assertions.assertEquals(2L, hold.getSiteId());
+        Assertions.assertEquals(expiresAt, hold.getExpiresAt());
+        Assertions.assertEquals(EMAIL, hold.getEmail());
+        Assertions.assertEquals(now.plusDays(1), hold.getStartDate());
+        verify(eventPublisher).publishEvent(argThat((ReservationChangedEvent event) -> event.getCurrent().orElseThrow() == hold));
+    }
+
+    @Test
+    void holdReservationSiteTakenMeanwhile() {
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID).startDate(now.plusDays(1)).endDate(now.plusDays(2));
+        when(jdbcTemplate.query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), eq(EMAIL), eq(FULL_NAME))).thenReturn(Collections.singletonList(1L));
+
+        Assertions.assertThrows(ConflictException.class, () -> reservationService.holdReservation(reservation, Duration.ofMinutes(10)));
+        verify(jdbcTemplate, times(1)).query(eq(ReservationQueries.INSERT_HOLD_IF_FREE.getSql()), any(RowMapper.class), anyString(), eq(1L), eq(SITE_ID), any(), any(), any());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void holdReservationSiteTaken() {
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID).startDate(now.plusDays(2)).endDate(now.plusDays(3));
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any()))
+                .thenReturn(Collections.singletonList(new Reservation().siteId(SITE_ID).startDate(now.plusDays(1)).endDate(now.plusDays(3))));
+
+        Assertions.assertThrows(ConflictException.class, () -> reservationService.holdReservation(reservation, Duration.ofMinutes(10)));
+        verify(jdbcTemplate, never()).query(eq(ReservationQueries.UPSERT_PERSON.getSql()), any(RowMapper.class), any(), any());
+    }
+
+    @Test
+    void confirmHold() {
+        when(jdbcTemplate.query(eq(ReservationQueries.CONFIRM_HOLD.getSql()), eq(ReservationService.ConfirmedReservationMapper.INSTANCE), eq(BOOKING_ID)))
+                .thenReturn(Collections.singletonList(new ConfirmedReservation().id(BOOKING_ID)));
+
+        Assertions.assertEquals(BOOKING_ID, reservationService.confirmHold(BOOKING_ID).orElseThrow().getId());
+        Assertions.assertTrue(reservationService.confirmHold("expired").isEmpty());
+        // The dates were already taken by the hold
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void releaseHold() {
+        ConfirmedReservation hold = reservation(1, 2);
+        when(jdbcTemplate.query(eq(ReservationQueries.DELETE_HOLD.getSql()), eq(ReservationService.ConfirmedReservationMapper.INSTANCE), eq(BOOKING_ID)))
+                .thenReturn(Collections.singletonList(hold));
+
+        Assertions.assertTrue(reservationService.releaseHold(BOOKING_ID));
+        Assertions.assertFalse(reservationService.releaseHold("expired"));
+        verify(eventPublisher, times(1)).publishEvent(argThat((ReservationChangedEvent event) -> event.getPrevious().orElseThrow() == hold && event.getCurrent().isEmpty()));
+    }
 
-        Optional<ConfirmedReservation> optionalConfirmedReservation = reservationService.getReservation(BOOKING_ID);
+    @Test
+    void expireHolds() {
+        when(jdbcTemplate.query(eq(ReservationQueries.DELETE_EXPIRED_HOLDS.getSql()), eq(ReservationService.ConfirmedReservationMapper.INSTANCE), any()))
+                .thenReturn(Arrays.asList(reservation(1, 2), reservation(3, 4)));
 
-        Assertions.assertTrue(optionalConfirmedReservation.isPresent());
+        Assertions.assertEquals(2, reservationService.expireHolds());
+        verify(eventPublisher, times(2)).publishEvent(any(ReservationChangedEvent.class));
+    }
+
+    @Test
+    void exportReservations() throws SQLException {
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getString(1)).thenReturn(BOOKING_ID);
+        when(resultSet.getString(2)).thenReturn(EMAIL);
+        when(resultSet.getString(3)).thenReturn(FULL_NAME);
+        when(resultSet.getDate(4)).thenReturn(java.sql.Date.valueOf(now.plusDays(1)));
+        when(resultSet.getDate(5)).thenReturn(java.sql.Date.valueOf(now.plusDays(2)));
+        when(resultSet.getLong(6)).thenReturn(SITE_ID);
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        doAnswer(invocation -> {
+            invocation.getArgument(1, PreparedStatementSetter.class).setValues(preparedStatement);
+            RowCallbackHandler rowCallbackHandler = invocation.getArgument(2);
+            rowCallbackHandler.processRow(resultSet);
+            rowCallbackHandler.processRow(resultSet);
+            return null;
+        }).when(jdbcTemplate).query(eq(ReservationQueries.EXPORT_RESERVATIONS.getSql()), any(PreparedStatementSetter.class), any(RowCallbackHandler.class));
+        List<ConfirmedReservation> exported = new ArrayList<>();
+
+        long count = reservationService.exportReservations(now, now.plusDays(30), 50, exported::add);
+
+        Assertions.assertEquals(2, count);
+        Assertions.assertEquals(2, exported.size());
+        Assertions.assertEquals(new ConfirmedReservation().id(BOOKING_ID).email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID)
+                .startDate(now.plusDays(1)).endDate(now.plusDays(2)), exported.get(0));
+        verify(preparedStatement).setFetchSize(50);
+        verify(preparedStatement).setObject(1, now);
+        verify(preparedStatement).setObject(2, now.plusDays(30));
+        verify(preparedStatement).setObject(3, now);
+        verify(preparedStatement).setObject(4, now.plusDays(30));
+        verify(preparedStatement).setObject(5, now);
+    }
+
+    @Test
+    void archiveReservations() {
+        when(jdbcTemplate.query(eq(ReservationQueries.ARCHIVE_RESERVATIONS.getSql()), any(RowMapper.class), eq(now.minusDays(30)), eq(100)))
+                .thenReturn(Collections.singletonList(42L));
+
+        Assertions.assertEquals(42, reservationService.archiveReservations(now.minusDays(30), 100));
     }
 
     @Test
     void deleteReservation() {
-        val id = BOOKING_ID;
-        reservationService.deleteReservation(new ConfirmedReservation().id(id));
+        ConfirmedReservation confirmedReservation = confirmedReservation(now.plusDays(3), now.plusDays(4));
+        when(jdbcTemplate.query(eq(ReservationQueries.DELETE_RESERVATION.getSql()), any(RowMapper.class), eq(BOOKING_ID), any(SqlParameterValue.class)))
+                .thenReturn(Collections.singletonList(new ReservationMutation(new VersionedReservation(confirmedReservation, 2), confirmedReservation, true)));
+
+        Optional<VersionedReservation> deleted = reservationService.deleteReservation(BOOKING_ID, 2L);
+
+        Assertions.assertEquals(Optional.of(new VersionedReservation(confirmedReservation, 2)), deleted);
+        verify(eventPublisher).publishEvent(any(ReservationChangedEvent.class));
+    }
+
+    @Test
+    void deleteReservationNotFound() {
+        Optional<VersionedReservation> deleted = reservationService.deleteReservation(BOOKING_ID, null);
+
+        Assertions.assertTrue(deleted.isEmpty());
+        verify(eventPublisher, never()).publishEvent(any(ReservationChangedEvent.class));
+    }
+
+    @Test
+    void deleteReservationModified() {
+        ConfirmedReservation confirmedReservation = confirmedReservation(now.plusDays(3), now.plusDays(4));
+        when(jdbcTemplate.query(eq(ReservationQueries.DELETE_RESERVATION.getSql()), any(RowMapper.class), eq(BOOKING_ID), any(SqlParameterValue.class)))
+                .thenReturn(Collections.singletonList(new ReservationMutation(new VersionedReservation(confirmedReservation, 3), confirmedReservation, false)));
+
+        PreconditionFailedException x = Assertions.assertThrows(PreconditionFailedException.class, () -> reservationService.deleteReservation(BOOKING_ID, 2L));
 
-        verify(jdbcTemplate).update(anyString(), eq(id));
+        Assertions.assertEquals(3, x.getCurrentVersion());
+        verify(eventPublisher, never()).publishEvent(any(ReservationChangedEvent.class));
     }
 
     @Test
     void updateReservationTooEarly() {
         LocalDate endDate = now.plusDays(2);
         ReservationDates reservationDates = new ReservationDates().startDate(now).endDate(endDate);
-        ConfirmedReservation confirmedReservation = (ConfirmedReservation) new ConfirmedReservation().id(BOOKING_ID).email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(3)).endDate(now.plusDays(4));
 
         try {
-            reservationService.updateReservation(confirmedReservation, reservationDates);
+            reservationService.updateReservation(BOOKING_ID, reservationDates, null);
             fail();
         } catch (ValidationException x) {
             Assertions.assertEquals("Start date has to be at least 1 day(s) ahead of arrival", x.getMessage());
@@ -210,10 +647,9 @@ class ReservationServiceTest {
         LocalDate startDate = now.plusDays(1);
         LocalDate endDate = now.plusDays(4);
         ReservationDates reservationDates = new ReservationDates().startDate(startDate).endDate(endDate);
-        ConfirmedReservation confirmedReservation = (ConfirmedReservation) new ConfirmedReservation().id(BOOKING_ID).email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(3)).endDate(now.plusDays(4));
 
         try {
-            reservationService.updateReservation(confirmedReservation, reservationDates);
+            reservationService.updateReservation(BOOKING_ID, reservationDates, null);
             fail();
         } catch (ValidationException x) {
             Assertions.assertEquals("You can't book more than 3 day(s) at a time", x.getMessage());
@@ -225,10 +661,9 @@ class ReservationServiceTest {
         LocalDate startDate = now.plusDays(35);
         LocalDate endDate = now.plusDays(37);
         ReservationDates reservationDates = new ReservationDates().startDate(startDate).endDate(endDate);
-        ConfirmedReservation confirmedReservation = (ConfirmedReservation) new ConfirmedReservation().id(BOOKING_ID).email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(3)).endDate(now.plusDays(4));
 
         try {
-            reservationService.updateReservation(confirmedReservation, reservationDates);
+            reservationService.updateReservation(BOOKING_ID, reservationDates, null);
             fail();
         } catch (ValidationException x) {
             Assertions.assertEquals("Start date has to be no more than 30 day(s) ahead of arrival", x.getMessage());
@@ -240,11 +675,73 @@ class ReservationServiceTest {
         LocalDate startDate = now.plusDays(1);
         LocalDate endDate = now.plusDays(2);
         ReservationDates reservationDates = new ReservationDates().startDate(startDate).endDate(endDate);
-        ConfirmedReservation confirmedReservation = (ConfirmedReservation) new ConfirmedReservation().id(BOOKING_ID).email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(3)).endDate(now.plusDays(4));
+        ConfirmedReservation previous = confirmedReservation(now.plusDays(3), now.plusDays(4));
+        ConfirmedReservation current = confirmedReservation(startDate, endDate);
+        when(jdbcTemplate.query(eq(ReservationQueries.UPDATE_RESERVATION_DATES.getSql()), any(RowMapper.class), eq(BOOKING_ID), eq(startDate), eq(endDate), any(SqlParameterValue.class)))
+                .thenReturn(Collections.singletonList(new ReservationMutation(new VersionedReservation(current, 2), previous, true)));
+
+        Optional<VersionedReservation> updated = reservationService.updateReservation(BOOKING_ID, reservationDates, 1L);
+
+        Assertions.assertEquals(Optional.of(new VersionedReservation(current, 2)), updated);
+        ArgumentCaptor<ReservationChangedEvent> event = ArgumentCaptor.forClass(ReservationChangedEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        Assertions.assertEquals(Optional.of(previous), event.getValue().getPrevious());
+        Assertions.assertEquals(Optional.of(current), event.getValue().getCurrent());
+    }
+
+    @Test
+    void updateReservationModified() {
+        LocalDate startDate = now.plusDays(1);
+        LocalDate endDate = now.plusDays(2);
+        ConfirmedReservation confirmedReservation = confirmedReservation(now.plusDays(3), now.plusDays(4));
+        when(jdbcTemplate.query(eq(ReservationQueries.UPDATE_RESERVATION_DATES.getSql()), any(RowMapper.class), eq(BOOKING_ID), eq(startDate), eq(endDate), any(SqlParameterValue.class)))
+                .thenReturn(Collections.singletonList(new ReservationMutation(new VersionedReservation(confirmedReservation, 5), confirmedReservation, false)));
 
-        reservationService.updateReservation(confirmedReservation, reservationDates);
+        PreconditionFailedException x = Assertions.assertThrows(PreconditionFailedException.class, () ->
+                reservationService.updateReservation(BOOKING_ID, new ReservationDates().startDate(startDate).endDate(endDate), 4L));
 
-        verify(jdbcTemplate).update(anyString(), anyString(), anyString());
+        Assertions.assertEquals(5, x.getCurrentVersion());
+        verify(eventPublisher, never()).publishEvent(any(ReservationChangedEvent.class));
+    }
+
+    @Test
+    void updateReservationDatesTaken() {
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any())).thenReturn(Arrays.asList(
+                new Reservation().siteId(SITE_ID).startDate(now.plusDays(1)).endDate(now.plusDays(3)),
+                new Reservation().siteId(SITE_ID).startDate(now.plusDays(4)).endDate(now.plusDays(6))));
+        when(jdbcTemplate.query(eq(ReservationQueries.RESERVATION_BY_ID.getSql()), any(RowMapper.class), eq(BOOKING_ID)))
+                .thenReturn(Collections.singletonList(new VersionedReservation(confirmedReservation(now.plusDays(4), now.plusDays(6)), 1)));
+        // Only a cached reservation is checked against the calendar
+        reservationService.getReservation(BOOKING_ID);
+
+        // Overlapping its own dates only
+        reservationService.updateReservation(BOOKING_ID, new ReservationDates().startDate(now.plusDays(3)).endDate(now.plusDays(5)), null);
+        ConflictException x = Assertions.assertThrows(ConflictException.class, () ->
+                reservationService.updateReservation(BOOKING_ID, new ReservationDates().startDate(now.plusDays(2)).endDate(now.plusDays(4)), null));
+
+        Assertions.assertEquals("Unable to update reservationDates, dates overlap with existing reservationDates", x.getMessage());
+        verify(jdbcTemplate, times(1)).query(eq(ReservationQueries.UPDATE_RESERVATION_DATES.getSql()), any(RowMapper.class), any(), any(), any(), any());
+    }
+
+    @Test
+    void updateReservationDatesTakenCalendarNotCurrent() {
+        occupancyCalendar.setCurrent(false);
+        when(jdbcTemplate.query(eq(ReservationQueries.OCCUPANCY.getSql()), any(RowMapper.class), any())).thenReturn(Arrays.asList(
+                new Reservation().siteId(SITE_ID).startDate(now.plusDays(1)).endDate(now.plusDays(3)),
+                new Reservation().siteId(SITE_ID).startDate(now.plusDays(4)).endDate(now.plusDays(6))));
+        when(jdbcTemplate.query(eq(ReservationQueries.RESERVATION_BY_ID.getSql()), any(RowMapper.class), eq(BOOKING_ID)))
+                .thenReturn(Collections.singletonList(new VersionedReservation(confirmedReservation(now.plusDays(4), now.plusDays(6)), 1)));
+        reservationService.getReservation(BOOKING_ID);
+
+        reservationService.updateReservation(BOOKING_ID, new ReservationDates().startDate(now.plusDays(2)).endDate(now.plusDays(4)), null);
+
+        // Left for the database to decide
+        verify(jdbcTemplate, times(1)).query(eq(ReservationQueries.UPDATE_RESERVATION_DATES.getSql()), any(RowMapper.class), any(), any(), any(), any());
+    }
+
+    private ConfirmedReservation confirmedReservation(LocalDate startDate, LocalDate endDate) {
+        return (ConfirmedReservation) new ConfirmedReservation().id(BOOKING_ID).email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID)
+                .startDate(startDate).endDate(endDate);
     }
 
     @Test
@@ -256,6 +753,7 @@ class ReservationServiceTest {
         when(resultSet.getString(3)).thenReturn(FULL_NAME);
         when(resultSet.getDate(4)).thenReturn(java.sql.Date.valueOf(now));
         when(resultSet.getDate(5)).thenReturn(java.sql.Date.valueOf(now.plusDays(1)));
+        when(resultSet.getLong(6)).thenReturn(SITE_ID);
 
         ConfirmedReservation confirmedReservation = ReservationService.ConfirmedReservationMapper.INSTANCE.mapRow(resultSet, 0);
     
@@ -265,5 +763,11 @@ class ReservationServiceTest {
         Assertions.assertEquals(EMAIL, confirmedReservation.getEmail());
         Assertions.assertEquals(now, confirmedReservation.getStartDate());
         Assertions.assertEquals(now.plusDays(1), confirmedReservation.getEndDate());
+        Assertions.assertEquals(SITE_ID, confirmedReservation.getSiteId());
+    }
+
+    private ConfirmedReservation reservation(int startDay, int endDay) {
+        return (ConfirmedReservation) new ConfirmedReservation().id(BOOKING_ID).email(EMAIL).fullName(FULL_NAME).siteId(SITE_ID)
+                .startDate(now.plusDays(startDay)).endDate(now.plusDays(endDay));
     }
-}
\ No newline at end of file
+}
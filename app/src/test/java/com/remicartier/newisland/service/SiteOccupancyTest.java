@@ -0,0 +1,115 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.Reservation;
+import com.remicartier.model.Site;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Collectors;
+
+class SiteOccupancyTest {
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+
+    private SiteOccupancy siteOccupancy;
+
+    @BeforeEach
+    void setup() {
+        siteOccupancy = new SiteOccupancy(Arrays.asList(site(30), site(10), site(20)));
+        siteOccupancy.mark(reservation(10, 1, 3), true);
+        siteOccupancy.mark(reservation(20, 2, 4), true);
+    }
+
+    @Test
+    void getSites() {
+        Assertions.assertEquals(Arrays.asList(10L, 20L, 30L), siteOccupancy.getSites().stream().map(Site::getId).collect(Collectors.toList()));
+        Assertions.assertTrue(siteOccupancy.hasSite(20L));
+        Assertions.assertFalse(siteOccupancy.hasSite(40L));
+    }
+
+    @Test
+    void getVacancy() {
+        Assertions.assertEquals(Arrays.asList(now, now.plusDays(4), now.plusDays(5)), siteOccupancy.getVacancy(10L, now, now.plusDays(5)));
+        Assertions.assertEquals(Arrays.asList(now, now.plusDays(1), now.plusDays(5)), siteOccupancy.getVacancy(20L, now, now.plusDays(5)));
+        Assertions.assertEquals(6, siteOccupancy.getVacancy(null, now, now.plusDays(5)).size());
+        Assertions.assertTrue(siteOccupancy.getVacancy(40L, now, now.plusDays(5)).isEmpty());
+    }
+
+    @Test
+    void getVacancyAllSitesBooked() {
+        siteOccupancy.mark(reservation(30, 2, 3), true);
+
+        Assertions.assertEquals(Arrays.asList(now, now.plusDays(1), now.plusDays(4), now.plusDays(5)), siteOccupancy.getVacancy(null, now, now.plusDays(5)));
+    }
+
+    @Test
+    void getVacantSites() {
+        Assertions.assertEquals(Arrays.asList(20L, 30L), ids(siteOccupancy.getVacantSites(now, now.plusDays(1))));
+        Assertions.assertEquals(Collections.singletonList(30L), ids(siteOccupancy.getVacantSites(now.plusDays(3), now.plusDays(3))));
+        Assertions.assertEquals(Arrays.asList(10L, 20L, 30L), ids(siteOccupancy.getVacantSites(now.plusDays(5), now.plusDays(6))));
+    }
+
+    @Test
+    void mark() {
+        Assertions.assertFalse(siteOccupancy.mark(reservation(40, 1, 2), true));
+
+        siteOccupancy.mark(reservation(10, 1, 3), false);
+
+        Assertions.assertEquals(Arrays.asList(10L, 30L), ids(siteOccupancy.getVacantSites(now.plusDays(2), now.plusDays(3))));
+    }
+
+    @Test
+    void isTaken() {
+        Assertions.assertTrue(siteOccupancy.isTaken(10L, now, now.plusDays(2), null));
+        // Check-out and check-in on the same day
+        Assertions.assertFalse(siteOccupancy.isTaken(10L, now.plusDays(3), now.plusDays(5), null));
+        Assertions.assertFalse(siteOccupancy.isTaken(30L, now, now.plusDays(5), null));
+        Assertions.assertFalse(siteOccupancy.isTaken(40L, now, now.plusDays(5), null));
+        // Moving the reservation of site 10 by a day
+        Assertions.assertFalse(siteOccupancy.isTaken(10L, now.plusDays(2), now.plusDays(4), reservation(10, 1, 3)));
+        Assertions.assertTrue(siteOccupancy.isTaken(20L, now.plusDays(1), now.plusDays(3), reservation(20, 3, 4)));
+    }
+
+    @Test
+    void replaceDays() {
+        // Site 10's reservation moved by a day
+        SiteOccupancy other = new SiteOccupancy(Arrays.asList(site(10), site(20), site(30)));
+        other.mark(reservation(10, 2, 4), true);
+        other.mark(reservation(20, 2, 4), true);
+
+        Assertions.assertTrue(siteOccupancy.sameSites(other));
+        Assertions.assertTrue(siteOccupancy.replaceDays(other, now.plusDays(1), now.plusDays(4)));
+        Assertions.assertTrue(siteOccupancy.sameAs(other));
+        Assertions.assertFalse(siteOccupancy.replaceDays(other, now.plusDays(1), now.plusDays(4)));
+        Assertions.assertFalse(siteOccupancy.sameSites(new SiteOccupancy(Collections.singletonList(site(10)))));
+    }
+
+    @Test
+    void pickFreeSite() {
+        Random random = new Random(42);
+        Set<Long> picked = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            picked.add(siteOccupancy.pickFreeSite(now.plusDays(3), now.plusDays(4), siteId -> false, random).orElseThrow());
+        }
+
+        // Site 10 checks out on day 3, so any site but 20 can take that night
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(10L, 30L)), picked);
+        Assertions.assertEquals(OptionalLong.of(30L), siteOccupancy.pickFreeSite(now.plusDays(3), now.plusDays(4), siteId -> siteId == 10L, random));
+        Assertions.assertTrue(siteOccupancy.pickFreeSite(now.plusDays(2), now.plusDays(3), siteId -> siteId == 30L, random).isEmpty());
+    }
+
+    private List<Long> ids(List<Site> sites) {
+        return sites.stream().map(Site::getId).collect(Collectors.toList());
+    }
+
+    private Site site(long id) {
+        return new Site().id(id).name("Site " + id);
+    }
+
+    private Reservation reservation(long siteId, int startDay, int endDay) {
+        return (Reservation) new Reservation().siteId(siteId).startDate(now.plusDays(startDay)).endDate(now.plusDays(endDay));
+    }
+}
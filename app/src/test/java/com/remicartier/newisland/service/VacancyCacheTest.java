@@ -0,0 +1,108 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+class VacancyCacheTest {
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+    private final VacancyWindow window1 = new VacancyWindow(now, now.plusDays(10), null);
+    private final VacancyWindow window2 = new VacancyWindow(now.plusDays(20), now.plusDays(30), null);
+
+    private VacancyCache vacancyCache;
+    private Function<VacancyWindow, List<LocalDate>> loader;
+
+    @BeforeEach
+    void setup() {
+        vacancyCache = new VacancyCache(100);
+        loader = mock(Function.class);
+        when(loader.apply(any())).thenAnswer(invocationOnMock -> new ArrayList<>(Collections.singletonList(now)));
+    }
+
+    @Test
+    void get() {
+        List<LocalDate> vacancy = vacancyCache.get(window1, loader);
+
+        Assertions.assertSame(vacancy, vacancyCache.get(window1, loader));
+        verify(loader, times(1)).apply(window1);
+    }
+
+    @Test
+    void onReservationChangedEvictsOverlappingWindows() {
+        vacancyCache.get(window1, loader);
+        vacancyCache.get(window2, loader);
+        long version = vacancyCache.getVersion();
+
+        vacancyCache.onReservationChanged(ReservationChangedEvent.booked((ConfirmedReservation) new ConfirmedReservation().startDate(now.plusDays(9)).endDate(now.plusDays(11))));
+        vacancyCache.get(window1, loader);
+        vacancyCache.get(window2, loader);
+
+        Assertions.assertEquals(version + 1, vacancyCache.getVersion());
+        verify(loader, times(2)).apply(window1);
+        verify(loader, times(1)).apply(window2);
+    }
+
+    @Test
+    void onOccupancyRefreshedEvictsEveryWindow() {
+        vacancyCache.get(window1, loader);
+        vacancyCache.get(window2, loader);
+        long version = vacancyCache.getVersion();
+
+        vacancyCache.onOccupancyRefreshed(new OccupancyRefreshedEvent());
+        vacancyCache.get(window1, loader);
+        vacancyCache.get(window2, loader);
+
+        Assertions.assertEquals(version + 1, vacancyCache.getVersion());
+        verify(loader, times(2)).apply(window1);
+        verify(loader, times(2)).apply(window2);
+    }
+
+    @Test
+    void onReservationChangedNeverPairsNewETagWithStaleVacancy() {
+        List<LocalDate> stale = vacancyCache.get(window1, loader);
+        AtomicReference<String> eTagDuringChange = new AtomicReference<>();
+        AtomicReference<List<LocalDate>> vacancyDuringChange = new AtomicReference<>();
+        // A request served while the change is being applied: its ETag is taken, then its vacancy read
+        ConfirmedReservation confirmedReservation = new ConfirmedReservation() {
+            @Override
+            public LocalDate getStartDate() {
+                if (eTagDuringChange.get() == null) {
+                    eTagDuringChange.set(vacancyCache.getETag(window1));
+                    vacancyDuringChange.set(vacancyCache.get(window1, loader));
+                }
+                return super.getStartDate();
+            }
+        };
+        confirmedReservation.startDate(now.plusDays(1)).endDate(now.plusDays(2));
+
+        vacancyCache.onReservationChanged(ReservationChangedEvent.booked(confirmedReservation));
+
+        Assertions.assertSame(stale, vacancyDuringChange.get());
+        Assertions.assertNotEquals(vacancyCache.getETag(window1), eTagDuringChange.get());
+    }
+
+    @Test
+    void getETag() {
+        String eTag = vacancyCache.getETag(window1);
+
+        Assertions.assertEquals(eTag, vacancyCache.getETag(window1));
+        Assertions.assertNotEquals(eTag, vacancyCache.getETag(window2));
+
+        vacancyCache.onReservationChanged(ReservationChangedEvent.deleted((ConfirmedReservation) new ConfirmedReservation().startDate(now.plusDays(40)).endDate(now.plusDays(41))));
+
+        Assertions.assertNotEquals(eTag, vacancyCache.getETag(window1));
+    }
+}
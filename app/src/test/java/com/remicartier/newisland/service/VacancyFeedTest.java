@@ -0,0 +1,93 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.Reservation;
+import com.remicartier.model.Site;
+import com.remicartier.model.VacancyDelta;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class VacancyFeedTest {
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+
+    private ReservationService reservationService;
+    private OccupancyCalendar occupancyCalendar;
+    private ApplicationEventPublisher eventPublisher;
+    private VacancyFeed vacancyFeed;
+
+    @BeforeEach
+    void setup() {
+        reservationService = mock(ReservationService.class);
+        occupancyCalendar = mock(OccupancyCalendar.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        vacancyFeed = new VacancyFeed(reservationService, occupancyCalendar, new DataSourceProperties(), eventPublisher, false, Duration.ZERO, Duration.ZERO);
+        when(reservationService.getVacancyWindow(null, null, null)).thenReturn(new VacancyWindow(now, now.plusDays(30), null));
+        SiteOccupancy siteOccupancy = new SiteOccupancy(Arrays.asList(new Site().id(1L), new Site().id(2L)));
+        // Site 1 taken from day 5 to day 6 (check-out), site 2 from day 6 to day 7
+        siteOccupancy.mark((Reservation) new Reservation().siteId(1L).startDate(now.plusDays(5)).endDate(now.plusDays(6)), true);
+        siteOccupancy.mark((Reservation) new Reservation().siteId(2L).startDate(now.plusDays(6)).endDate(now.plusDays(7)), true);
+        when(reservationService.getSiteOccupancyFromDatabase(any(), any())).thenReturn(siteOccupancy);
+    }
+
+    @Test
+    void apply() {
+        vacancyFeed.apply(Arrays.asList(payload(1, 5, 6), payload(1, 3, 4)));
+
+        VacancyChangedEvent event = publishedEvent();
+        Assertions.assertEquals(1, event.getId());
+        Assertions.assertFalse(event.isReset());
+        Assertions.assertEquals(2, event.getDeltas().size());
+        VacancyDelta anySite = event.getDeltas().get(0);
+        Assertions.assertNull(anySite.getSiteId());
+        Assertions.assertEquals(Arrays.asList(now.plusDays(3), now.plusDays(4), now.plusDays(5)), anySite.getAvailable());
+        Assertions.assertEquals(Collections.singletonList(now.plusDays(6)), anySite.getUnavailable());
+        VacancyDelta site1 = event.getDeltas().get(1);
+        Assertions.assertEquals(1L, site1.getSiteId());
+        Assertions.assertEquals(Arrays.asList(now.plusDays(3), now.plusDays(4)), site1.getAvailable());
+        Assertions.assertEquals(Arrays.asList(now.plusDays(5), now.plusDays(6)), site1.getUnavailable());
+        verify(reservationService).getSiteOccupancyFromDatabase(now.plusDays(2), now.plusDays(6));
+        verify(occupancyCalendar).replaceDays(any(), eq(now.plusDays(3)), eq(now.plusDays(6)));
+    }
+
+    @Test
+    void applyClamped() {
+        vacancyFeed.apply(Arrays.asList(payload(2, -3, 0), payload(2, 29, 32)));
+
+        VacancyDelta site2 = publishedEvent().getDeltas().get(1);
+        Assertions.assertEquals(Arrays.asList(now, now.plusDays(29), now.plusDays(30)), site2.getAvailable());
+        verify(reservationService).getSiteOccupancyFromDatabase(now.minusDays(1), now.plusDays(30));
+        verify(occupancyCalendar).replaceDays(any(), eq(now), eq(now.plusDays(30)));
+    }
+
+    @Test
+    void applyOutsideWindow() {
+        vacancyFeed.apply(Arrays.asList(payload(1, -5, -2), payload(1, 40, 41), "garbage"));
+
+        verify(eventPublisher, never()).publishEvent(any());
+        verify(reservationService, never()).getSiteOccupancyFromDatabase(any(), any());
+        verifyNoInteractions(occupancyCalendar);
+    }
+
+    private VacancyChangedEvent publishedEvent() {
+        ArgumentCaptor<VacancyChangedEvent> captor = ArgumentCaptor.forClass(VacancyChangedEvent.class);
+        verify(eventPublisher).publishEvent(captor.capture());
+        return captor.getValue();
+    }
+
+    private String payload(long siteId, int startDay, int endDay) {
+        return siteId + "," + now.plusDays(startDay) + "," + now.plusDays(endDay);
+    }
+}
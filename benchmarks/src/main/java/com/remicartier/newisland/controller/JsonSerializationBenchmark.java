@@ -0,0 +1,52 @@
+package com.remicartier.newisland.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.remicartier.model.ConfirmedReservation;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of the payloads returned by the controllers, with the same ObjectMapper settings as Spring Boot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonSerializationBenchmark {
+    private ObjectMapper objectMapper;
+    private ConfirmedReservation confirmedReservation;
+    private List<LocalDate> vacancy;
+
+    @Setup
+    public void setup() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+        LocalDate now = LocalDate.now(Clock.systemUTC());
+        confirmedReservation = (ConfirmedReservation) new ConfirmedReservation().id(UUID.randomUUID().toString())
+                .email("user@domain.com").fullName("John Doe").startDate(now.plusDays(1)).endDate(now.plusDays(3));
+        vacancy = new ArrayList<>();
+        for (LocalDate day = now; !day.isAfter(now.plusMonths(1)); day = day.plusDays(1)) {
+            vacancy.add(day);
+        }
+    }
+
+    @Benchmark
+    public byte[] confirmedReservation() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(confirmedReservation);
+    }
+
+    @Benchmark
+    public byte[] vacancy() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(vacancy);
+    }
+}
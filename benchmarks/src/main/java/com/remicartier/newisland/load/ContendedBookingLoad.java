@@ -0,0 +1,281 @@
+package com.remicartier.newisland.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.remicartier.model.Reservation;
+import com.remicartier.newisland.NewIslandApplication;
+import com.remicartier.newisland.exception.ValidationException;
+import com.remicartier.newisland.service.BookingPipeline;
+import com.remicartier.newisland.service.OccupancyCalendar;
+import com.remicartier.newisland.service.OccupancyRefreshedEvent;
+import com.remicartier.newisland.service.PersonIdCache;
+import com.remicartier.newisland.service.ReservationService;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load suite reproducing the burst of bookings happening when a date opens {@code app.maxDaysAhead} days out.
+ * <p>
+ * Each round empties the reservation table then fires {@code load.requests} concurrent {@link BookingPipeline#book}
+ * calls from {@code load.concurrency} threads, which are {@link ReservationService#bookReservation} ones unless
+ * {@code --app.booking.pipeline.enabled=true}. A proportion {@code load.overlap} of them target the same newly opened
+ * night, the others a random stay within the bookable window. It reports successful bookings per second, booking
+ * latency percentiles, the conflict rate and how long bookings waited for a pooled connection.
+ * <p>
+ * Settings are system properties:
+ * <ul>
+ *     <li>{@code load.requests} bookings per round, 500 by default</li>
+ *     <li>{@code load.concurrency} threads issuing bookings, 64 by default</li>
+ *     <li>{@code load.overlap} proportion of bookings on the contended night, 0.9 by default</li>
+ *     <li>{@code load.guests} distinct guests making the bookings, 100 by default</li>
+ *     <li>{@code load.sites} sites the bookings are spread on, created when missing, 1 by default</li>
+ *     <li>{@code load.rounds} number of rounds, 5 by default</li>
+ *     <li>{@code load.jdbcUrl}, {@code load.username}, {@code load.password} database to use, a Postgres container is
+ *     started when undefined</li>
+ *     <li>{@code load.truncate} has to be true for a {@code load.jdbcUrl} database, whose reservations are all deleted
+ *     by each round</li>
+ *     <li>{@code load.output} optional file where to write the results as JSON</li>
+ * </ul>
+ * Program arguments are handed to Spring, e.g. {@code --app.datasource.write.maximum-pool-size=20}.
+ */
+@Slf4j
+public class ContendedBookingLoad {
+    private final int requests = Integer.getInteger("load.requests", 500);
+    private final int concurrency = Integer.getInteger("load.concurrency", 64);
+    private final double overlap = Double.parseDouble(System.getProperty("load.overlap", "0.9"));
+    private final int guests = Integer.getInteger("load.guests", 100);
+    private final int sites = Integer.getInteger("load.sites", 1);
+    private final int rounds = Integer.getInteger("load.rounds", 5);
+    private final LatencyRecorder poolWait = new LatencyRecorder();
+    private final LatencyRecorder bookingLatency = new LatencyRecorder();
+
+    public static void main(String[] args) throws Exception {
+        new ContendedBookingLoad().run(args);
+    }
+
+    void run(String[] args) throws InterruptedException, IOException {
+        PostgreSQLContainer<?> container = null;
+        String jdbcUrl = System.getProperty("load.jdbcUrl");
+        String username = System.getProperty("load.username", "postgres");
+        String password = System.getProperty("load.password", "password");
+        if (jdbcUrl == null) {
+            container = new PostgreSQLContainer<>("postgres:12").withDatabaseName("new_island").withUsername(username).withPassword(password);
+            container.start();
+            jdbcUrl = container.getJdbcUrl();
+        } else {
+            requireTruncate();
+        }
+        List<String> springArgs = new ArrayList<>(Arrays.asList(
+                "--spring.datasource.url=" + jdbcUrl,
+                "--spring.datasource.username=" + username,
+                "--spring.datasource.password=" + password));
+        springArgs.addAll(Arrays.asList(args));
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(NewIslandApplication.class)
+                .web(WebApplicationType.NONE)
+                .initializers(applicationContext -> applicationContext.getBeanFactory().addBeanPostProcessor(new PoolWaitRecorder(poolWait)))
+                .run(springArgs.toArray(new String[0]))) {
+            createSites(context.getBean(JdbcTemplate.class));
+            List<RoundResult> results = new ArrayList<>();
+            for (int round = 1; round <= rounds; round++) {
+                results.add(runRound(context, round));
+            }
+            report(results);
+        } finally {
+            if (container != null) {
+                container.stop();
+            }
+        }
+    }
+
+    /**
+     * Only the container is ours to empty
+     *
+     * @throws IllegalStateException unless {@code load.truncate} is true
+     */
+    static void requireTruncate() {
+        if (!Boolean.getBoolean("load.truncate")) {
+            throw new IllegalStateException("Every reservation of load.jdbcUrl would be deleted, set -Dload.truncate=true to allow it");
+        }
+    }
+
+    /**
+     * Empties the reservation table. That bypasses the service: the in-memory calendar and the caches have to be told
+     */
+    static void truncateReservations(ConfigurableApplicationContext context) {
+        context.getBean(JdbcTemplate.class).execute("TRUNCATE reservation");
+        context.getBean(OccupancyCalendar.class).reload();
+        // Evicts the vacancy and reservation caches
+        context.publishEvent(new OccupancyRefreshedEvent());
+        context.getBean(PersonIdCache.class).invalidateAll();
+    }
+
+    private void createSites(JdbcTemplate jdbcTemplate) {
+        Integer existingSites = jdbcTemplate.queryForObject("SELECT count(*) FROM site", Integer.class);
+        if (existingSites != null && existingSites < sites) {
+            jdbcTemplate.update("INSERT INTO site (name) SELECT 'Load site ' || n FROM generate_series(?, ?) n", existingSites + 1, sites);
+        }
+    }
+
+    private RoundResult runRound(ConfigurableApplicationContext context, int round) throws InterruptedException {
+        BookingPipeline bookingPipeline = context.getBean(BookingPipeline.class);
+        Environment environment = context.getEnvironment();
+        int minDaysAhead = environment.getRequiredProperty("app.minDaysAhead", Integer.class);
+        int maxDaysAhead = environment.getRequiredProperty("app.maxDaysAhead", Integer.class);
+        int maxConsecutiveDays = environment.getRequiredProperty("app.maxConsecutiveDays", Integer.class);
+
+        truncateReservations(context);
+        poolWait.reset();
+        bookingLatency.reset();
+
+        LocalDate now = LocalDate.now(Clock.systemUTC());
+        LocalDate openedDate = now.plusDays(maxDaysAhead - 1);
+        Random random = new Random(round);
+        List<Reservation> reservations = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            LocalDate startDate;
+            LocalDate endDate;
+            if (random.nextDouble() < overlap) {
+                startDate = openedDate;
+                endDate = openedDate.plusDays(1);
+            } else {
+                startDate = now.plusDays(minDaysAhead + random.nextInt(maxDaysAhead - minDaysAhead));
+                endDate = startDate.plusDays(1 + random.nextInt(Math.max(1, maxConsecutiveDays - 1)));
+            }
+            int guest = random.nextInt(guests);
+            reservations.add((Reservation) new Reservation().email("guest" + guest + "@load.test").fullName("Guest " + guest)
+                    .startDate(startDate).endDate(endDate));
+        }
+
+        AtomicInteger booked = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        for (Reservation reservation : reservations) {
+            executorService.execute(() -> {
+                try {
+                    startSignal.await();
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    bookingPipeline.book(reservation);
+                    booked.incrementAndGet();
+                } catch (ValidationException x) {
+                    conflicts.incrementAndGet();
+                } catch (RuntimeException x) {
+                    log.warn("Booking failed", x);
+                    errors.incrementAndGet();
+                } finally {
+                    bookingLatency.record(System.nanoTime() - start);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        startSignal.countDown();
+        executorService.shutdown();
+        if (!executorService.awaitTermination(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Round " + round + " did not complete in time");
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        RoundResult result = new RoundResult();
+        result.round = round;
+        result.requests = requests;
+        result.booked = booked.get();
+        result.conflicts = conflicts.get();
+        result.errors = errors.get();
+        result.elapsedSeconds = elapsedSeconds;
+        result.bookingsPerSecond = booked.get() / elapsedSeconds;
+        result.conflictRate = (double) conflicts.get() / requests;
+        result.latencyP50Millis = bookingLatency.percentileMillis(50);
+        result.latencyP99Millis = bookingLatency.percentileMillis(99);
+        result.poolWaitP50Millis = poolWait.percentileMillis(50);
+        result.poolWaitP99Millis = poolWait.percentileMillis(99);
+        result.poolWaitMaxMillis = poolWait.maxMillis();
+        result.poolWaitTotalMillis = poolWait.totalMillis();
+        return result;
+    }
+
+    private void report(List<RoundResult> results) throws IOException {
+        System.out.printf("%nrequests=%d concurrency=%d overlap=%.2f guests=%d sites=%d%n", requests, concurrency, overlap, guests, sites);
+        System.out.printf("%5s %8s %9s %6s %10s %9s %9s %9s %10s %10s %10s%n", "round", "booked", "conflicts", "errors",
+                "booked/s", "p50(ms)", "p99(ms)", "conflict", "wait p50", "wait p99", "wait max");
+        for (RoundResult result : results) {
+            System.out.printf("%5d %8d %9d %6d %10.1f %9.2f %9.2f %8.1f%% %10.2f %10.2f %10.2f%n", result.round, result.booked,
+                    result.conflicts, result.errors, result.bookingsPerSecond, result.latencyP50Millis, result.latencyP99Millis,
+                    result.conflictRate * 100, result.poolWaitP50Millis, result.poolWaitP99Millis, result.poolWaitMaxMillis);
+        }
+        String output = System.getProperty("load.output");
+        if (output != null) {
+            Map<String, Object> document = new LinkedHashMap<>();
+            document.put("requests", requests);
+            document.put("concurrency", concurrency);
+            document.put("overlap", overlap);
+            document.put("guests", guests);
+            document.put("sites", sites);
+            document.put("rounds", results);
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(new File(output), document);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public static class RoundResult {
+        public int round;
+        public int requests;
+        public int booked;
+        public int conflicts;
+        public int errors;
+        public double elapsedSeconds;
+        public double bookingsPerSecond;
+        public double conflictRate;
+        public double latencyP50Millis;
+        public double latencyP99Millis;
+        public double poolWaitP50Millis;
+        public double poolWaitP99Millis;
+        public double poolWaitMaxMillis;
+        public double poolWaitTotalMillis;
+    }
+
+    /**
+     * Records how long each connection checkout waited on the Hikari pool.
+     */
+    static class PoolWaitRecorder implements BeanPostProcessor {
+        private final LatencyRecorder poolWait;
+
+        PoolWaitRecorder(LatencyRecorder poolWait) {
+            this.poolWait = poolWait;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof HikariDataSource) {
+                ((HikariDataSource) bean).setMetricsTrackerFactory((poolName, poolStats) -> new IMetricsTracker() {
+                    @Override
+                    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                        poolWait.record(elapsedAcquiredNanos);
+                    }
+                });
+            }
+            return bean;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.remicartier.newisland.load;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects durations in nanoseconds and reports percentiles over them.
+ */
+class LatencyRecorder {
+    private long[] values = new long[1024];
+    private int size;
+
+    synchronized void record(long nanos) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = nanos;
+    }
+
+    synchronized void reset() {
+        size = 0;
+    }
+
+    synchronized int count() {
+        return size;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value at that percentile, in milliseconds
+     */
+    synchronized double percentileMillis(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return toMillis(sorted[Math.max(0, Math.min(size - 1, index))]);
+    }
+
+    synchronized double maxMillis() {
+        return toMillis(Arrays.stream(values, 0, size).max().orElse(0));
+    }
+
+    synchronized double totalMillis() {
+        return toMillis(Arrays.stream(values, 0, size).sum());
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,84 @@
+package com.remicartier.newisland.load;
+
+import com.remicartier.newisland.NewIslandApplication;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.NestedExceptionUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Runs {@link VacancyPollingLoad} against the application twice, with requests on Tomcat's platform worker threads
+ * then on virtual threads ({@code app.virtualThreads.enabled}), and reports both runs. Each run starts its own
+ * application on a random port, from an empty reservation table.
+ * <p>
+ * Every {@link VacancyPollingLoad} setting applies to both runs, e.g. {@code -Dload.concurrency=2000} for thousands of
+ * concurrent pollers. The database is set as for {@link ContendedBookingLoad}, through {@code load.jdbcUrl},
+ * {@code load.username} and {@code load.password}, a Postgres container being started when undefined, and
+ * {@code load.truncate=true} being required for emptying an existing one. Program
+ * arguments are handed to Spring, e.g. {@code --app.vacancy.inMemory=false} to have every poll wait on Postgres.
+ * <p>
+ * The virtual thread run needs a Java 21 runtime, it is skipped otherwise.
+ */
+@Slf4j
+public class ThreadModeComparison {
+    public static void main(String[] args) throws Exception {
+        new ThreadModeComparison().run(args);
+    }
+
+    void run(String[] args) throws InterruptedException, IOException {
+        PostgreSQLContainer<?> container = null;
+        String jdbcUrl = System.getProperty("load.jdbcUrl");
+        String username = System.getProperty("load.username", "postgres");
+        String password = System.getProperty("load.password", "password");
+        if (jdbcUrl == null) {
+            container = new PostgreSQLContainer<>("postgres:12").withDatabaseName("new_island").withUsername(username).withPassword(password);
+            container.start();
+            jdbcUrl = container.getJdbcUrl();
+        } else {
+            ContendedBookingLoad.requireTruncate();
+        }
+        try {
+            VacancyPollingLoad load = new VacancyPollingLoad();
+            Map<String, Object> results = new LinkedHashMap<>();
+            for (boolean virtualThreads : new boolean[]{false, true}) {
+                String mode = virtualThreads ? "virtual" : "platform";
+                List<String> springArgs = new ArrayList<>(Arrays.asList(
+                        "--server.port=0",
+                        "--app.virtualThreads.enabled=" + virtualThreads,
+                        "--spring.datasource.url=" + jdbcUrl,
+                        "--spring.datasource.username=" + username,
+                        "--spring.datasource.password=" + password));
+                springArgs.addAll(Arrays.asList(args));
+                ConfigurableApplicationContext context;
+                try {
+                    context = new SpringApplicationBuilder(NewIslandApplication.class).run(springArgs.toArray(new String[0]));
+                } catch (RuntimeException x) {
+                    log.warn("Skipping the {} thread run, the application didn't start: {}", mode, NestedExceptionUtils.getMostSpecificCause(x).getMessage());
+                    continue;
+                }
+                try {
+                    ContendedBookingLoad.truncateReservations(context);
+                    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                    String contextPath = context.getEnvironment().getProperty("server.servlet.contextPath", "");
+                    String baseUrl = "http://localhost:" + port + contextPath;
+                    List<VacancyPollingLoad.RoundResult> modeResults = load.run(baseUrl);
+                    results.put(mode, modeResults);
+                    System.out.printf("%n%s threads:", mode);
+                    load.printResults(baseUrl, modeResults);
+                } finally {
+                    context.close();
+                }
+            }
+            load.writeResults(results);
+        } finally {
+            if (container != null) {
+                container.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.remicartier.newisland.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP load suite reproducing a polling burst on {@code GET /vacancy}, mixed with a few bookings, against a running
+ * server. Unlike {@link ContendedBookingLoad} it goes through the web stack, so that the servlet application and the
+ * reactive one can be compared side by side on the same database.
+ * <p>
+ * Each round fires {@code load.requests} requests, keeping {@code load.concurrency} of them in flight. A proportion
+ * {@code load.bookings} of them are {@code POST /reservations} of a random stay, the others ask for the vacancy of a
+ * random window, without {@code If-None-Match} so that every poll is answered in full. It reports requests per second,
+ * latency percentiles and the responses by status class.
+ * <p>
+ * Settings are system properties:
+ * <ul>
+ *     <li>{@code load.baseUrl} server to load, {@code http://localhost:8080/new-island} by default</li>
+ *     <li>{@code load.requests} requests per round, 5000 by default</li>
+ *     <li>{@code load.concurrency} requests in flight, 256 by default</li>
+ *     <li>{@code load.bookings} proportion of bookings, 0.05 by default</li>
+ *     <li>{@code load.guests} distinct guests making the bookings, 100 by default</li>
+ *     <li>{@code load.rounds} number of rounds, 3 by default</li>
+ *     <li>{@code load.output} optional file where to write the results as JSON</li>
+ * </ul>
+ */
+public class VacancyPollingLoad {
+    private final int requests = Integer.getInteger("load.requests", 5000);
+    private final int concurrency = Integer.getInteger("load.concurrency", 256);
+    private final double bookings = Double.parseDouble(System.getProperty("load.bookings", "0.05"));
+    private final int guests = Integer.getInteger("load.guests", 100);
+    private final int rounds = Integer.getInteger("load.rounds", 3);
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = System.getProperty("load.baseUrl", "http://localhost:8080/new-island");
+        VacancyPollingLoad load = new VacancyPollingLoad();
+        List<RoundResult> results = load.run(baseUrl);
+        load.printResults(baseUrl, results);
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("baseUrl", baseUrl);
+        document.put("rounds", results);
+        load.writeResults(document);
+    }
+
+    /**
+     * @param baseUrl server to load, e.g. {@code http://localhost:8080/new-island}
+     */
+    List<RoundResult> run(String baseUrl) throws InterruptedException {
+        List<RoundResult> results = new ArrayList<>();
+        for (int round = 1; round <= rounds; round++) {
+            results.add(runRound(URI.create(baseUrl + "/"), round));
+        }
+        return results;
+    }
+
+    private RoundResult runRound(URI baseUrl, int round) throws InterruptedException {
+        latency.reset();
+        LocalDate now = LocalDate.now(Clock.systemUTC());
+        Random random = new Random(round);
+        List<HttpRequest> httpRequests = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            LocalDate startDate = now.plusDays(1 + random.nextInt(28));
+            if (random.nextDouble() < bookings) {
+                int guest = random.nextInt(guests);
+                String body = String.format("{\"email\":\"guest%d@load.test\",\"fullName\":\"Guest %d\",\"startDate\":\"%s\",\"endDate\":\"%s\"}",
+                        guest, guest, startDate, startDate.plusDays(1 + random.nextInt(2)));
+                httpRequests.add(HttpRequest.newBuilder(baseUrl.resolve("reservations"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build());
+            } else {
+                httpRequests.add(HttpRequest.newBuilder(baseUrl.resolve("vacancy?startDate=" + startDate + "&endDate=" + startDate.plusDays(7)))
+                        .GET()
+                        .build());
+            }
+        }
+
+        Map<Integer, AtomicInteger> statusClasses = new TreeMap<>();
+        for (int statusClass = 2; statusClass <= 5; statusClass++) {
+            statusClasses.put(statusClass, new AtomicInteger());
+        }
+        AtomicInteger errors = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+        long start = System.nanoTime();
+        for (HttpRequest httpRequest : httpRequests) {
+            inFlight.acquire();
+            long requestStart = System.nanoTime();
+            httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding()).whenComplete((response, x) -> {
+                latency.record(System.nanoTime() - requestStart);
+                if (x != null) {
+                    errors.incrementAndGet();
+                } else {
+                    statusClasses.getOrDefault(response.statusCode() / 100, errors).incrementAndGet();
+                }
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        if (!done.await(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Round " + round + " did not complete in time");
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        RoundResult result = new RoundResult();
+        result.round = round;
+        result.requests = requests;
+        result.ok = statusClasses.get(2).get();
+        result.clientErrors = statusClasses.get(4).get();
+        result.serverErrors = statusClasses.get(5).get();
+        result.errors = errors.get();
+        result.elapsedSeconds = elapsedSeconds;
+        result.requestsPerSecond = requests / elapsedSeconds;
+        result.latencyP50Millis = latency.percentileMillis(50);
+        result.latencyP99Millis = latency.percentileMillis(99);
+        result.latencyMaxMillis = latency.maxMillis();
+        return result;
+    }
+
+    void printResults(String baseUrl, List<RoundResult> results) {
+        System.out.printf("%nbaseUrl=%s requests=%d concurrency=%d bookings=%.2f guests=%d%n", baseUrl, requests, concurrency, bookings, guests);
+        System.out.printf("%5s %8s %8s %8s %6s %10s %9s %9s %9s%n", "round", "2xx", "4xx", "5xx", "errors", "req/s",
+                "p50(ms)", "p99(ms)", "max(ms)");
+        for (RoundResult result : results) {
+            System.out.printf("%5d %8d %8d %8d %6d %10.1f %9.2f %9.2f %9.2f%n", result.round, result.ok, result.clientErrors,
+                    result.serverErrors, result.errors, result.requestsPerSecond, result.latencyP50Millis, result.latencyP99Millis,
+                    result.latencyMaxMillis);
+        }
+    }
+
+    /**
+     * Writes the settings along with the given results to {@code load.output}, if defined
+     */
+    void writeResults(Map<String, Object> results) throws IOException {
+        String output = System.getProperty("load.output");
+        if (output != null) {
+            Map<String, Object> document = new LinkedHashMap<>();
+            document.put("requests", requests);
+            document.put("concurrency", concurrency);
+            document.put("bookings", bookings);
+            document.put("guests", guests);
+            document.putAll(results);
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(new File(output), document);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public static class RoundResult {
+        public int round;
+        public int requests;
+        public int ok;
+        public int clientErrors;
+        public int serverErrors;
+        public int errors;
+        public double elapsedSeconds;
+        public double requestsPerSecond;
+        public double latencyP50Millis;
+        public double latencyP99Millis;
+        public double latencyMaxMillis;
+    }
+}
@@ -0,0 +1,57 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of one row of the reservation queries into a {@link ConfirmedReservation}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfirmedReservationMapperBenchmark {
+    private CachedRowSet resultSet;
+
+    @Setup
+    public void setup() throws SQLException {
+        LocalDate now = LocalDate.now(Clock.systemUTC());
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(6);
+        metaData.setColumnType(1, Types.VARCHAR);
+        metaData.setColumnType(2, Types.VARCHAR);
+        metaData.setColumnType(3, Types.VARCHAR);
+        metaData.setColumnType(4, Types.DATE);
+        metaData.setColumnType(5, Types.DATE);
+        metaData.setColumnType(6, Types.BIGINT);
+        resultSet = RowSetProvider.newFactory().createCachedRowSet();
+        resultSet.setMetaData(metaData);
+        resultSet.moveToInsertRow();
+        resultSet.updateString(1, UUID.randomUUID().toString());
+        resultSet.updateString(2, "user@domain.com");
+        resultSet.updateString(3, "John Doe");
+        resultSet.updateDate(4, java.sql.Date.valueOf(now.plusDays(1)));
+        resultSet.updateDate(5, java.sql.Date.valueOf(now.plusDays(3)));
+        resultSet.updateLong(6, 1L);
+        resultSet.insertRow();
+        resultSet.moveToCurrentRow();
+        resultSet.first();
+    }
+
+    @Benchmark
+    public ConfirmedReservation mapRow() throws SQLException {
+        return ReservationService.ConfirmedReservationMapper.INSTANCE.mapRow(resultSet, 0);
+    }
+}
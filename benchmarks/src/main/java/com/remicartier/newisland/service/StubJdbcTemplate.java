@@ -0,0 +1,32 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.Site;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.List;
+
+/**
+ * JdbcTemplate answering the site query with the same sites, and every other query with the same rows, so that
+ * benchmarks measure our code rather than Postgres.
+ */
+@SuppressWarnings("unchecked")
+class StubJdbcTemplate extends JdbcTemplate {
+    private final List<Site> sites;
+    private final List<?> rows;
+
+    StubJdbcTemplate(List<Site> sites, List<?> rows) {
+        this.sites = sites;
+        this.rows = rows;
+    }
+
+    @Override
+    public <T> List<T> query(String sql, RowMapper<T> rowMapper) {
+        return query(sql, rowMapper, new Object[0]);
+    }
+
+    @Override
+    public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+        return (List<T>) (ReservationQueries.SITES.getSql().equals(sql) ? sites : rows);
+    }
+}
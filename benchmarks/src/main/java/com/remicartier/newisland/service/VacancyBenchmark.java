@@ -0,0 +1,93 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.Reservation;
+import com.remicartier.model.Site;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vacancy computation over one month, from the in-memory calendar and from database rows, for varying proportions of
+ * booked days and numbers of sites. Also covers picking a free site for a booking.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VacancyBenchmark {
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+
+    /**
+     * Probability for a day to be the start of a reservation
+     */
+    @Param({"0", "0.25", "0.5", "1"})
+    public double density;
+
+    @Param({"1", "1000"})
+    public int sites;
+
+    private OccupancyCalendar occupancyCalendar;
+    private ReservationService reservationService;
+    private LocalDate endDate;
+
+    @Setup
+    public void setup() {
+        List<Site> siteList = new ArrayList<>(sites);
+        List<Reservation> reservations = new ArrayList<>();
+        Random random = new Random(42);
+        endDate = now.plusMonths(1);
+        for (long siteId = 1; siteId <= sites; siteId++) {
+            siteList.add(new Site().id(siteId).name("Site " + siteId));
+            for (LocalDate day = now.plusDays(1); day.isBefore(endDate); ) {
+                if (random.nextDouble() < density) {
+                    LocalDate checkOut = day.plusDays(1 + random.nextInt(3));
+                    reservations.add((Reservation) new Reservation().siteId(siteId).startDate(day).endDate(checkOut));
+                    day = checkOut;
+                } else {
+                    day = day.plusDays(1);
+                }
+            }
+        }
+        StubJdbcTemplate jdbcTemplate = new StubJdbcTemplate(siteList, reservations);
+        occupancyCalendar = new OccupancyCalendar(jdbcTemplate, event -> {
+        });
+        occupancyCalendar.reload();
+        reservationService = new ReservationService(jdbcTemplate, TransactionOperations.withoutTransaction(), occupancyCalendar, new VacancyCache(0), new PersonIdCache(jdbcTemplate, 0), new ReservationCache(0, Duration.ZERO), event -> {
+        }, false, 3, 1, 30);
+    }
+
+    @Benchmark
+    public List<LocalDate> inMemory() {
+        return occupancyCalendar.getVacancy(now, endDate);
+    }
+
+    @Benchmark
+    public List<LocalDate> inMemoryOneSite() {
+        return occupancyCalendar.getVacancy(1L, now, endDate);
+    }
+
+    @Benchmark
+    public List<Site> inMemoryVacantSites() {
+        return occupancyCalendar.getVacantSites(now.plusDays(10), now.plusDays(13));
+    }
+
+    @Benchmark
+    public OptionalLong inMemoryPickFreeSite() {
+        return occupancyCalendar.pickFreeSite(now.plusDays(10), now.plusDays(13), siteId -> false);
+    }
+
+    @Benchmark
+    public List<LocalDate> fromDatabaseRows() {
+        return reservationService.getVacancyFromDatabase(null, now, endDate);
+    }
+}
@@ -0,0 +1,42 @@
+package com.remicartier.newisland.service;
+
+import com.remicartier.model.Reservation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Business rules checked on every booking and update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidateReservationBenchmark {
+    private ReservationService reservationService;
+    private Reservation reservation;
+
+    @Setup
+    public void setup() {
+        StubJdbcTemplate jdbcTemplate = new StubJdbcTemplate(Collections.emptyList(), Collections.emptyList());
+        reservationService = new ReservationService(jdbcTemplate, TransactionOperations.withoutTransaction(), new OccupancyCalendar(jdbcTemplate, event -> {
+        }), new VacancyCache(0), new PersonIdCache(jdbcTemplate, 0), new ReservationCache(0, Duration.ZERO), event -> {
+        }, true, 3, 1, 30);
+        LocalDate now = LocalDate.now(Clock.systemUTC());
+        reservation = (Reservation) new Reservation().email("user@domain.com").fullName("John Doe").startDate(now.plusDays(5)).endDate(now.plusDays(7));
+    }
+
+    @Benchmark
+    public void validateReservation(Blackhole blackhole) {
+        reservationService.validateReservation(reservation);
+        blackhole.consume(reservation);
+    }
+}
@@ -0,0 +1,14 @@
+package com.remicartier.newisland.reactive;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * Non-blocking counterpart of the servlet application: same API contract, served by WebFlux on top of R2DBC.
+ */
+@SpringBootApplication
+public class NewIslandReactiveApplication {
+	public static void main(String[] args) {
+		SpringApplication.run(NewIslandReactiveApplication.class, args);
+	}
+}
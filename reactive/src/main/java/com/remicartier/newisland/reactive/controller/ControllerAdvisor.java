@@ -0,0 +1,37 @@
+package com.remicartier.newisland.reactive.controller;
+
+import com.remicartier.model.ErrorMessage;
+import com.remicartier.newisland.reactive.exception.ValidationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+
+@ControllerAdvice
+@Slf4j
+public class ControllerAdvisor {
+    @ExceptionHandler(ValidationException.class)
+    public ResponseEntity<ErrorMessage> handleValidationException(ValidationException ex) {
+        ErrorMessage errorMessage = new ErrorMessage();
+        errorMessage.message(ex.getMessage());
+        return new ResponseEntity<>(errorMessage, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Missing parameters, unreadable bodies and the like, which the servlet application gets answered by
+     * {@code ResponseEntityExceptionHandler}
+     */
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<?> handleResponseStatusException(ResponseStatusException ex) {
+        return new ResponseEntity<>(ex.getResponseHeaders(), ex.getStatus());
+    }
+
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<ErrorMessage> handleAnyException(Exception ex, ServerWebExchange exchange) {
+        log.warn("Request " + exchange.getRequest().getURI() + " returned ", ex);
+        return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+}
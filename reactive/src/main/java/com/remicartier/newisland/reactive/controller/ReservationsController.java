@@ -0,0 +1,104 @@
+package com.remicartier.newisland.reactive.controller;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Reservation;
+import com.remicartier.model.ReservationDates;
+import com.remicartier.model.ReservationResult;
+import com.remicartier.newisland.reactive.exception.ValidationException;
+import com.remicartier.newisland.reactive.service.ReservationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.text.MessageFormat;
+import java.util.List;
+
+/**
+ * The reservation operations of {@code api.yaml}, without its concurrency controls: {@code PATCH} and {@code DELETE}
+ * apply whatever the reservation's version, ignoring {@code If-Match}, and no {@code ETag} is sent. Bookings ignore
+ * {@code Idempotency-Key}, and holds aren't served, see the README.
+ */
+@Controller
+public class ReservationsController {
+    private final ReservationService reservationService;
+    private final int maxBatchSize;
+
+    @Autowired
+    public ReservationsController(ReservationService reservationService, @Value("${app.maxBatchSize:100}") int maxBatchSize) {
+        this.reservationService = reservationService;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @GetMapping(path = "/reservations", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Flux<ConfirmedReservation> getReservations(@RequestParam String email) {
+        return reservationService.getReservations(email);
+    }
+
+    @PostMapping(path = "/reservations", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Mono<ResponseEntity<ConfirmedReservation>> createReservation(@RequestBody Reservation reservation) {
+        validateReservation(reservation);
+        return reservationService.bookReservation(reservation).map(confirmedReservation -> new ResponseEntity<>(confirmedReservation, HttpStatus.CREATED));
+    }
+
+    @PostMapping(path = "/reservations/batch", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Mono<List<ReservationResult>> createReservations(@RequestBody List<Reservation> reservations) {
+        if (reservations.size() > maxBatchSize) {
+            throw new ValidationException(MessageFormat.format("You can''t book more than {0} reservation(s) at once", maxBatchSize));
+        }
+        return reservationService.bookReservations(reservations, this::validateReservation);
+    }
+
+    @GetMapping(path = "/reservations/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Mono<ResponseEntity<ConfirmedReservation>> getReservationInfo(@PathVariable(name = "id") String reservationId) {
+        return reservationService.getReservation(reservationId)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    @DeleteMapping(path = "/reservations/{id}")
+    public Mono<ResponseEntity<Void>> deleteReservation(@PathVariable(name = "id") String reservationId) {
+        return reservationService.deleteReservation(reservationId)
+                .map(deleted -> new ResponseEntity<Void>(deleted ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND));
+    }
+
+    @PatchMapping(path = "/reservations/{id}", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Mono<ResponseEntity<ConfirmedReservation>> updateReservation(@PathVariable(name = "id") String reservationId, @RequestBody ReservationDates reservationDates) {
+        validateReservation(reservationDates);
+        return reservationService.updateReservation(reservationId, reservationDates)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    // -- Using manual validation as the Model objects are generated and do not contain Validations
+
+    private void validateReservation(ReservationDates reservationDates) {
+        if (reservationDates.getStartDate() == null) {
+            throw new ValidationException("Field 'startDate' is undefined");
+        }
+        if (reservationDates.getEndDate() == null) {
+            throw new ValidationException("Field 'endDate' is undefined");
+        }
+    }
+
+    private void validateReservation(Reservation reservation) {
+        validateReservation((ReservationDates) reservation);
+        if (StringUtils.isEmpty(reservation.getEmail())) {
+            throw new ValidationException("Field 'email' is undefined");
+        }
+        if (StringUtils.isEmpty(reservation.getFullName())) {
+            throw new ValidationException("Field 'fullName' is undefined");
+        }
+    }
+}
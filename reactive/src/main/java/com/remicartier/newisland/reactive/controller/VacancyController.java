@@ -0,0 +1,48 @@
+package com.remicartier.newisland.reactive.controller;
+
+import com.remicartier.model.Site;
+import com.remicartier.newisland.reactive.service.ReservationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Controller
+public class VacancyController {
+    private final ReservationService reservationService;
+
+    @Autowired
+    public VacancyController(ReservationService reservationService) {
+        this.reservationService = reservationService;
+    }
+
+    @GetMapping(path = "/vacancy", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Mono<ResponseEntity<List<LocalDate>>> getVacancy(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                                                            @RequestParam(required = false) Long siteId, ServerWebExchange exchange) {
+        String eTag = reservationService.getVacancyETag(siteId, startDate, endDate);
+        if (exchange.checkNotModified(eTag)) {
+            // 304 was already set on the response
+            return Mono.empty();
+        }
+        return reservationService.getVacancy(siteId, startDate, endDate).map(vacancy -> ResponseEntity.ok().eTag(eTag).body(vacancy));
+    }
+
+    @GetMapping(path = "/vacancy/sites", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Flux<Site> getVacantSites(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        return reservationService.getVacantSites(startDate, endDate);
+    }
+}
@@ -0,0 +1,93 @@
+package com.remicartier.newisland.reactive.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Site;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+
+import java.time.LocalDate;
+import java.util.function.BiFunction;
+
+/**
+ * Every SQL statement run by {@link ReservationService}, with their row mappers. Same statements as the servlet
+ * application's, with R2DBC's positional {@code $n} bind markers.
+ * <p>
+ * Vacancy is computed by Postgres instead of an in-memory calendar: a day is unavailable on a site when it is either a
+ * booked night or a check-out day there, i.e. when a reservation overlaps {@code [day - 1, day]}, which the exclusion
+ * constraint's gist index answers.
+ */
+final class ReservationQueries {
+    private final static String CONFIRMED_RESERVATION_COLUMNS = "SELECT reservation.id,person.email,person.full_name,lower(reservation.duration) as start_date,upper(reservation.duration) as end_date,reservation.site_id FROM reservation JOIN person ON reservation.person_id=person.id";
+
+    final static BiFunction<Row, RowMetadata, ConfirmedReservation> CONFIRMED_RESERVATION_MAPPER = (row, metadata) -> (ConfirmedReservation) new ConfirmedReservation()
+            .id(row.get(0, String.class))
+            .email(row.get(1, String.class))
+            .fullName(row.get(2, String.class))
+            .siteId(row.get(5, Long.class))
+            .startDate(row.get(3, LocalDate.class))
+            .endDate(row.get(4, LocalDate.class));
+    final static BiFunction<Row, RowMetadata, Site> SITE_MAPPER = (row, metadata) -> new Site()
+            .id(row.get(0, Long.class))
+            .name(row.get(1, String.class));
+
+    /**
+     * Params: first day, last day (inclusive), site id or null for any site. A day is vacant when fewer sites than
+     * looked at are unavailable, so an unknown site is never vacant
+     */
+    final static String VACANCY = "SELECT day::date FROM generate_series($1::date, $2::date, interval '1 day') AS day"
+            + " WHERE (SELECT count(DISTINCT site_id) FROM reservation WHERE ($3::bigint IS NULL OR site_id=$3) AND duration && daterange(day::date - 1, day::date, '[]'))"
+            + " < (SELECT count(*) FROM site WHERE $3::bigint IS NULL OR id=$3)"
+            + " ORDER BY day";
+    /**
+     * Params: first day, last day (inclusive)
+     */
+    final static String VACANT_SITES = "SELECT site.id,site.name FROM site WHERE NOT EXISTS"
+            + " (SELECT 1 FROM reservation WHERE reservation.site_id=site.id AND reservation.duration && daterange($1::date - 1, $2, '[]'))"
+            + " ORDER BY site.id";
+    /**
+     * Params: site id
+     */
+    final static String SITE_EXISTS = "SELECT 1 FROM site WHERE id=$1";
+    /**
+     * Params: email, first day, last day (inclusive)
+     */
+    final static String RESERVATIONS_BY_EMAIL = CONFIRMED_RESERVATION_COLUMNS + " WHERE person.email=$1 AND daterange($2, $3, '[]') && duration AND reservation.hold_expires_at IS NULL";
+    /**
+     * Params: reservation id
+     */
+    final static String RESERVATION_BY_ID = CONFIRMED_RESERVATION_COLUMNS + " WHERE reservation.id=$1 AND reservation.hold_expires_at IS NULL";
+    /**
+     * Params: email, full name. The no-op update makes the id returned when the person already exists
+     */
+    final static String UPSERT_PERSON = "INSERT INTO person (email,full_name) VALUES ($1,$2) ON CONFLICT (email,full_name) DO UPDATE SET email=EXCLUDED.email RETURNING id";
+    /**
+     * Params: reservation id, person id, site id, start date, end date (exclusive). An overlapping reservation is
+     * skipped with an update count of 0, which doesn't abort the transaction
+     */
+    final static String INSERT_RESERVATION_IF_FREE = "INSERT INTO reservation (id, person_id, site_id, duration) VALUES ($1,$2,$3,daterange($4, $5)) ON CONFLICT DO NOTHING";
+    /**
+     * Params: reservation id, person id, start date, end date (exclusive). Picks a random site with no booked night for
+     * the dates, so that concurrent bookings don't all compete for the same one, and inserts the reservation on it.
+     * Returns one row: the picked site, null when no site is free, and the booked site, null when a concurrent
+     * transaction took the picked site first
+     */
+    final static String INSERT_RESERVATION_ON_FREE_SITE = "WITH free_site AS (SELECT site.id FROM site WHERE NOT EXISTS"
+            + " (SELECT 1 FROM reservation WHERE reservation.site_id=site.id AND reservation.duration && daterange($3, $4))"
+            + " ORDER BY random() LIMIT 1),"
+            + " inserted AS (INSERT INTO reservation (id, person_id, site_id, duration) SELECT $1, $2, id, daterange($3, $4) FROM free_site ON CONFLICT DO NOTHING RETURNING site_id)"
+            + " SELECT (SELECT id FROM free_site), (SELECT site_id FROM inserted)";
+    /**
+     * Params: start date, end date (exclusive), reservation id. Returns the moved reservation, no row when it doesn't
+     * exist
+     */
+    final static String UPDATE_RESERVATION_DATES = "UPDATE reservation SET duration=daterange($1, $2) FROM person"
+            + " WHERE reservation.id=$3 AND reservation.hold_expires_at IS NULL AND person.id=reservation.person_id"
+            + " RETURNING reservation.id,person.email,person.full_name,lower(reservation.duration),upper(reservation.duration),reservation.site_id";
+    /**
+     * Params: reservation id
+     */
+    final static String DELETE_RESERVATION = "DELETE FROM reservation WHERE id=$1 AND hold_expires_at IS NULL";
+
+    private ReservationQueries() {
+    }
+}
@@ -0,0 +1,285 @@
+package com.remicartier.newisland.reactive.service;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.Reservation;
+import com.remicartier.model.ReservationDates;
+import com.remicartier.model.ReservationResult;
+import com.remicartier.model.Site;
+import com.remicartier.newisland.reactive.exception.ValidationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.text.MessageFormat;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking counterpart of the servlet application's {@code ReservationService}: same validation rules and
+ * statements, run on R2DBC so that no thread waits on Postgres.
+ * <p>
+ * There is no in-memory calendar here: vacancy and free sites are computed by the database, see
+ * {@link ReservationQueries}. Vacancy ETags only depend on the {@link VacancyVersion}, bumped by every committed change
+ * of either application.
+ */
+@Service
+public class ReservationService {
+    private final static String OVERLAP_MESSAGE = "Unable to create reservation, dates overlap with existing reservation";
+    private final static int MAX_SITE_ATTEMPTS = 3;
+
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactionalOperator;
+    private final VacancyVersion vacancyVersion;
+    private final int maxConsecutiveDays;
+    private final int minDaysAhead;
+    private final int maxDaysAhead;
+
+    @Autowired
+    public ReservationService(DatabaseClient databaseClient,
+                              ReactiveTransactionManager transactionManager,
+                              VacancyVersion vacancyVersion,
+                              @Value("${app.maxConsecutiveDays}") int maxConsecutiveDays,
+                              @Value("${app.minDaysAhead}") int minDaysAhead,
+                              @Value("${app.maxDaysAhead}") int maxDaysAhead) {
+        this.databaseClient = databaseClient;
+        this.transactionalOperator = TransactionalOperator.create(transactionManager);
+        this.vacancyVersion = vacancyVersion;
+        this.maxConsecutiveDays = maxConsecutiveDays;
+        this.minDaysAhead = minDaysAhead;
+        this.maxDaysAhead = maxDaysAhead;
+    }
+
+    /**
+     * @param siteId site to look at, any site when null
+     * @return the days of the window that are neither booked nor a check-out day
+     */
+    public Mono<List<LocalDate>> getVacancy(Long siteId, LocalDate startDate, LocalDate endDate) {
+        VacancyWindow window = getVacancyWindow(siteId, startDate, endDate);
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.execute(ReservationQueries.VACANCY)
+                .bind(0, window.getStartDate())
+                .bind(1, window.getEndDate());
+        spec = window.getSiteId() != null ? spec.bind(2, window.getSiteId()) : spec.bindNull(2, Long.class);
+        return spec.map((row, metadata) -> row.get(0, LocalDate.class)).all().collectList();
+    }
+
+    /**
+     * @return an ETag for the vacancy that {@link #getVacancy} would return for the same site and dates, computed
+     * without touching the database
+     */
+    public String getVacancyETag(Long siteId, LocalDate startDate, LocalDate endDate) {
+        VacancyWindow window = getVacancyWindow(siteId, startDate, endDate);
+        return "\"" + Long.toHexString(vacancyVersion.get()) + "-" + window.getStartDate() + "-" + window.getEndDate()
+                + (window.getSiteId() != null ? "-" + window.getSiteId() : "") + "\"";
+    }
+
+    /**
+     * @return the sites available on every day of the window, which is clamped the same way as {@link #getVacancy}
+     */
+    public Flux<Site> getVacantSites(LocalDate startDate, LocalDate endDate) {
+        VacancyWindow window = getVacancyWindow(null, startDate, endDate);
+        return databaseClient.execute(ReservationQueries.VACANT_SITES)
+                .bind(0, window.getStartDate())
+                .bind(1, window.getEndDate())
+                .map(ReservationQueries.SITE_MAPPER)
+                .all();
+    }
+
+    VacancyWindow getVacancyWindow(Long siteId, LocalDate startDate, LocalDate endDate) {
+        LocalDate now = LocalDate.now(Clock.systemUTC());
+        LocalDate nowPlus1Month = now.plus(1, ChronoUnit.MONTHS);
+        LocalDate realStartDate = startDate != null && startDate.isAfter(now) && startDate.isBefore(nowPlus1Month) ? startDate : now;
+        LocalDate realEndDate = endDate != null && endDate.isAfter(now) && endDate.isBefore(nowPlus1Month) ? endDate : nowPlus1Month;
+        return new VacancyWindow(realStartDate, realEndDate, siteId);
+    }
+
+    public Flux<ConfirmedReservation> getReservations(String email) {
+        LocalDate now = LocalDate.now(Clock.systemUTC());
+        LocalDate nowPlus1Month = now.plus(1, ChronoUnit.MONTHS);
+        return databaseClient.execute(ReservationQueries.RESERVATIONS_BY_EMAIL)
+                .bind(0, email)
+                .bind(1, now)
+                .bind(2, nowPlus1Month)
+                .map(ReservationQueries.CONFIRMED_RESERVATION_MAPPER)
+                .all();
+    }
+
+    public Mono<ConfirmedReservation> getReservation(String reservationId) {
+        return databaseClient.execute(ReservationQueries.RESERVATION_BY_ID)
+                .bind(0, reservationId)
+                .map(ReservationQueries.CONFIRMED_RESERVATION_MAPPER)
+                .first();
+    }
+
+    /**
+     * Books the reservation on its site, or on any site available for its dates when it doesn't have one.
+     */
+    public Mono<ConfirmedReservation> bookReservation(Reservation reservation) {
+        return Mono.fromRunnable(() -> validateReservation(reservation))
+                .then(validateSite(reservation))
+                .then(Mono.defer(() -> insertReservation(reservation)))
+                .as(transactionalOperator::transactional)
+                .doOnSuccess(confirmedReservation -> vacancyVersion.bump());
+    }
+
+    /**
+     * Books several reservations in one transaction, one after the other in the order of the list, so when two of
+     * them overlap on a site the first one wins; a conflict or a validation error only affects its own reservation.
+     *
+     * @param reservations reservations to book
+     * @param validator    validation run on each reservation before the service's own, throwing a
+     *                     {@link ValidationException} to reject it
+     * @return one result per reservation, in the same order
+     */
+    public Mono<List<ReservationResult>> bookReservations(List<Reservation> reservations, Consumer<Reservation> validator) {
+        return Flux.fromIterable(reservations)
+                .concatMap(reservation -> Mono.fromRunnable(() -> {
+                    validator.accept(reservation);
+                    validateReservation(reservation);
+                })
+                        .then(validateSite(reservation))
+                        .then(Mono.defer(() -> insertReservation(reservation)
+                                .map(confirmedReservation -> new ReservationResult().status(ReservationResult.StatusEnum.CONFIRMED).reservation(confirmedReservation))
+                                .onErrorResume(ValidationException.class, x -> Mono.just(new ReservationResult().status(ReservationResult.StatusEnum.CONFLICT).message(x.getMessage())))))
+                        .onErrorResume(ValidationException.class, x -> Mono.just(new ReservationResult().status(ReservationResult.StatusEnum.INVALID).message(x.getMessage()))))
+                .collectList()
+                .as(transactionalOperator::transactional)
+                .doOnSuccess(results -> vacancyVersion.bump());
+    }
+
+    private Mono<ConfirmedReservation> insertReservation(Reservation reservation) {
+        String reservationId = UUID.randomUUID().toString();
+        return upsertPerson(reservation.getEmail(), reservation.getFullName())
+                .flatMap(personId -> reservation.getSiteId() != null
+                        ? insertOnSite(reservationId, personId, reservation.getSiteId(), reservation)
+                        : insertOnFreeSite(reservationId, personId, reservation))
+                .map(siteId -> (ConfirmedReservation) new ConfirmedReservation().id(reservationId).fullName(reservation.getFullName())
+                        .email(reservation.getEmail()).siteId(siteId).startDate(reservation.getStartDate()).endDate(reservation.getEndDate()));
+    }
+
+    private Mono<Long> upsertPerson(String email, String fullName) {
+        return databaseClient.execute(ReservationQueries.UPSERT_PERSON)
+                .bind(0, email)
+                .bind(1, fullName)
+                .map((row, metadata) -> row.get(0, Long.class))
+                .one();
+    }
+
+    private Mono<Long> insertOnSite(String reservationId, long personId, long siteId, ReservationDates reservationDates) {
+        return databaseClient.execute(ReservationQueries.INSERT_RESERVATION_IF_FREE)
+                .bind(0, reservationId)
+                .bind(1, personId)
+                .bind(2, siteId)
+                .bind(3, reservationDates.getStartDate())
+                .bind(4, reservationDates.getEndDate())
+                .fetch()
+                .rowsUpdated()
+                .flatMap(updated -> updated > 0 ? Mono.just(siteId) : Mono.error(new ValidationException(OVERLAP_MESSAGE)));
+    }
+
+    /**
+     * Inserts the reservation on a random free site. Another transaction may take the picked site first: another one is
+     * then picked, at most {@value #MAX_SITE_ATTEMPTS} times.
+     *
+     * @return the site the reservation was made on
+     */
+    private Mono<Long> insertOnFreeSite(String reservationId, long personId, ReservationDates reservationDates) {
+        return Flux.range(0, MAX_SITE_ATTEMPTS)
+                .concatMap(attempt -> databaseClient.execute(ReservationQueries.INSERT_RESERVATION_ON_FREE_SITE)
+                        .bind(0, reservationId)
+                        .bind(1, personId)
+                        .bind(2, reservationDates.getStartDate())
+                        .bind(3, reservationDates.getEndDate())
+                        .map((row, metadata) -> new SitePick(row.get(0, Long.class), row.get(1, Long.class)))
+                        .one())
+                .takeUntil(sitePick -> sitePick.getFreeSiteId() == null || sitePick.getBookedSiteId() != null)
+                .last()
+                .flatMap(sitePick -> sitePick.getBookedSiteId() != null ? Mono.just(sitePick.getBookedSiteId()) : Mono.error(new ValidationException(OVERLAP_MESSAGE)));
+    }
+
+    private Mono<Void> validateSite(Reservation reservation) {
+        if (reservation.getSiteId() == null) {
+            return Mono.empty();
+        }
+        return databaseClient.execute(ReservationQueries.SITE_EXISTS)
+                .bind(0, reservation.getSiteId())
+                .fetch()
+                .first()
+                .switchIfEmpty(Mono.error(() -> new ValidationException("Site " + reservation.getSiteId() + " doesn't exist")))
+                .then();
+    }
+
+    void validateReservation(ReservationDates reservationDates) {
+        LocalDate now = LocalDate.now(Clock.systemUTC());
+        if (reservationDates.getStartDate().isBefore(now) || dayDiff(now, reservationDates.getStartDate()) < minDaysAhead) {
+            throw new ValidationException(MessageFormat.format("Start date has to be at least {0} day(s) ahead of arrival", minDaysAhead));
+        }
+        if (dayDiff(reservationDates.getStartDate(), reservationDates.getEndDate()) > maxConsecutiveDays) {
+            throw new ValidationException(MessageFormat.format("You can''t book more than {0} day(s) at a time", maxConsecutiveDays));
+        }
+        if (dayDiff(reservationDates.getStartDate(), now) > maxDaysAhead) {
+            throw new ValidationException(MessageFormat.format("Start date has to be no more than {0} day(s) ahead of arrival", maxDaysAhead));
+        }
+    }
+
+    private long dayDiff(LocalDate date1, LocalDate date2) {
+        return date1.equals(date2) ? 0 : Math.abs(ChronoUnit.DAYS.between(date1, date2)) + 1;
+    }
+
+    /**
+     * @return whether the reservation existed and was deleted, in a single statement
+     */
+    public Mono<Boolean> deleteReservation(String reservationId) {
+        return databaseClient.execute(ReservationQueries.DELETE_RESERVATION)
+                .bind(0, reservationId)
+                .fetch()
+                .rowsUpdated()
+                .map(deleted -> deleted > 0)
+                .doOnNext(deleted -> {
+                    if (deleted) {
+                        vacancyVersion.bump();
+                    }
+                });
+    }
+
+    /**
+     * Moves the reservation in a single statement, without reading it first
+     *
+     * @return the reservation as it now is, empty when it doesn't exist
+     */
+    public Mono<ConfirmedReservation> updateReservation(String reservationId, ReservationDates reservationDates) {
+        return Mono.fromRunnable(() -> validateReservation(reservationDates))
+                .then(databaseClient.execute(ReservationQueries.UPDATE_RESERVATION_DATES)
+                        .bind(0, reservationDates.getStartDate())
+                        .bind(1, reservationDates.getEndDate())
+                        .bind(2, reservationId)
+                        .map(ReservationQueries.CONFIRMED_RESERVATION_MAPPER)
+                        .first())
+                .onErrorMap(DataIntegrityViolationException.class, x -> new ValidationException("Unable to update reservationDates, dates overlap with existing reservationDates", x))
+                .doOnNext(updated -> vacancyVersion.bump());
+    }
+
+    /**
+     * Outcome of {@link ReservationQueries#INSERT_RESERVATION_ON_FREE_SITE}
+     */
+    @lombok.Value
+    private static class SitePick {
+        /**
+         * Null when no site is free for the dates
+         */
+        Long freeSiteId;
+        /**
+         * Null when the reservation wasn't inserted
+         */
+        Long bookedSiteId;
+    }
+}
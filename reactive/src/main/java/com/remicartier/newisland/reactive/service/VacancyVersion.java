@@ -0,0 +1,105 @@
+package com.remicartier.newisland.reactive.service;
+
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of the vacancy, which its ETags depend on. It starts from the time the instance started, so that an ETag
+ * handed out before a restart isn't answered a 304, and is bumped by every committed reservation change notified on
+ * the {@value #CHANNEL} channel (see {@code V6__reservation_notify.sql}), whichever application or instance made it.
+ * <p>
+ * Notifications are received on a connection of their own, opened with the {@code spring.r2dbc} settings outside of
+ * the pool, and reopened every {@code app.vacancy.reconnectDelay} when lost. Changes made meanwhile are unknown: the
+ * version is bumped once listening again.
+ */
+@Component
+@Slf4j
+public class VacancyVersion {
+    final static String CHANNEL = "reservation_changed";
+
+    private final ConnectionFactory connectionFactory;
+    private final Duration reconnectDelay;
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+    private Disposable listener;
+
+    @Autowired
+    public VacancyVersion(R2dbcProperties properties, @Value("${app.vacancy.reconnectDelay:5s}") Duration reconnectDelay) {
+        this(ConnectionFactories.get(listenOptions(properties)), reconnectDelay);
+    }
+
+    VacancyVersion(ConnectionFactory connectionFactory, Duration reconnectDelay) {
+        this.connectionFactory = connectionFactory;
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    @PostConstruct
+    public void start() {
+        listener = Flux.usingWhen(Mono.<Connection>from(connectionFactory.create()), this::listen, Connection::close)
+                .doOnError(x -> log.warn("Lost the {} notifications, reconnecting in {}", CHANNEL, reconnectDelay, x))
+                .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, reconnectDelay))
+                .subscribe(notification -> bump());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (listener != null) {
+            listener.dispose();
+        }
+    }
+
+    public long get() {
+        return version.get();
+    }
+
+    /**
+     * For the changes made through this instance, so that its own clients don't have to wait for the notification
+     */
+    public void bump() {
+        version.incrementAndGet();
+    }
+
+    private Flux<?> listen(Connection connection) {
+        PostgresqlConnection postgresqlConnection = (PostgresqlConnection) connection;
+        return postgresqlConnection.createStatement("LISTEN " + CHANNEL).execute()
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .doOnComplete(() -> {
+                    log.info("Listening to {}", CHANNEL);
+                    bump();
+                })
+                .thenMany(Flux.defer(postgresqlConnection::getNotifications))
+                // The connection was closed by the server
+                .concatWith(Flux.error(() -> new IllegalStateException("Connection closed")));
+    }
+
+    /**
+     * The {@code spring.r2dbc} url and credentials, without pooling
+     */
+    private static ConnectionFactoryOptions listenOptions(R2dbcProperties properties) {
+        ConnectionFactoryOptions.Builder builder = ConnectionFactoryOptions.parse(properties.getUrl()).mutate();
+        if (properties.getUsername() != null) {
+            builder.option(ConnectionFactoryOptions.USER, properties.getUsername());
+        }
+        if (properties.getPassword() != null) {
+            builder.option(ConnectionFactoryOptions.PASSWORD, properties.getPassword());
+        }
+        return builder.build();
+    }
+}
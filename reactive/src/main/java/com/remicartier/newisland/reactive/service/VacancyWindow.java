@@ -0,0 +1,22 @@
+package com.remicartier.newisland.reactive.service;
+
+import lombok.Value;
+
+import java.time.LocalDate;
+
+/**
+ * Effective window of a vacancy search, once the requested dates have been clamped to what can be booked, and the
+ * site it is about.
+ */
+@Value
+class VacancyWindow {
+    LocalDate startDate;
+    /**
+     * Inclusive
+     */
+    LocalDate endDate;
+    /**
+     * Null for the vacancy of any site
+     */
+    Long siteId;
+}
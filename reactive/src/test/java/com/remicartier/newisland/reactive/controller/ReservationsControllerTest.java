@@ -0,0 +1,207 @@
+package com.remicartier.newisland.reactive.controller;
+
+import com.remicartier.model.ConfirmedReservation;
+import com.remicartier.model.ErrorMessage;
+import com.remicartier.model.Reservation;
+import com.remicartier.model.ReservationDates;
+import com.remicartier.model.ReservationResult;
+import com.remicartier.newisland.reactive.exception.ValidationException;
+import com.remicartier.newisland.reactive.service.ReservationService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings({"unused", "unchecked"})
+@WebFluxTest
+class ReservationsControllerTest {
+    private final static String EMAIL = "user@domain.com";
+    private final static String FULL_NAME = "John Doe";
+    private final static String BOOKING_ID = UUID.randomUUID().toString();
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+
+    @MockBean
+    private ReservationService reservationService;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Test
+    void getReservations() {
+        when(reservationService.getReservations(EMAIL)).thenReturn(Flux.just(new ConfirmedReservation().id(BOOKING_ID)));
+
+        webTestClient.get().uri("/reservations?email={email}", EMAIL).exchange()
+                .expectStatus().isOk()
+                .expectBodyList(ConfirmedReservation.class).hasSize(1);
+    }
+
+    @Test
+    void getReservationsMissingEmail() {
+        webTestClient.get().uri("/reservations").exchange()
+                .expectStatus().isBadRequest();
+        verify(reservationService, never()).getReservations(any());
+    }
+
+    @Test
+    void createReservation() {
+        when(reservationService.bookReservation(any(Reservation.class))).thenReturn(Mono.just(new ConfirmedReservation().id(BOOKING_ID)));
+
+        Reservation reservation = (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now).endDate(now.plusDays(1));
+
+        ConfirmedReservation confirmedReservation = webTestClient.post().uri("/reservations").bodyValue(reservation).exchange()
+                .expectStatus().isCreated()
+                .expectBody(ConfirmedReservation.class).returnResult().getResponseBody();
+        Assertions.assertNotNull(confirmedReservation);
+        Assertions.assertEquals(BOOKING_ID, confirmedReservation.getId());
+    }
+
+    @Test
+    void createReservationBadRequest() {
+        when(reservationService.bookReservation(any(Reservation.class))).thenReturn(Mono.error(new ValidationException("Nope")));
+
+        Reservation reservation = (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now).endDate(now.plusDays(1));
+
+        webTestClient.post().uri("/reservations").bodyValue(reservation).exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(ErrorMessage.class).isEqualTo(new ErrorMessage().message("Nope"));
+    }
+
+    @Test
+    void createReservationBadRequestMissingField() {
+        Reservation reservation = (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now);
+
+        webTestClient.post().uri("/reservations").bodyValue(reservation).exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(ErrorMessage.class).isEqualTo(new ErrorMessage().message("Field 'endDate' is undefined"));
+    }
+
+    @Test
+    void createReservations() {
+        when(reservationService.bookReservations(anyList(), any())).thenAnswer(invocation -> {
+            Consumer<Reservation> validator = invocation.getArgument(1);
+            List<ReservationResult> results = new ArrayList<>();
+            for (Reservation reservation : (List<Reservation>) invocation.getArgument(0)) {
+                try {
+                    validator.accept(reservation);
+                    results.add(new ReservationResult().status(ReservationResult.StatusEnum.CONFIRMED).reservation(new ConfirmedReservation().id(BOOKING_ID)));
+                } catch (ValidationException x) {
+                    results.add(new ReservationResult().status(ReservationResult.StatusEnum.INVALID).message(x.getMessage()));
+                }
+            }
+            return Mono.just(results);
+        });
+
+        List<Reservation> reservations = Arrays.asList(
+                (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now).endDate(now.plusDays(1)),
+                (Reservation) new Reservation().fullName(FULL_NAME).startDate(now).endDate(now.plusDays(1)));
+
+        List<ReservationResult> results = webTestClient.post().uri("/reservations/batch").bodyValue(reservations).exchange()
+                .expectStatus().isOk()
+                .expectBodyList(ReservationResult.class).returnResult().getResponseBody();
+        Assertions.assertNotNull(results);
+        Assertions.assertEquals(2, results.size());
+        Assertions.assertEquals(ReservationResult.StatusEnum.CONFIRMED, results.get(0).getStatus());
+        Assertions.assertEquals(BOOKING_ID, results.get(0).getReservation().getId());
+        Assertions.assertEquals(ReservationResult.StatusEnum.INVALID, results.get(1).getStatus());
+        Assertions.assertEquals("Field 'email' is undefined", results.get(1).getMessage());
+    }
+
+    @Test
+    void createReservationsTooMany() {
+        List<Reservation> reservations = Collections.nCopies(101, (Reservation) new Reservation().fullName(FULL_NAME).email(EMAIL).startDate(now).endDate(now.plusDays(1)));
+
+        webTestClient.post().uri("/reservations/batch").bodyValue(reservations).exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(ErrorMessage.class).isEqualTo(new ErrorMessage().message("You can't book more than 100 reservation(s) at once"));
+        verify(reservationService, never()).bookReservations(anyList(), any());
+    }
+
+    @Test
+    void getReservationInfo() {
+        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Mono.just(new ConfirmedReservation().id(BOOKING_ID)));
+
+        webTestClient.get().uri("/reservations/" + BOOKING_ID).exchange()
+                .expectStatus().isOk()
+                .expectBody(ConfirmedReservation.class).isEqualTo(new ConfirmedReservation().id(BOOKING_ID));
+    }
+
+    @Test
+    void getReservationInfoNotFound() {
+        when(reservationService.getReservation(BOOKING_ID)).thenReturn(Mono.empty());
+
+        webTestClient.get().uri("/reservations/" + BOOKING_ID).exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void deleteReservation() {
+        when(reservationService.deleteReservation(BOOKING_ID)).thenReturn(Mono.just(true));
+
+        webTestClient.delete().uri("/reservations/" + BOOKING_ID).exchange()
+                .expectStatus().isNoContent();
+        verify(reservationService, never()).getReservation(any());
+    }
+
+    @Test
+    void deleteReservationNotFound() {
+        when(reservationService.deleteReservation(BOOKING_ID)).thenReturn(Mono.just(false));
+
+        webTestClient.delete().uri("/reservations/" + BOOKING_ID).exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void updateReservation() {
+        ReservationDates reservationDates = new ReservationDates().startDate(now).endDate(now.plusDays(1));
+        ConfirmedReservation confirmedReservation = (ConfirmedReservation) new ConfirmedReservation().id(BOOKING_ID).startDate(now).endDate(now.plusDays(1));
+        when(reservationService.updateReservation(eq(BOOKING_ID), any(ReservationDates.class))).thenReturn(Mono.just(confirmedReservation));
+
+        webTestClient.patch().uri("/reservations/" + BOOKING_ID).bodyValue(reservationDates).exchange()
+                .expectStatus().isOk()
+                .expectBody(ConfirmedReservation.class).isEqualTo(confirmedReservation);
+        verify(reservationService, never()).getReservation(any());
+    }
+
+    @Test
+    void updateReservationNotFound() {
+        ReservationDates reservationDates = new ReservationDates().startDate(now).endDate(now.plusDays(1));
+        when(reservationService.updateReservation(eq(BOOKING_ID), any(ReservationDates.class))).thenReturn(Mono.empty());
+
+        webTestClient.patch().uri("/reservations/" + BOOKING_ID).bodyValue(reservationDates).exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void updateReservationBadRequest() {
+        ReservationDates reservationDates = new ReservationDates().startDate(now).endDate(now.plusDays(1));
+        when(reservationService.updateReservation(eq(BOOKING_ID), any(ReservationDates.class))).thenReturn(Mono.error(new ValidationException("Nope")));
+
+        webTestClient.patch().uri("/reservations/" + BOOKING_ID).bodyValue(reservationDates).exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(ErrorMessage.class).isEqualTo(new ErrorMessage().message("Nope"));
+    }
+
+    @Test
+    void updateReservationBadRequestMissingField() {
+        ReservationDates reservationDates = new ReservationDates().startDate(now);
+
+        webTestClient.patch().uri("/reservations/" + BOOKING_ID).bodyValue(reservationDates).exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(ErrorMessage.class).isEqualTo(new ErrorMessage().message("Field 'endDate' is undefined"));
+        verify(reservationService, never()).getReservation(any());
+    }
+}
@@ -0,0 +1,81 @@
+package com.remicartier.newisland.reactive.controller;
+
+import com.remicartier.model.Site;
+import com.remicartier.newisland.reactive.service.ReservationService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unused")
+@WebFluxTest
+class VacancyControllerTest {
+    private final static String ETAG = "\"1-2020-08-01-2020-09-01\"";
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+
+    @MockBean
+    private ReservationService reservationService;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Test
+    void getVacancy() {
+        when(reservationService.getVacancyETag(null, null, null)).thenReturn(ETAG);
+        when(reservationService.getVacancy(null, null, null)).thenReturn(Mono.just(Collections.singletonList(now)));
+
+        webTestClient.get().uri("/vacancy").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, ETAG)
+                .expectBodyList(LocalDate.class).hasSize(1).contains(now);
+    }
+
+    @Test
+    void getVacancyNotModified() {
+        when(reservationService.getVacancyETag(null, null, null)).thenReturn(ETAG);
+
+        webTestClient.get().uri("/vacancy").header(HttpHeaders.IF_NONE_MATCH, ETAG).exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, ETAG);
+        verify(reservationService, never()).getVacancy(any(), any(), any());
+    }
+
+    @Test
+    void getVacancyAnyException() {
+        when(reservationService.getVacancyETag(null, null, null)).thenReturn(ETAG);
+        when(reservationService.getVacancy(null, null, null)).thenReturn(Mono.error(new RuntimeException("Nope")));
+
+        webTestClient.get().uri("/vacancy").exchange()
+                .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    void getVacancyForSite() {
+        when(reservationService.getVacancyETag(2L, now, now.plusDays(1))).thenReturn(ETAG);
+        when(reservationService.getVacancy(2L, now, now.plusDays(1))).thenReturn(Mono.just(Collections.singletonList(now)));
+
+        webTestClient.get().uri("/vacancy?siteId=2&startDate={startDate}&endDate={endDate}", now, now.plusDays(1)).exchange()
+                .expectStatus().isOk()
+                .expectBodyList(LocalDate.class).hasSize(1).contains(now);
+    }
+
+    @Test
+    void getVacantSites() {
+        when(reservationService.getVacantSites(null, null)).thenReturn(Flux.just(new Site().id(2L).name("North")));
+
+        webTestClient.get().uri("/vacancy/sites").exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Site.class).hasSize(1).contains(new Site().id(2L).name("North"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.remicartier.newisland.reactive.service;
+
+import com.remicartier.model.Reservation;
+import com.remicartier.model.ReservationDates;
+import com.remicartier.model.ReservationResult;
+import com.remicartier.newisland.reactive.exception.ValidationException;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.ReactiveTransaction;
+import org.springframework.transaction.ReactiveTransactionManager;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ReservationServiceTest {
+    private final static String EMAIL = "user@domain.com";
+    private final static String FULL_NAME = "John Doe";
+    private final LocalDate now = LocalDate.now(Clock.systemUTC());
+
+    private DatabaseClient databaseClient;
+    private VacancyVersion vacancyVersion;
+    private ReservationService reservationService;
+
+    @BeforeEach
+    void setup() {
+        databaseClient = mock(DatabaseClient.class);
+        ReactiveTransactionManager transactionManager = mock(ReactiveTransactionManager.class);
+        when(transactionManager.getReactiveTransaction(any())).thenReturn(Mono.just(mock(ReactiveTransaction.class)));
+        when(transactionManager.commit(any())).thenReturn(Mono.empty());
+        when(transactionManager.rollback(any())).thenReturn(Mono.empty());
+        vacancyVersion = new VacancyVersion(mock(ConnectionFactory.class), Duration.ofSeconds(5));
+        reservationService = new ReservationService(databaseClient, transactionManager, vacancyVersion, 3, 1, 30);
+    }
+
+    @Test
+    void validateReservation() {
+        reservationService.validateReservation(new ReservationDates().startDate(now.plusDays(1)).endDate(now.plusDays(3)));
+    }
+
+    @Test
+    void validateReservationTooSoon() {
+        ValidationException x = Assertions.assertThrows(ValidationException.class,
+                () -> reservationService.validateReservation(new ReservationDates().startDate(now).endDate(now.plusDays(1))));
+        Assertions.assertEquals("Start date has to be at least 1 day(s) ahead of arrival", x.getMessage());
+    }
+
+    @Test
+    void validateReservationTooLong() {
+        ValidationException x = Assertions.assertThrows(ValidationException.class,
+                () -> reservationService.validateReservation(new ReservationDates().startDate(now.plusDays(1)).endDate(now.plusDays(4))));
+        Assertions.assertEquals("You can't book more than 3 day(s) at a time", x.getMessage());
+    }
+
+    @Test
+    void validateReservationTooFar() {
+        ValidationException x = Assertions.assertThrows(ValidationException.class,
+                () -> reservationService.validateReservation(new ReservationDates().startDate(now.plusDays(31)).endDate(now.plusDays(32))));
+        Assertions.assertEquals("Start date has to be no more than 30 day(s) ahead of arrival", x.getMessage());
+    }
+
+    @Test
+    void getVacancyWindow() {
+        Assertions.assertEquals(new VacancyWindow(now, now.plusMonths(1), null), reservationService.getVacancyWindow(null, null, null));
+        Assertions.assertEquals(new VacancyWindow(now.plusDays(2), now.plusDays(5), 2L), reservationService.getVacancyWindow(2L, now.plusDays(2), now.plusDays(5)));
+        Assertions.assertEquals(new VacancyWindow(now, now.plusMonths(1), null), reservationService.getVacancyWindow(null, now.minusDays(1), now.plusMonths(2)));
+    }
+
+    @Test
+    void getVacancyETag() {
+        String eTag = reservationService.getVacancyETag(null, now.plusDays(2), now.plusDays(5));
+
+        Assertions.assertEquals("\"" + Long.toHexString(vacancyVersion.get()) + "-" + now.plusDays(2) + "-" + now.plusDays(5) + "\"", eTag);
+        Assertions.assertNotEquals(eTag, reservationService.getVacancyETag(2L, now.plusDays(2), now.plusDays(5)));
+    }
+
+    @Test
+    void bookReservationInvalid() {
+        Reservation reservation = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now).endDate(now.plusDays(1));
+        long version = vacancyVersion.get();
+
+        StepVerifier.create(reservationService.bookReservation(reservation))
+                .expectErrorMessage("Start date has to be at least 1 day(s) ahead of arrival")
+                .verify();
+        verifyNoInteractions(databaseClient);
+        // Nothing was committed
+        Assertions.assertEquals(version, vacancyVersion.get());
+    }
+
+    @Test
+    void bookReservationsInvalid() {
+        Reservation missingEmail = (Reservation) new Reservation().fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(2));
+        Reservation tooLong = (Reservation) new Reservation().email(EMAIL).fullName(FULL_NAME).startDate(now.plusDays(1)).endDate(now.plusDays(5));
+
+        StepVerifier.create(reservationService.bookReservations(Arrays.asList(missingEmail, tooLong), reservation -> {
+            if (reservation.getEmail() == null) {
+                throw new ValidationException("Field 'email' is undefined");
+            }
+        }))
+                .assertNext(results -> {
+                    Assertions.assertEquals(2, results.size());
+                    Assertions.assertEquals(ReservationResult.StatusEnum.INVALID, results.get(0).getStatus());
+                    Assertions.assertEquals("Field 'email' is undefined", results.get(0).getMessage());
+                    Assertions.assertEquals(ReservationResult.StatusEnum.INVALID, results.get(1).getStatus());
+                    Assertions.assertEquals("You can't book more than 3 day(s) at a time", results.get(1).getMessage());
+                })
+                .verifyComplete();
+        verifyNoInteractions(databaseClient);
+    }
+}
@@ -0,0 +1,80 @@
+package com.remicartier.newisland.reactive.service;
+
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.postgresql.api.PostgresqlStatement;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static org.mockito.Mockito.*;
+
+class VacancyVersionTest {
+    private DirectProcessor<Notification> notifications;
+    private PostgresqlConnection connection;
+    private VacancyVersion vacancyVersion;
+
+    @BeforeEach
+    void setup() {
+        notifications = DirectProcessor.create();
+        connection = mock(PostgresqlConnection.class);
+        PostgresqlStatement statement = mock(PostgresqlStatement.class);
+        PostgresqlResult result = mock(PostgresqlResult.class);
+        when(connection.createStatement("LISTEN " + VacancyVersion.CHANNEL)).thenReturn(statement);
+        when(statement.execute()).thenReturn(Flux.just(result));
+        when(result.getRowsUpdated()).thenReturn(Mono.just(0));
+        when(connection.getNotifications()).thenReturn(notifications);
+        when(connection.close()).thenReturn(Mono.empty());
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        doReturn(Mono.just(connection)).when(connectionFactory).create();
+        vacancyVersion = new VacancyVersion(connectionFactory, Duration.ofMillis(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        vacancyVersion.stop();
+    }
+
+    @Test
+    void startsFromTheStartTime() {
+        long before = System.currentTimeMillis();
+
+        Assertions.assertTrue(new VacancyVersion(mock(ConnectionFactory.class), Duration.ZERO).get() >= before);
+    }
+
+    @Test
+    void bumpedByNotifications() {
+        long initial = vacancyVersion.get();
+        vacancyVersion.start();
+        // Changes may have been missed until listening
+        long listening = vacancyVersion.get();
+        Assertions.assertTrue(listening > initial);
+
+        notifications.onNext(mock(Notification.class));
+        notifications.onNext(mock(Notification.class));
+
+        Assertions.assertEquals(listening + 2, vacancyVersion.get());
+    }
+
+    @Test
+    void bumpedWhenListeningAgain() {
+        // The connection listened to again stays open
+        when(connection.getNotifications()).thenReturn(notifications, Flux.never());
+        vacancyVersion.start();
+        long listening = vacancyVersion.get();
+
+        notifications.onComplete();
+
+        verify(connection, timeout(1000).times(2)).getNotifications();
+        verify(connection).close();
+        Assertions.assertEquals(listening + 1, vacancyVersion.get());
+    }
+}